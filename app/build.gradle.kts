@@ -3,6 +3,7 @@ import org.gradle.internal.os.OperatingSystem
 plugins {
     id("java")
     id("com.gradleup.shadow") version "9.0.2"
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "net.flamgop"
@@ -44,10 +45,69 @@ tasks.shadowJar {
     }
 }
 
+// ./gradlew packAssets [-Pdeflate], the game mounts assets.pak from its working directory
+tasks.register<JavaExec>("packAssets") {
+    group = "distribution"
+    description = "Packs src/main/resources and assets into assets.pak"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("net.flamgop.asset.vfs.ArchivePacker")
+    if (project.hasProperty("deflate")) args("-deflate")
+    args(
+        rootProject.file("assets.pak").path,
+        project.file("src/main/resources").path,
+        rootProject.file("assets").path
+    )
+}
+
+// ./gradlew convertLevel -Pin=<level> -Pout=<level>, JSON5 to binary or binary to JSON5 depending on the input
+tasks.register<JavaExec>("convertLevel") {
+    group = "distribution"
+    description = "Converts a level between JSON5 and the binary level format"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("net.flamgop.asset.level.LevelConverter")
+    args(
+        project.findProperty("in")?.toString() ?: "",
+        project.findProperty("out")?.toString() ?: ""
+    )
+}
+
+// BatchCuller uses the Vector API when the JVM runs with these and falls back to scalar code otherwise. A jar manifest can't add
+// modules, so anything that starts the game without the run task below has to pass them itself
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
+tasks.withType<JavaCompile>().configureEach {
+    // -incubating: the module is used on purpose, don't warn about it on every compile
+    options.compilerArgs.addAll(vectorModule + "-Xlint:-incubating")
+}
+
+// ./gradlew run [-PgameArgs="-renderdoc -physics-debug"], runs the game from the project directory with the Vector API enabled
+tasks.register<JavaExec>("run") {
+    group = "application"
+    description = "Runs the game"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("net.flamgop.Game")
+    workingDir = rootProject.projectDir
+    jvmArgs(vectorModule)
+    if (OperatingSystem.current().isMacOsX) jvmArgs("-XstartOnFirstThread")
+    project.findProperty("gameArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() }?.let { args(it) }
+}
+
+// ./gradlew jmh [-Pjmh.includes=<regex>], benchmarks live in src/jmh/java
+jmh {
+    jmhVersion.set("1.37")
+    jvmArgsAppend.addAll(vectorModule)
+    project.findProperty("jmh.includes")?.toString()?.let { includes.add(it) }
+}
+
 repositories {
     mavenCentral()
 }
 
+tasks.test {
+    useJUnitPlatform()
+    jvmArgs(vectorModule)
+}
+
 dependencies {
     implementation(platform("org.lwjgl:lwjgl-bom:$lwjglVersion"))
 
@@ -55,6 +115,7 @@ dependencies {
     implementation("org.lwjgl", "lwjgl-assimp")
     implementation("org.lwjgl", "lwjgl-freetype")
     implementation("org.lwjgl", "lwjgl-glfw")
+    implementation("org.lwjgl", "lwjgl-lz4")
     implementation("org.lwjgl", "lwjgl-openal")
     implementation("org.lwjgl", "lwjgl-opengl")
     implementation("org.lwjgl", "lwjgl-par")
@@ -63,6 +124,7 @@ dependencies {
     implementation ("org.lwjgl", "lwjgl-assimp", classifier = lwjglNatives)
     implementation ("org.lwjgl", "lwjgl-freetype", classifier = lwjglNatives)
     implementation ("org.lwjgl", "lwjgl-glfw", classifier = lwjglNatives)
+    implementation ("org.lwjgl", "lwjgl-lz4", classifier = lwjglNatives)
     implementation ("org.lwjgl", "lwjgl-openal", classifier = lwjglNatives)
     implementation ("org.lwjgl", "lwjgl-opengl", classifier = lwjglNatives)
     implementation ("org.lwjgl", "lwjgl-par", classifier = lwjglNatives)
@@ -70,8 +132,6 @@ dependencies {
     implementation("org.joml", "joml-primitives", jomlPrimitivesVersion)
     implementation("org.joml", "joml", jomlVersion)
 
-    implementation("de.marhali:json5-java:2.0.0")
-
     implementation("io.github.spair:imgui-java-binding:1.89.0")
     implementation("io.github.spair:imgui-java-lwjgl3:1.89.0")
     implementation("io.github.spair:imgui-java-natives-windows:1.89.0")
@@ -87,4 +147,8 @@ dependencies {
     implementation("org.apache.logging.log4j:log4j-slf4j2-impl:2.25.1")
 
     implementation(project(":renderdoc"))
+
+    testImplementation(platform("org.junit:junit-bom:5.13.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
\ No newline at end of file
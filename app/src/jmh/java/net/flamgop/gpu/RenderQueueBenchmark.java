@@ -0,0 +1,90 @@
+package net.flamgop.gpu;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and sorting a frame's render keys, with a comparison sort of item indices by key as the baseline {@link RenderQueue}
+ * would otherwise use.
+ * <br/>
+ * Items are drawn from a handful of shaders and a few dozen materials and meshes, like a real scene, so the radix sort gets to
+ * skip the bytes every key shares.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderQueueBenchmark {
+    private static final float FAR = 500f;
+
+    @Param({"1000", "10000", "100000"})
+    int items;
+
+    private int[] shaders, materials, vaos;
+    private float[] distances;
+
+    private long[] unsorted;
+    private long[] keys, keyScratch;
+    private int[] values, valueScratch;
+    private Integer[] boxed;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        shaders = new int[items];
+        materials = new int[items];
+        vaos = new int[items];
+        distances = new float[items];
+        unsorted = new long[items];
+        for (int i = 0; i < items; i++) {
+            shaders[i] = 3 + random.nextInt(4);
+            materials[i] = random.nextInt(48);
+            vaos[i] = 100 + random.nextInt(64);
+            distances[i] = (float) random.nextDouble(0, FAR);
+            unsorted[i] = RenderQueue.key(RenderQueue.PASS_GBUFFER, shaders[i], materials[i], vaos[i], distances[i], FAR);
+        }
+        keys = new long[items];
+        keyScratch = new long[items];
+        values = new int[items];
+        valueScratch = new int[items];
+        boxed = new Integer[items];
+    }
+
+    @Benchmark
+    public long[] buildKeys() {
+        for (int i = 0; i < items; i++) keys[i] = RenderQueue.key(RenderQueue.PASS_GBUFFER, shaders[i], materials[i], vaos[i], distances[i], FAR);
+        return keys;
+    }
+
+    @Benchmark
+    public int[] radixSort() {
+        System.arraycopy(unsorted, 0, keys, 0, items);
+        for (int i = 0; i < items; i++) values[i] = i;
+        RenderQueue.sort(keys, values, items, keyScratch, valueScratch);
+        return values;
+    }
+
+    @Benchmark
+    public Integer[] comparisonSort() {
+        for (int i = 0; i < items; i++) boxed[i] = i;
+        Arrays.sort(boxed, Comparator.<Integer, Long>comparing(i -> unsorted[i], Long::compareUnsigned));
+        return boxed;
+    }
+
+    // both together, what RenderQueue.build costs apart from looking items up
+    @Benchmark
+    public int[] buildAndSort() {
+        for (int i = 0; i < items; i++) {
+            keys[i] = RenderQueue.key(RenderQueue.PASS_GBUFFER, shaders[i], materials[i], vaos[i], distances[i], FAR);
+            values[i] = i;
+        }
+        RenderQueue.sort(keys, values, items, keyScratch, valueScratch);
+        return values;
+    }
+}
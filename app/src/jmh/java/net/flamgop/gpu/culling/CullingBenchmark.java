@@ -0,0 +1,151 @@
+package net.flamgop.gpu.culling;
+
+import net.flamgop.util.AABB;
+import net.flamgop.util.FrustumPlane;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frustum culling a scene's worth of meshes against the camera plus the shadow cascades, the way the culler worked before
+ * (one mesh at a time: bounding sphere, then eight transformed corners against every plane) against {@link BatchCuller}
+ * over {@link PackedBounds}, with and without the vector path.
+ * <br/>
+ * Every variant starts from the meshes' local boxes and world matrices, so the cost of packing the bounds is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CullingBenchmark {
+    private static final int PLANES = 6;
+
+    @Param({"256", "4096", "65536", "131072"})
+    int meshes;
+
+    // the camera and four cascades, or the camera alone
+    @Param({"1", "5"})
+    int views;
+
+    private AABB[] boxes;
+    private Vector3f[] sphereCenters;
+    private float[] sphereRadii;
+    private Matrix4f[] worlds;
+    private FrustumPlane[][] frusta;
+    private float[] packedPlanes;
+
+    private PackedBounds bounds;
+    private long[][] visible;
+
+    private final Vector3f center = new Vector3f();
+    private final Vector3f[] corners = {new Vector3f(), new Vector3f(), new Vector3f(), new Vector3f(), new Vector3f(), new Vector3f(), new Vector3f(), new Vector3f()};
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        boxes = new AABB[meshes];
+        sphereCenters = new Vector3f[meshes];
+        sphereRadii = new float[meshes];
+        worlds = new Matrix4f[meshes];
+        for (int i = 0; i < meshes; i++) {
+            Vector3f half = new Vector3f((float) random.nextDouble(0.2, 2), (float) random.nextDouble(0.2, 2), (float) random.nextDouble(0.2, 2));
+            boxes[i] = new AABB(new Vector3f(half).negate(), half);
+            sphereCenters[i] = boxes[i].center();
+            sphereRadii[i] = boxes[i].radius();
+            worlds[i] = new Matrix4f()
+                    .translation((float) random.nextDouble(-200, 200), (float) random.nextDouble(-20, 20), (float) random.nextDouble(-200, 200))
+                    .rotateY((float) random.nextDouble(0, 2 * Math.PI));
+        }
+
+        // views looking off in different directions from around the origin, so each keeps a different part of the scene
+        frusta = new FrustumPlane[views][PLANES];
+        packedPlanes = new float[4 * PLANES * views];
+        Vector4f plane = new Vector4f();
+        for (int v = 0; v < views; v++) {
+            Matrix4f viewProjection = new Matrix4f()
+                    .perspective((float) Math.toRadians(70), 16f / 9f, 0.1f, 150f)
+                    .lookAt(0, 2, 0, (float) Math.cos(v * 1.3), 2, (float) Math.sin(v * 1.3), 0, 1, 0);
+            for (int p = 0; p < PLANES; p++) {
+                viewProjection.frustumPlane(p, plane);
+                frusta[v][p] = new FrustumPlane(new Vector3f(plane.x, plane.y, plane.z), plane.w);
+            }
+            BatchCuller.pack(frusta[v], packedPlanes, v * 4 * PLANES);
+        }
+
+        bounds = new PackedBounds(meshes);
+        visible = new long[views][BatchCuller.words(meshes)];
+    }
+
+    // what FrustumCulling did before the batch culler, per mesh and per view
+    @Benchmark
+    public void perMesh(Blackhole blackhole) {
+        for (int i = 0; i < meshes; i++) {
+            for (int v = 0; v < views; v++) blackhole.consume(isMeshInsideFrustum(i, frusta[v]));
+        }
+    }
+
+    @Benchmark
+    public long[][] batch() {
+        pack();
+        BatchCuller.cull(bounds, packedPlanes, PLANES, visible);
+        return visible;
+    }
+
+    // the batch layout without the vector path, every box through the single box test
+    @Benchmark
+    public long[][] batchScalar() {
+        pack();
+        for (long[] view : visible) Arrays.fill(view, 0L);
+        for (int i = 0; i < bounds.size; i++) {
+            for (int v = 0; v < views; v++) {
+                if (BatchCuller.visible(bounds.centerX[i], bounds.centerY[i], bounds.centerZ[i], bounds.extentX[i], bounds.extentY[i], bounds.extentZ[i],
+                        packedPlanes, v * 4 * PLANES, PLANES)) {
+                    visible[v][i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return visible;
+    }
+
+    private void pack() {
+        bounds.clear();
+        for (int i = 0; i < meshes; i++) bounds.add(worlds[i], boxes[i].min(), boxes[i].max());
+    }
+
+    private boolean isMeshInsideFrustum(int mesh, FrustumPlane[] planes) {
+        Matrix4f model = worlds[mesh];
+        Vector3f center = model.transformPosition(sphereCenters[mesh], this.center);
+        float radius = sphereRadii[mesh];
+        for (FrustumPlane plane : planes) {
+            if (plane.distanceToPoint(center) < -radius) {
+                return false;
+            }
+        }
+
+        Vector3f min = boxes[mesh].min(), max = boxes[mesh].max();
+        for (int i = 0; i < 8; i++) {
+            model.transformPosition((i & 1) == 0 ? min.x : max.x, (i & 2) == 0 ? min.y : max.y, (i & 4) == 0 ? min.z : max.z, corners[i]);
+        }
+        for (FrustumPlane plane : planes) {
+            boolean allOutside = true;
+            for (Vector3f corner : corners) {
+                if (plane.distanceToPoint(corner) >= 0) {
+                    allOutside = false;
+                    break;
+                }
+            }
+            if (allOutside) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
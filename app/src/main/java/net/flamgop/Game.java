@@ -11,6 +11,8 @@ import net.flamgop.asset.*;
 import net.flamgop.asset.loaders.*;
 import net.flamgop.entity.Entity;
 import net.flamgop.entity.Scene;
+import net.flamgop.entity.SceneSnapshot;
+import net.flamgop.entity.TransformStore;
 import net.flamgop.entity.components.*;
 import net.flamgop.gpu.*;
 import net.flamgop.gpu.debug.DebugLogging;
@@ -51,6 +53,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.UUID;
 
@@ -60,6 +63,7 @@ public class Game {
     public static Game INSTANCE;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Game.class);
+    private static final Path QUICKSAVE = Path.of("quicksave.snap");
 
     private static final LazyInit<VertexFormat> FRAMEBUFFER_VERTEX_FORMAT = new LazyInit<>(() -> VertexFormat.builder()
             .attribute(0, Attribute.of(Attribute.Type.FLOAT, 3, false))
@@ -107,6 +111,7 @@ public class Game {
     private double frameTime = 1.0f;
 
     private static final double FRAMERATE_UPDATE_RATE = 1f;
+    private static final long UPLOAD_BUDGET_NANOS = 2_000_000; // 2ms of gpu uploads per frame
     private double framerate = 1 / frameTime;
     private double framerateUpdateCounter = FRAMERATE_UPDATE_RATE;
 
@@ -115,6 +120,7 @@ public class Game {
 
     private final Camera camera;
     private final FrustumCulling frustumCulling;
+    private final RenderQueue renderQueue;
     private final ClusteredShading clusteredShading;
 
     private final Physics physics;
@@ -122,6 +128,9 @@ public class Game {
     private final Player player;
 
     private final Scene scene;
+    private final SceneSnapshot.Writer snapshots;
+    // sequence of the snapshot the scene was last restored to, -1 before the first
+    private long restoredSnapshot = -1;
     private final Entity god;
 
     private final AssetManager assetManager;
@@ -366,6 +375,7 @@ public class Game {
         scene = assetManager.loadSync(new AssetIdentifier("example_level.json5"), Scene.class).get();
         god = scene.getByUUID(UUID.nameUUIDFromBytes("god".getBytes(StandardCharsets.UTF_8)));
         if (god == null) throw new IllegalArgumentException("fuck");
+        snapshots = new SceneSnapshot.Writer(scene, SceneSnapshot.sequence(QUICKSAVE));
 
         camera = new Camera(
                 new Vector3f(4.0f, 20.0f, 4.0f),
@@ -378,7 +388,8 @@ public class Game {
         );
         clusteredShading = new ClusteredShading(god.getComponent(PBRManagerComponent.class).lightSSBO());
         shadowManager = new ShadowManager(camera, shadowResolution, 4, 250f, 0.7f);
-        frustumCulling = new FrustumCulling(shadowManager, god.getComponent(SkyLightComponent.class).skylight(), shadowResolution, camera);
+        frustumCulling = new FrustumCulling(shadowManager, camera);
+        renderQueue = new RenderQueue();
 
         font = new Font(ResourceHelper.loadFileFromResource("Nunito.ttf"), 512, 1, 1024, 1024);
 
@@ -438,6 +449,7 @@ public class Game {
             physics.update((float) fixedDeltaTime, 1);
             player.fixedUpdate(fixedDeltaTime);
             scene.fixedUpdate((float) fixedDeltaTime);
+            scene.applyCommands(assetManager);
 
             accumulator -= fixedDeltaTime;
             steps++;
@@ -464,6 +476,8 @@ public class Game {
     private void update(double delta) {
         GLFW.glfwPollEvents();
 
+        assetManager.uploads().drain(UPLOAD_BUDGET_NANOS);
+
         framerateUpdateCounter -= delta;
         if (framerateUpdateCounter < 0) {
             framerateUpdateCounter = FRAMERATE_UPDATE_RATE;
@@ -491,9 +505,11 @@ public class Game {
         }
 
         if (window.inputState().wasKeyPressed(GLFW.GLFW_KEY_P)) {
+            ResourceHelper.invalidate();
             post.destroy();
             assetManager.unload(new AssetIdentifier("shaders/post.vertex.glsl"), String.class);
             assetManager.unload(new AssetIdentifier("shaders/post.fragment.glsl"), String.class);
+            assetManager.purge();
             post = new ShaderProgram();
             post.attachShaderSource("Post Vertex Shader", assetManager.loadSync(new AssetIdentifier("shaders/post.vertex.glsl"), String.class).get(), ShaderProgram.ShaderType.VERTEX);
             post.attachShaderSource("Post Fragment Shader", assetManager.loadSync(new AssetIdentifier("shaders/post.fragment.glsl"), String.class).get(), ShaderProgram.ShaderType.FRAGMENT);
@@ -508,9 +524,27 @@ public class Game {
             post.uniform1i(post.getUniformLocation("blue_noise"), 5);
         }
 
+        if (window.inputState().wasKeyPressed(GLFW.GLFW_KEY_F5)) {
+            snapshots.save(QUICKSAVE, false).thenAccept(path -> LOGGER.info("Saved {}", path));
+        }
+
+        if (window.inputState().wasKeyPressed(GLFW.GLFW_KEY_F9)) {
+            try {
+                restoredSnapshot = SceneSnapshot.restore(scene, QUICKSAVE, restoredSnapshot);
+                snapshots.restored(restoredSnapshot);
+                scene.applyCommands(assetManager);
+            } catch (SceneSnapshot.FormatException e) {
+                LOGGER.warn("Can't restore {}: {}", QUICKSAVE, e.getMessage());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to load {}", QUICKSAVE, e);
+            }
+        }
+
         if (!paused) {
             fixedUpdate(delta);
             scene.update((float)delta);
+            scene.applyCommands(assetManager);
+            TransformStore.global().update();
             player.update(delta);
             this.soundManager.update();
         }
@@ -520,7 +554,11 @@ public class Game {
         }
         window.update();
 
+        // outside the pause too, culling finds models through the index and ones that finish loading meanwhile have to show up
+        scene.refreshBounds();
+        shadowManager.update(god.getComponent(SkyLightComponent.class).skylight(), scene);
         this.culling().update();
+        this.culling().cull(scene);
 
         for (int i = 0; i < passQueries.length; i++) {
             if (passQueries[i].isResultAvailable()) {
@@ -540,12 +578,11 @@ public class Game {
                 StateManager.enable(Capability.CULL_FACE);
                 StateManager.enable(Capability.DEPTH_TEST);
 
-                culling().shadow(true);
                 shadowManager.prepareShadowPass();
-                shadowManager.bindUniforms(null, ShadowManager.getShadowView(god.getComponent(SkyLightComponent.class).skylight()));
-                scene.render((float) delta);
+                shadowManager.bindUniforms(null);
+                renderQueue.build(RenderQueue.PASS_SHADOW, culling(), culling().shadowVisible(), camera.position(), camera.far());
+                renderQueue.submit();
                 shadowManager.finishShadowPass();
-                culling().shadow(false);
 
                 StateManager.disable(Capability.CULL_FACE);
                 StateManager.disable(Capability.DEPTH_TEST);
@@ -567,7 +604,8 @@ public class Game {
                 StateManager.enable(Capability.DEPTH_TEST);
 
                 camera.bind(0);
-                scene.render((float) delta);
+                renderQueue.build(RenderQueue.PASS_GBUFFER, culling(), culling().cameraVisible(), camera.position(), camera.far());
+                renderQueue.submit();
 
                 StateManager.disable(Capability.CULL_FACE);
                 StateManager.disable(Capability.DEPTH_TEST);
@@ -598,7 +636,7 @@ public class Game {
                 gBufferBlit.uniform1f(gBufferBlit.getUniformLocation("z_far"), camera.far());
                 gBufferBlit.uniform3i(gBufferBlit.getUniformLocation("grid_size"), ClusteredShading.GRID_SIZE_X, ClusteredShading.GRID_SIZE_Y, ClusteredShading.GRID_SIZE_Z);
                 gBufferBlit.uniform2i(gBufferBlit.getUniformLocation("screen_dimensions"), window.width(), window.height());
-                shadowManager.bindUniforms(gBufferBlit, ShadowManager.getShadowView(god.getComponent(SkyLightComponent.class).skylight()));
+                shadowManager.bindUniforms(gBufferBlit);
                 quad.draw(VertexArray.DrawMode.TRIANGLES);
                 gFramebuffer.copyDepthToBuffer(finalFramebuffer, this.window.width(), this.window.height());
             }
@@ -689,6 +727,16 @@ public class Game {
                 }
                 ImGui.end();
 
+                if (ImGui.begin("Assets", ImGuiWindowFlags.AlwaysAutoResize)) {
+                    AssetResidency residency = assetManager.residency();
+                    AssetResidency.Stats stats = residency.stats();
+                    ImGui.text(String.format("Resident: %d (%d unreferenced)", stats.resident(), stats.soft()));
+                    ImGui.text(String.format("CPU: %.1f / %.1f MiB", stats.cpuBytes() / 1048576.0, residency.cpuBudget() / 1048576.0));
+                    ImGui.text(String.format("GPU: %.1f / %.1f MiB", stats.gpuBytes() / 1048576.0, residency.gpuBudget() / 1048576.0));
+                    ImGui.text(String.format("Hits: %d, Misses: %d, Evictions: %d", stats.hits(), stats.misses(), stats.evictions()));
+                }
+                ImGui.end();
+
                 ImGui.render();
                 imGuiGl3.renderDrawData(ImGui.getDrawData());
 
@@ -767,6 +815,10 @@ public class Game {
     }
 
     private void cleanup() {
+        this.snapshots.destroy();
+        this.renderQueue.destroy();
+        this.font.destroy();
+        this.assetManager.shutdown();
         this.window.destroy();
         GLFW.glfwTerminate();
     }
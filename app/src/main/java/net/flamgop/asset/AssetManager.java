@@ -3,29 +3,60 @@ package net.flamgop.asset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 @SuppressWarnings("unchecked")
 public class AssetManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(AssetManager.class);
 
+    public static final long DEFAULT_CPU_BUDGET = 512L << 20;
+    public static final long DEFAULT_GPU_BUDGET = 1024L << 20;
+
     private final Map<AssetIdentifier, Asset<?>> cache = new ConcurrentHashMap<>();
+    private final Map<AssetIdentifier, PendingLoad> inFlight = new HashMap<>();
+    private final AssetResidency residency = new AssetResidency(DEFAULT_CPU_BUDGET, DEFAULT_GPU_BUDGET);
     private final Map<Class<?>, Loader<?>> loaders = new ConcurrentHashMap<>();
     private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final UploadQueue uploads = new UploadQueue();
 
     public <T> void registerLoader(Class<T> type, Loader<T> loader) {
         loaders.put(type, loader);
     }
 
-    public void track(AssetIdentifier identifier, Asset<?> asset) {
-        if (!cache.containsKey(identifier)) {
-            asset.retain();
+    public UploadQueue uploads() {
+        return uploads;
+    }
+
+    public AssetResidency residency() {
+        return residency;
+    }
+
+    // for loaders that want to fan their own cpu work out onto the worker threads
+    public <T> CompletableFuture<T> decodeAsync(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    public <T> T await(CompletableFuture<T> future) {
+        return uploads.await(future);
+    }
+
+    // for assets a loader made on the side (embedded textures), the caller keeps the reference the asset starts with.
+    // if something got cached under the same identifier first, that one is referenced and returned instead
+    public <T> Asset<T> track(AssetIdentifier identifier, Asset<T> asset, Class<T> type) {
+        Loader<T> loader = loader(type);
+        synchronized (residency) {
+            Asset<T> existing = acquire(identifier);
+            if (existing != null) return existing;
             cache.put(identifier, asset);
+            residency.admit(identifier, new AssetResidency.Entry(loader, loader.cpuBytes(asset.get()), loader.gpuBytes(asset.get())));
         }
+        trim();
+        return asset;
     }
 
     public boolean isTracking(AssetIdentifier identifier) {
@@ -33,43 +64,194 @@ public class AssetManager {
     }
 
     public <T> Asset<T> get(AssetIdentifier identifier) {
-        if (!this.isTracking(identifier)) return null;
-        Asset<T> asset = (Asset<T>) cache.get(identifier);
-        asset.retain();
-        return asset;
+        return acquire(identifier);
     }
 
     public <T> Asset<T> loadSync(AssetIdentifier path, Class<T> type) {
-        Asset<?> cached = cache.get(path);
-        if (cached != null) {
-            cached.retain();
-            return (Asset<T>) cached;
+        Loader<T> loader = loader(type);
+        PendingLoad pending;
+        boolean joined;
+        synchronized (residency) {
+            Asset<T> cached = acquire(path);
+            if (cached != null) return cached;
+            pending = inFlight.get(path);
+            joined = pending != null;
+            if (joined) pending.requesters++;
+            else inFlight.put(path, pending = new PendingLoad());
         }
-
-        Loader<T> loader = (Loader<T>) loaders.get(type);
-        if (loader == null) throw new RuntimeException("No loader registered for " + type);
+        // someone else is already loading it, wait for theirs
+        if (joined) return uploads.await(pending.<T>future());
 
         LOGGER.info("Loading {}...", path);
 
-        T data = loader.load(path);
-        if (data == null) return null;
-        Asset<T> asset = new Asset<>(data);
-        cache.put(path, asset);
+        T data;
+        try {
+            if (loader instanceof StagedLoader<T, ?> staged) data = loadStaged(staged, path);
+            else if (loader.requiresMainThread() && !uploads.isOwnerThread()) data = uploads.await(uploads.submit(() -> loader.load(path)));
+            else data = loader.load(path);
+        } catch (Throwable t) {
+            fail(path, pending, t);
+            throw t;
+        }
+        return finish(path, pending, loader, data);
+    }
+
+    public <T> CompletableFuture<Asset<T>> loadAsync(AssetIdentifier path, Class<T> type) {
+        Loader<T> loader = loader(type);
+        PendingLoad pending;
+        synchronized (residency) {
+            Asset<T> cached = acquire(path);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+            pending = inFlight.get(path);
+            if (pending != null) {
+                pending.requesters++;
+                return pending.future();
+            }
+            inFlight.put(path, pending = new PendingLoad());
+        }
+
+        LOGGER.info("Loading {} asynchronously...", path);
+
+        CompletableFuture<T> data;
+        if (loader instanceof StagedLoader<T, ?> staged) data = loadStagedAsync(staged, path);
+        else if (loader.requiresMainThread()) data = uploads.submit(() -> loader.load(path));
+        else data = CompletableFuture.supplyAsync(() -> loader.load(path), executor);
+
+        PendingLoad load = pending;
+        data.whenComplete((loaded, t) -> {
+            if (t != null) fail(path, load, t);
+            else finish(path, load, loader, loaded);
+        });
+        return load.future();
+    }
+
+    /**
+     * Loads every identifier concurrently, anything that's already loading or loaded is shared rather than loaded again.
+     *
+     * @return the assets in the same order as {@code paths}, each holding one reference
+     */
+    public <T> CompletableFuture<List<Asset<T>>> loadAll(Collection<AssetIdentifier> paths, Class<T> type) {
+        List<CompletableFuture<Asset<T>>> futures = new ArrayList<>(paths.size());
+        for (AssetIdentifier path : paths) futures.add(loadAsync(path, type));
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(_ -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    // one load everyone asking for the same identifier shares, the asset starts with a reference for each of them
+    private static final class PendingLoad {
+        private final CompletableFuture<Asset<?>> future = new CompletableFuture<>();
+        private int requesters = 1; // guarded by the residency monitor
+
+        <T> CompletableFuture<Asset<T>> future() {
+            return (CompletableFuture<Asset<T>>) (CompletableFuture<?>) future;
+        }
+    }
+
+    private <T> Asset<T> finish(AssetIdentifier path, PendingLoad pending, Loader<T> loader, T data) {
+        Asset<T> asset = null;
+        synchronized (residency) {
+            inFlight.remove(path);
+            if (data != null) {
+                asset = new Asset<>(data);
+                for (int i = 1; i < pending.requesters; i++) asset.retain();
+                cache.put(path, asset);
+                residency.admit(path, new AssetResidency.Entry(loader, loader.cpuBytes(data), loader.gpuBytes(data)));
+            }
+        }
+        if (asset != null) trim();
+        pending.future.complete(asset);
         return asset;
     }
 
-    public <T> Future<Asset<T>> loadAsync(AssetIdentifier path, Class<T> type) {
-        return executor.submit(() -> loadSync(path, type));
+    private void fail(AssetIdentifier path, PendingLoad pending, Throwable t) {
+        synchronized (residency) {
+            inFlight.remove(path);
+        }
+        LOGGER.error("Failed to load {}", path, t);
+        pending.future.completeExceptionally(t);
+    }
+
+    private <T, D> T loadStaged(StagedLoader<T, D> loader, AssetIdentifier path) {
+        D decoded = loader.decode(path);
+        uploads.await(allOf(loader, decoded));
+        if (uploads.isOwnerThread()) return loader.upload(decoded);
+        return uploads.await(uploads.submit(() -> loader.upload(decoded)));
     }
 
+    private <T, D> CompletableFuture<T> loadStagedAsync(StagedLoader<T, D> loader, AssetIdentifier path) {
+        return CompletableFuture.supplyAsync(() -> loader.decode(path), executor)
+                .thenCompose(decoded -> allOf(loader, decoded).thenCompose(_ -> uploads.submit(() -> loader.upload(decoded))));
+    }
+
+    private static <T, D> CompletableFuture<Void> allOf(StagedLoader<T, D> loader, D decoded) {
+        return CompletableFuture.allOf(loader.dependencies(decoded).toArray(CompletableFuture[]::new));
+    }
+
+    private <T> Loader<T> loader(Class<T> type) {
+        Loader<T> loader = (Loader<T>) loaders.get(type);
+        if (loader == null) throw new RuntimeException("No loader registered for " + type);
+        return loader;
+    }
+
+    // takes a reference on a cached asset, pulling it back out of the soft tier if nobody was holding it
+    private <T> Asset<T> acquire(AssetIdentifier identifier) {
+        synchronized (residency) {
+            Asset<T> cached = (Asset<T>) cache.get(identifier);
+            if (cached == null) {
+                residency.miss();
+                return null;
+            }
+            cached.retain();
+            residency.hit(identifier);
+            return cached;
+        }
+    }
+
+    /**
+     * Drops a reference. An asset nobody references stays cached until the residency budgets force it out, see {@link AssetResidency}.
+     */
     public <T> void unload(AssetIdentifier path, Class<T> type) {
-        Asset<?> asset = cache.get(path);
-        if (asset == null) return;
+        synchronized (residency) {
+            Asset<?> asset = cache.get(path);
+            if (asset == null || residency.isSoft(path)) return;
+            if (asset.release()) residency.unreferenced(path);
+        }
+        trim();
+    }
+
+    // evicts soft assets until the cache fits its budgets again
+    public void trim() {
+        evict(false);
+    }
+
+    // evicts every asset nobody is referencing, for when whatever's on disk should be read again
+    public void purge() {
+        evict(true);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void evict(boolean all) {
+        List<Map.Entry<AssetIdentifier, AssetResidency.Entry>> evicted;
+        Asset<?>[] assets;
+        synchronized (residency) {
+            evicted = residency.evict(all);
+            assets = new Asset<?>[evicted.size()];
+            for (int i = 0; i < assets.length; i++) assets[i] = cache.remove(evicted.get(i).getKey());
+        }
 
-        if (asset.release()) {
-            cache.remove(path);
-            Loader<T> loader = (Loader<T>) loaders.get(type);
-            loader.dispose((T) asset.get());
+        for (int i = 0; i < assets.length; i++) {
+            Loader loader = evicted.get(i).getValue().loader();
+            Object data = assets[i].get();
+            LOGGER.debug("Evicting {}", evicted.get(i).getKey());
+            // dispose can touch GL, which only works on the thread that owns the context
+            if (loader.requiresMainThread() && !uploads.isOwnerThread()) {
+                uploads.submit(() -> {
+                    loader.dispose(data);
+                    return null;
+                });
+            } else {
+                loader.dispose(data);
+            }
         }
     }
 
@@ -0,0 +1,105 @@
+package net.flamgop.asset;
+
+import java.util.*;
+
+/**
+ * Bookkeeping for what every cached asset costs and which ones nobody holds anymore.
+ * <br/>
+ * Assets whose reference count hits zero aren't disposed right away, they move to a soft tier ordered by release time.
+ * Soft assets are only evicted (oldest release first) once the resident total goes over the CPU or GPU budget, so anything
+ * that gets asked for again before that is a cache hit instead of a reload.
+ * <br/>
+ * {@link AssetManager} holds this object's monitor while it touches its own cache, the two have to change together.
+ */
+public class AssetResidency {
+
+    public record Stats(long hits, long misses, long evictions, long cpuBytes, long gpuBytes, int resident, int soft) {}
+
+    record Entry(Loader<?> loader, long cpuBytes, long gpuBytes) {}
+
+    private final Map<AssetIdentifier, Entry> resident = new HashMap<>();
+    // unreferenced assets in the order they were released, the first one is the first to go
+    private final LinkedHashMap<AssetIdentifier, Entry> soft = new LinkedHashMap<>();
+
+    private long cpuBudget;
+    private long gpuBudget;
+
+    private long cpuBytes;
+    private long gpuBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public AssetResidency(long cpuBudget, long gpuBudget) {
+        this.cpuBudget = cpuBudget;
+        this.gpuBudget = gpuBudget;
+    }
+
+    public synchronized void budget(long cpuBudget, long gpuBudget) {
+        this.cpuBudget = cpuBudget;
+        this.gpuBudget = gpuBudget;
+    }
+
+    public synchronized long cpuBudget() {
+        return cpuBudget;
+    }
+
+    public synchronized long gpuBudget() {
+        return gpuBudget;
+    }
+
+    synchronized void admit(AssetIdentifier identifier, Entry entry) {
+        Entry previous = resident.put(identifier, entry);
+        if (previous != null) {
+            soft.remove(identifier);
+            cpuBytes -= previous.cpuBytes();
+            gpuBytes -= previous.gpuBytes();
+        }
+        cpuBytes += entry.cpuBytes();
+        gpuBytes += entry.gpuBytes();
+    }
+
+    synchronized void hit(AssetIdentifier identifier) {
+        hits++;
+        soft.remove(identifier);
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    synchronized void unreferenced(AssetIdentifier identifier) {
+        Entry entry = resident.get(identifier);
+        if (entry != null) soft.put(identifier, entry);
+    }
+
+    synchronized boolean isSoft(AssetIdentifier identifier) {
+        return soft.containsKey(identifier);
+    }
+
+    /**
+     * Drops soft assets from the books, oldest release first, until both totals fit their budgets.
+     *
+     * @param all evict every soft asset regardless of the budgets
+     * @return the evicted identifiers and what they were loaded with, the caller still has to dispose them
+     */
+    synchronized List<Map.Entry<AssetIdentifier, Entry>> evict(boolean all) {
+        List<Map.Entry<AssetIdentifier, Entry>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<AssetIdentifier, Entry>> iterator = soft.entrySet().iterator();
+        while (iterator.hasNext() && (all || cpuBytes > cpuBudget || gpuBytes > gpuBudget)) {
+            Map.Entry<AssetIdentifier, Entry> next = iterator.next();
+            iterator.remove();
+            resident.remove(next.getKey());
+            cpuBytes -= next.getValue().cpuBytes();
+            gpuBytes -= next.getValue().gpuBytes();
+            evictions++;
+            evicted.add(Map.entry(next.getKey(), next.getValue()));
+        }
+        return evicted;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, cpuBytes, gpuBytes, resident.size(), soft.size());
+    }
+}
@@ -3,4 +3,18 @@ package net.flamgop.asset;
 public interface Loader<T> {
     T load(AssetIdentifier path);
     void dispose(T asset);
+
+    // loaders that touch GL (or anything else bound to the main thread) without being split into stages
+    default boolean requiresMainThread() {
+        return false;
+    }
+
+    // roughly what keeping a loaded asset around costs, AssetManager evicts unreferenced assets once the totals go over budget
+    default long cpuBytes(T asset) {
+        return 0;
+    }
+
+    default long gpuBytes(T asset) {
+        return 0;
+    }
 }
@@ -0,0 +1,37 @@
+package net.flamgop.asset;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A loader split into a CPU stage and a GPU stage.
+ * <br/>
+ * {@link #decode(AssetIdentifier)} runs on an {@link AssetManager} worker thread and must not touch GL,
+ * {@link #upload(Object)} runs on the main thread once every future returned by {@link #dependencies(Object)} has completed.
+ *
+ * @param <T> the asset type
+ * @param <D> whatever the decode stage hands to the upload stage
+ */
+public interface StagedLoader<T, D> extends Loader<T> {
+    D decode(AssetIdentifier path);
+
+    default Collection<? extends CompletableFuture<?>> dependencies(D decoded) {
+        return List.of();
+    }
+
+    T upload(D decoded);
+
+    // AssetManager drives the stages itself, this is only here so a staged loader still works as a plain one off the main thread.
+    @Override
+    default T load(AssetIdentifier path) {
+        D decoded = decode(path);
+        dependencies(decoded).forEach(CompletableFuture::join);
+        return upload(decoded);
+    }
+
+    @Override
+    default boolean requiresMainThread() {
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package net.flamgop.asset;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// work that has to happen on the thread that owns the GL context, drained a little bit every frame.
+public class UploadQueue {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread owner;
+
+    public UploadQueue() {
+        this.owner = Thread.currentThread();
+    }
+
+    public boolean isOwnerThread() {
+        return Thread.currentThread() == owner;
+    }
+
+    public int pending() {
+        return tasks.size();
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        tasks.add(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs queued tasks until the queue is empty or the budget is spent. At least one task always runs, so a single upload that's larger than the budget can't stall the queue forever.
+     *
+     * @param budgetNanos how long this is allowed to take
+     * @return the number of tasks that ran
+     */
+    public int drain(long budgetNanos) {
+        if (!isOwnerThread()) throw new IllegalStateException("Upload queue can only be drained from the thread that owns it!");
+        long deadline = System.nanoTime() + budgetNanos;
+        int ran = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            ran++;
+            if (System.nanoTime() >= deadline) break;
+        }
+        return ran;
+    }
+
+    // blocking on the owner thread would deadlock anything that's waiting on an upload, so keep draining while we wait.
+    public <T> T await(CompletableFuture<T> future) {
+        if (!isOwnerThread()) return future.join();
+        while (!future.isDone()) {
+            Runnable task = tasks.poll();
+            if (task != null) task.run();
+            else LockSupport.parkNanos(50_000);
+        }
+        return future.join();
+    }
+}
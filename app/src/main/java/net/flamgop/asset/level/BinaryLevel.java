@@ -0,0 +1,366 @@
+package net.flamgop.asset.level;
+
+import net.flamgop.physics.Material;
+import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of a binary level (.blevel), all little endian. Every array is contiguous so the loader can walk a mapping without parsing anything:
+ * <pre>
+ * header     int magic, int version, int stringCount, int materialCount, int staticCount, int dynamicCount, int lightCount, int prefabCount
+ * pbr        float skylightPosition[3], float skylightColor[3]
+ * strings    int length[stringCount], then every string as UTF-8, padded to 4 bytes
+ * materials  int name[m], float friction[m], float restitution[m]
+ * static     int model[n], int collision[n], int material[n], float position[3n], float rotation[4n]
+ * dynamic    same as static, then float mass[n]
+ * lights     float position[3l], float color[3l], float constant[l], float linear[l], float quadratic[l]
+ * prefabs    int name[p], int model[p], int collision[p], int material[p], float mass[p], int dynamic[p]
+ * instances  int batchCount, then per batch: int prefab, int count, int model, int collision, int material, float mass,
+ *            float position[3 * count], float rotation[4 * count]
+ * </pre>
+ * model, collision, material and name are indices into the string table, -1 for none (the default material, in material's case).
+ * A batch's prefab is the index of the prefab's name, its model, collision, material and mass (NaN for none) override the prefab's.
+ * <br/>
+ * Version 1 files end after the lights and have 0 in the prefabCount slot, they still load.
+ */
+public final class BinaryLevel {
+    public static final int MAGIC = 0x56454C42; // "BLEV"
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 8 * Integer.BYTES;
+    public static final int NONE = -1;
+
+    private BinaryLevel() {}
+
+    public static boolean isBinary(ByteBuffer source) {
+        return source.remaining() >= Integer.BYTES && source.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(source.position()) == MAGIC;
+    }
+
+    /**
+     * Walks the level into the visitor. Apart from the string table (decoded once) nothing is allocated per field,
+     * the vectors handed out are reused for every entry.
+     */
+    public static void read(ByteBuffer source, LevelVisitor visitor) {
+        ByteBuffer buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IllegalStateException("Not a binary level");
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) throw new IllegalStateException("Unsupported binary level version " + version);
+
+        int stringCount = buffer.getInt(8);
+        int materialCount = buffer.getInt(12);
+        int staticCount = buffer.getInt(16);
+        int dynamicCount = buffer.getInt(20);
+        int lightCount = buffer.getInt(24);
+        int prefabCount = version >= 2 ? buffer.getInt(28) : 0;
+
+        Vector3f a = new Vector3f();
+        Vector3f b = new Vector3f();
+        Quaternionf q = new Quaternionf();
+
+        int offset = HEADER_SIZE;
+        readVector3f(buffer, offset, a);
+        readVector3f(buffer, offset + 3 * Float.BYTES, b);
+        visitor.pbr(a, b);
+        offset += 6 * Float.BYTES;
+
+        String[] strings = new String[stringCount];
+        int bytes = offset + stringCount * Integer.BYTES;
+        for (int i = 0; i < stringCount; i++) {
+            int length = buffer.getInt(offset + i * Integer.BYTES);
+            byte[] data = new byte[length];
+            buffer.get(bytes, data);
+            strings[i] = new String(data, StandardCharsets.UTF_8);
+            bytes += length;
+        }
+        offset = align(bytes);
+
+        int names = offset;
+        int frictions = names + materialCount * Integer.BYTES;
+        int restitutions = frictions + materialCount * Float.BYTES;
+        for (int i = 0; i < materialCount; i++) {
+            visitor.material(strings[buffer.getInt(names + i * Integer.BYTES)], new Material(buffer.getFloat(frictions + i * Float.BYTES), buffer.getFloat(restitutions + i * Float.BYTES)));
+        }
+        offset = restitutions + materialCount * Float.BYTES;
+
+        offset = readEntities(buffer, offset, staticCount, false, strings, a, q, visitor);
+        offset = readEntities(buffer, offset, dynamicCount, true, strings, a, q, visitor);
+
+        int positions = offset;
+        int colors = positions + 3 * lightCount * Float.BYTES;
+        int constants = colors + 3 * lightCount * Float.BYTES;
+        int linears = constants + lightCount * Float.BYTES;
+        int quadratics = linears + lightCount * Float.BYTES;
+        for (int i = 0; i < lightCount; i++) {
+            readVector3f(buffer, positions + 3 * i * Float.BYTES, a);
+            readVector3f(buffer, colors + 3 * i * Float.BYTES, b);
+            visitor.light(new LevelVisitor.LightDefinition(a, b,
+                    buffer.getFloat(constants + i * Float.BYTES),
+                    buffer.getFloat(linears + i * Float.BYTES),
+                    buffer.getFloat(quadratics + i * Float.BYTES)));
+        }
+        offset = quadratics + lightCount * Float.BYTES;
+
+        if (version >= 2) {
+            int prefabNames = offset;
+            int models = prefabNames + prefabCount * Integer.BYTES;
+            int collisions = models + prefabCount * Integer.BYTES;
+            int materials = collisions + prefabCount * Integer.BYTES;
+            int masses = materials + prefabCount * Integer.BYTES;
+            int dynamics = masses + prefabCount * Float.BYTES;
+            for (int i = 0; i < prefabCount; i++) {
+                visitor.prefab(new LevelVisitor.PrefabDefinition(
+                        strings[buffer.getInt(prefabNames + i * Integer.BYTES)],
+                        string(strings, buffer.getInt(models + i * Integer.BYTES)),
+                        string(strings, buffer.getInt(collisions + i * Integer.BYTES)),
+                        string(strings, buffer.getInt(materials + i * Integer.BYTES)),
+                        buffer.getFloat(masses + i * Float.BYTES),
+                        buffer.getInt(dynamics + i * Integer.BYTES) != 0
+                ));
+            }
+            offset = dynamics + prefabCount * Integer.BYTES;
+
+            int batchCount = buffer.getInt(offset);
+            offset += Integer.BYTES;
+            float[] positions = new float[0];
+            float[] rotations = new float[0];
+            for (int i = 0; i < batchCount; i++) {
+                int count = buffer.getInt(offset + Integer.BYTES);
+                if (positions.length < 3 * count) {
+                    positions = new float[3 * count];
+                    rotations = new float[4 * count];
+                }
+                int data = offset + 6 * Integer.BYTES;
+                buffer.slice(data, 7 * count * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+                        .get(positions, 0, 3 * count)
+                        .get(rotations, 0, 4 * count);
+                visitor.instances(new LevelVisitor.InstanceBatch(
+                        strings[buffer.getInt(offset)],
+                        count,
+                        positions,
+                        rotations,
+                        string(strings, buffer.getInt(offset + 2 * Integer.BYTES)),
+                        string(strings, buffer.getInt(offset + 3 * Integer.BYTES)),
+                        string(strings, buffer.getInt(offset + 4 * Integer.BYTES)),
+                        buffer.getFloat(offset + 5 * Integer.BYTES)
+                ));
+                offset = data + 7 * count * Float.BYTES;
+            }
+        }
+
+        visitor.end();
+    }
+
+    private static int readEntities(ByteBuffer buffer, int offset, int count, boolean dynamic, String[] strings, Vector3f position, Quaternionf rotation, LevelVisitor visitor) {
+        int models = offset;
+        int collisions = models + count * Integer.BYTES;
+        int materials = collisions + count * Integer.BYTES;
+        int positions = materials + count * Integer.BYTES;
+        int rotations = positions + 3 * count * Float.BYTES;
+        int masses = rotations + 4 * count * Float.BYTES;
+        for (int i = 0; i < count; i++) {
+            readVector3f(buffer, positions + 3 * i * Float.BYTES, position);
+            int r = rotations + 4 * i * Float.BYTES;
+            rotation.set(buffer.getFloat(r), buffer.getFloat(r + 4), buffer.getFloat(r + 8), buffer.getFloat(r + 12));
+            visitor.entity(new LevelVisitor.EntityDefinition(
+                    string(strings, buffer.getInt(models + i * Integer.BYTES)),
+                    position,
+                    rotation,
+                    string(strings, buffer.getInt(collisions + i * Integer.BYTES)),
+                    string(strings, buffer.getInt(materials + i * Integer.BYTES)),
+                    dynamic ? buffer.getFloat(masses + i * Float.BYTES) : 0f,
+                    dynamic
+            ));
+        }
+        return dynamic ? masses + count * Float.BYTES : masses;
+    }
+
+    private static String string(String[] strings, int index) {
+        return index == NONE ? null : strings[index];
+    }
+
+    private static void readVector3f(ByteBuffer buffer, int offset, Vector3f dest) {
+        dest.set(buffer.getFloat(offset), buffer.getFloat(offset + 4), buffer.getFloat(offset + 8));
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    /**
+     * A visitor that collects a level and writes it out in the binary layout once {@link #end()} is called.
+     */
+    public static class Writer implements LevelVisitor {
+        private record Entity(int model, int collision, int material, float px, float py, float pz, float rx, float ry, float rz, float rw, float mass) {}
+        private record Prefab(int model, int collision, int material, float mass, boolean dynamic) {}
+        private record Batch(int prefab, int count, float[] positions, float[] rotations, int model, int collision, int material, float mass) {}
+        private record Light(float px, float py, float pz, float r, float g, float b, float constant, float linear, float quadratic) {}
+
+        private final Path output;
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Vector3f skylightPosition = new Vector3f();
+        private final Vector3f skylightColor = new Vector3f(1);
+        private final Map<Integer, Material> materials = new LinkedHashMap<>();
+        private final List<Entity> statics = new ArrayList<>();
+        private final List<Entity> dynamics = new ArrayList<>();
+        private final List<Light> lights = new ArrayList<>();
+        private final Map<Integer, Prefab> prefabs = new LinkedHashMap<>();
+        private final List<Batch> batches = new ArrayList<>();
+
+        public Writer(Path output) {
+            this.output = output;
+        }
+
+        @Override
+        public void pbr(Vector3fc skylightPosition, Vector3fc skylightColor) {
+            this.skylightPosition.set(skylightPosition);
+            this.skylightColor.set(skylightColor);
+        }
+
+        @Override
+        public void material(String name, Material material) {
+            materials.put(intern(name), material);
+        }
+
+        @Override
+        public void entity(EntityDefinition entity) {
+            Vector3fc p = entity.position() != null ? entity.position() : new Vector3f();
+            Quaternionfc r = entity.rotation() != null ? entity.rotation() : new Quaternionf();
+            (entity.dynamic() ? dynamics : statics).add(new Entity(
+                    intern(entity.model()), intern(entity.collision()), intern(entity.material()),
+                    p.x(), p.y(), p.z(), r.x(), r.y(), r.z(), r.w(), entity.mass()
+            ));
+        }
+
+        @Override
+        public void light(LightDefinition light) {
+            lights.add(new Light(light.position().x(), light.position().y(), light.position().z(),
+                    light.color().x(), light.color().y(), light.color().z(),
+                    light.constant(), light.linear(), light.quadratic()));
+        }
+
+        @Override
+        public void prefab(PrefabDefinition prefab) {
+            prefabs.put(intern(prefab.name()), new Prefab(intern(prefab.model()), intern(prefab.collision()), intern(prefab.material()), prefab.mass(), prefab.dynamic()));
+        }
+
+        @Override
+        public void instances(InstanceBatch batch) {
+            batches.add(new Batch(intern(batch.prefab()), batch.count(),
+                    Arrays.copyOf(batch.positions(), 3 * batch.count()), Arrays.copyOf(batch.rotations(), 4 * batch.count()),
+                    intern(batch.model()), intern(batch.collision()), intern(batch.material()), batch.mass()));
+        }
+
+        private int intern(String string) {
+            if (string == null) return NONE;
+            return strings.computeIfAbsent(string, _ -> strings.size());
+        }
+
+        @Override
+        public void end() {
+            for (List<Entity> entities : List.of(statics, dynamics)) {
+                for (Entity entity : entities) {
+                    if (entity.material() != NONE && !materials.containsKey(entity.material()))
+                        throw new IllegalStateException("Undefined material \"" + name(entity.material()) + "\"");
+                }
+            }
+            for (Prefab prefab : prefabs.values()) {
+                if (prefab.material() != NONE && !materials.containsKey(prefab.material()))
+                    throw new IllegalStateException("Undefined material \"" + name(prefab.material()) + "\"");
+            }
+            int instanceFloats = 0;
+            for (Batch batch : batches) {
+                if (!prefabs.containsKey(batch.prefab())) throw new IllegalStateException("Undefined prefab \"" + name(batch.prefab()) + "\"");
+                if (batch.material() != NONE && !materials.containsKey(batch.material()))
+                    throw new IllegalStateException("Undefined material \"" + name(batch.material()) + "\"");
+                instanceFloats += 7 * batch.count();
+            }
+
+            List<byte[]> encoded = strings.keySet().stream().map(s -> s.getBytes(StandardCharsets.UTF_8)).toList();
+            int stringBytes = encoded.stream().mapToInt(s -> s.length).sum();
+
+            int size = HEADER_SIZE + 6 * Float.BYTES
+                    + align(encoded.size() * Integer.BYTES + stringBytes)
+                    + materials.size() * 3 * Integer.BYTES
+                    + statics.size() * 10 * Integer.BYTES
+                    + dynamics.size() * 11 * Integer.BYTES
+                    + lights.size() * 9 * Float.BYTES
+                    + prefabs.size() * 6 * Integer.BYTES
+                    + Integer.BYTES + batches.size() * 6 * Integer.BYTES + instanceFloats * Float.BYTES;
+
+            ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(encoded.size()).putInt(materials.size())
+                    .putInt(statics.size()).putInt(dynamics.size()).putInt(lights.size()).putInt(prefabs.size());
+
+            buffer.putFloat(skylightPosition.x).putFloat(skylightPosition.y).putFloat(skylightPosition.z);
+            buffer.putFloat(skylightColor.x).putFloat(skylightColor.y).putFloat(skylightColor.z);
+
+            for (byte[] string : encoded) buffer.putInt(string.length);
+            for (byte[] string : encoded) buffer.put(string);
+            buffer.position(align(buffer.position()));
+
+            for (int name : materials.keySet()) buffer.putInt(name);
+            for (Material material : materials.values()) buffer.putFloat(material.friction());
+            for (Material material : materials.values()) buffer.putFloat(material.restitution());
+
+            writeEntities(buffer, statics, false);
+            writeEntities(buffer, dynamics, true);
+
+            for (Light light : lights) buffer.putFloat(light.px()).putFloat(light.py()).putFloat(light.pz());
+            for (Light light : lights) buffer.putFloat(light.r()).putFloat(light.g()).putFloat(light.b());
+            for (Light light : lights) buffer.putFloat(light.constant());
+            for (Light light : lights) buffer.putFloat(light.linear());
+            for (Light light : lights) buffer.putFloat(light.quadratic());
+
+            for (int name : prefabs.keySet()) buffer.putInt(name);
+            for (Prefab prefab : prefabs.values()) buffer.putInt(prefab.model());
+            for (Prefab prefab : prefabs.values()) buffer.putInt(prefab.collision());
+            for (Prefab prefab : prefabs.values()) buffer.putInt(prefab.material());
+            for (Prefab prefab : prefabs.values()) buffer.putFloat(prefab.mass());
+            for (Prefab prefab : prefabs.values()) buffer.putInt(prefab.dynamic() ? 1 : 0);
+
+            buffer.putInt(batches.size());
+            for (Batch batch : batches) {
+                buffer.putInt(batch.prefab()).putInt(batch.count()).putInt(batch.model()).putInt(batch.collision())
+                        .putInt(batch.material()).putFloat(batch.mass());
+                for (float value : batch.positions()) buffer.putFloat(value);
+                for (float value : batch.rotations()) buffer.putFloat(value);
+            }
+
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write " + output, e);
+            }
+        }
+
+        private String name(int string) {
+            return strings.keySet().stream().toList().get(string);
+        }
+
+        private static void writeEntities(ByteBuffer buffer, List<Entity> entities, boolean dynamic) {
+            for (Entity entity : entities) buffer.putInt(entity.model());
+            for (Entity entity : entities) buffer.putInt(entity.collision());
+            for (Entity entity : entities) buffer.putInt(entity.material());
+            for (Entity entity : entities) buffer.putFloat(entity.px()).putFloat(entity.py()).putFloat(entity.pz());
+            for (Entity entity : entities) buffer.putFloat(entity.rx()).putFloat(entity.ry()).putFloat(entity.rz()).putFloat(entity.rw());
+            if (dynamic) for (Entity entity : entities) buffer.putFloat(entity.mass());
+        }
+    }
+}
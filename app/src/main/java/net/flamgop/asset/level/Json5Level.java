@@ -0,0 +1,502 @@
+package net.flamgop.asset.level;
+
+import net.flamgop.physics.Material;
+import net.flamgop.util.Json5Reader;
+import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * The JSON5 level format:
+ * <pre>
+ * pbr        { skylight_position: [x,y,z], skylight_color: [r,g,b] }
+ * materials  { name: { friction, restitution }, ... }
+ * static     [ { model, position: [x,y,z], rotation: [x,y,z,w], collision, material }, ... ]
+ * dynamic    same as static, plus mass
+ * prefabs    { name: { model, collision, material, mass, dynamic }, ... }
+ * instances  [ { prefab, model, collision, material, mass, rotation: [x,y,z,w], and one of
+ *                position: [x,y,z]
+ *                positions: [[x,y,z], ...], rotations: [[x,y,z,w], ...]
+ *                grid: { origin: [x,y,z], count: [x,y,z], spacing: [x,y,z] }
+ *                scatter: { seed, count, min: [x,y,z], max: [x,y,z], random_yaw } }, ... ]
+ * lights     [ { position, color, constant, linear, quadratic }, ... ]
+ * </pre>
+ * Unknown keys are skipped.
+ * <br/>
+ * An instance's model, collision, material and mass override the prefab's. rotation applies to every placement the entry
+ * makes, rotations (if given) has one per position. Grids and scatters are expanded right here, scatter draws from a
+ * {@link SplittableRandom} so the same seed always gives the same level.
+ */
+public final class Json5Level {
+
+    private Json5Level() {}
+
+    // streams the level into the visitor, nothing but the current entry is held on to
+    public static void read(Json5Reader reader, LevelVisitor visitor) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "pbr" -> readPbr(reader, visitor);
+                case "materials" -> readMaterials(reader, visitor);
+                case "static" -> readEntities(reader, visitor, false);
+                case "dynamic" -> readEntities(reader, visitor, true);
+                case "prefabs" -> readPrefabs(reader, visitor);
+                case "instances" -> readInstances(reader, visitor);
+                case "lights" -> readLights(reader, visitor);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        visitor.end();
+    }
+
+    private static void readPbr(Json5Reader reader, LevelVisitor visitor) {
+        Vector3f skylightPosition = new Vector3f();
+        Vector3f skylightColor = new Vector3f(1);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "skylight_position" -> readVector3f(reader, skylightPosition);
+                case "skylight_color" -> readVector3f(reader, skylightColor);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        visitor.pbr(skylightPosition, skylightColor);
+    }
+
+    private static void readMaterials(Json5Reader reader, LevelVisitor visitor) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            float friction = 0;
+            float restitution = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "friction" -> friction = reader.nextFloat();
+                    case "restitution" -> restitution = reader.nextFloat();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            visitor.material(name, new Material(friction, restitution));
+        }
+        reader.endObject();
+    }
+
+    private static void readEntities(Json5Reader reader, LevelVisitor visitor, boolean dynamic) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String model = null;
+            Vector3f position = null;
+            Quaternionf rotation = null;
+            String collision = null;
+            String material = null;
+            float mass = 1f;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "model" -> model = reader.nextString();
+                    case "position" -> position = readVector3f(reader, new Vector3f());
+                    case "rotation" -> rotation = readQuaternionf(reader, new Quaternionf());
+                    case "collision" -> collision = reader.nextString();
+                    case "material" -> material = reader.nextString();
+                    case "mass" -> mass = reader.nextFloat();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            visitor.entity(new LevelVisitor.EntityDefinition(model, position, rotation, collision, material, mass, dynamic));
+        }
+        reader.endArray();
+    }
+
+    private static void readPrefabs(Json5Reader reader, LevelVisitor visitor) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            String model = null;
+            String collision = null;
+            String material = null;
+            float mass = 1f;
+            boolean dynamic = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "model" -> model = reader.nextString();
+                    case "collision" -> collision = reader.nextString();
+                    case "material" -> material = reader.nextString();
+                    case "mass" -> mass = reader.nextFloat();
+                    case "dynamic" -> dynamic = reader.nextBoolean();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            visitor.prefab(new LevelVisitor.PrefabDefinition(name, model, collision, material, mass, dynamic));
+        }
+        reader.endObject();
+    }
+
+    private static void readInstances(Json5Reader reader, LevelVisitor visitor) {
+        // grown as needed and shared by every entry, visitors copy what they keep
+        float[] positions = new float[3 * 64];
+        float[] rotations = new float[4 * 64];
+        Vector3f origin = new Vector3f();
+        Vector3f spacing = new Vector3f();
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+        Quaternionf yaw = new Quaternionf();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String prefab = null;
+            String model = null;
+            String collision = null;
+            String material = null;
+            float mass = Float.NaN;
+            Quaternionf rotation = new Quaternionf();
+            int count = 0;
+            int rotationCount = 0;
+            int forms = 0;
+            int[] grid = null;
+            int scatter = 0;
+            int seed = 0;
+            boolean randomYaw = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "prefab" -> prefab = reader.nextString();
+                    case "model" -> model = reader.nextString();
+                    case "collision" -> collision = reader.nextString();
+                    case "material" -> material = reader.nextString();
+                    case "mass" -> mass = reader.nextFloat();
+                    case "rotation" -> readQuaternionf(reader, rotation);
+                    case "position" -> {
+                        positions = ensure(positions, 3);
+                        readFloats(reader, positions, 0, 3);
+                        count = 1;
+                        forms++;
+                    }
+                    case "positions" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            positions = ensure(positions, 3 * (count + 1));
+                            readFloats(reader, positions, 3 * count++, 3);
+                        }
+                        reader.endArray();
+                        forms++;
+                    }
+                    case "rotations" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            rotations = ensure(rotations, 4 * (rotationCount + 1));
+                            readFloats(reader, rotations, 4 * rotationCount++, 4);
+                        }
+                        reader.endArray();
+                    }
+                    case "grid" -> {
+                        grid = new int[] {1, 1, 1};
+                        origin.set(0);
+                        spacing.set(1);
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "origin" -> readVector3f(reader, origin);
+                                case "spacing" -> readVector3f(reader, spacing);
+                                case "count" -> {
+                                    reader.beginArray();
+                                    grid[0] = reader.nextInt();
+                                    grid[1] = reader.nextInt();
+                                    grid[2] = reader.nextInt();
+                                    reader.endArray();
+                                }
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        forms++;
+                    }
+                    case "scatter" -> {
+                        min.set(0);
+                        max.set(0);
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "seed" -> seed = reader.nextInt();
+                                case "count" -> scatter = reader.nextInt();
+                                case "min" -> readVector3f(reader, min);
+                                case "max" -> readVector3f(reader, max);
+                                case "random_yaw" -> randomYaw = reader.nextBoolean();
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        forms++;
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (prefab == null) throw new IllegalStateException("Instance entry without a prefab");
+            if (forms > 1) throw new IllegalStateException("Instance of \"" + prefab + "\" mixes position, positions, grid and scatter");
+            if (forms == 0) {
+                positions = ensure(positions, 3);
+                Arrays.fill(positions, 0, 3, 0f);
+                count = 1;
+            }
+
+            if (grid != null) {
+                count = grid[0] * grid[1] * grid[2];
+                float[] p = positions = ensure(positions, 3 * count);
+                int i = 0;
+                for (int y = 0; y < grid[1]; y++) {
+                    for (int z = 0; z < grid[2]; z++) {
+                        for (int x = 0; x < grid[0]; x++, i += 3) {
+                            p[i] = origin.x + x * spacing.x;
+                            p[i + 1] = origin.y + y * spacing.y;
+                            p[i + 2] = origin.z + z * spacing.z;
+                        }
+                    }
+                }
+            }
+
+            float[] r = rotations = ensure(rotations, 4 * Math.max(count, scatter));
+            if (scatter > 0) {
+                count = scatter;
+                float[] p = positions = ensure(positions, 3 * count);
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int i = 0; i < count; i++) {
+                    p[3 * i] = min.x + (float) random.nextDouble() * (max.x - min.x);
+                    p[3 * i + 1] = min.y + (float) random.nextDouble() * (max.y - min.y);
+                    p[3 * i + 2] = min.z + (float) random.nextDouble() * (max.z - min.z);
+                    if (randomYaw) {
+                        yaw.rotationY((float) (random.nextDouble() * 2 * Math.PI)).mul(rotation);
+                        r[4 * i] = yaw.x;
+                        r[4 * i + 1] = yaw.y;
+                        r[4 * i + 2] = yaw.z;
+                        r[4 * i + 3] = yaw.w;
+                    }
+                }
+                if (randomYaw) rotationCount = count;
+            }
+
+            if (rotationCount == 0) {
+                for (int i = 0; i < count; i++) {
+                    r[4 * i] = rotation.x;
+                    r[4 * i + 1] = rotation.y;
+                    r[4 * i + 2] = rotation.z;
+                    r[4 * i + 3] = rotation.w;
+                }
+            } else if (rotationCount != count) {
+                throw new IllegalStateException("Instance of \"" + prefab + "\" has " + count + " positions but " + rotationCount + " rotations");
+            }
+
+            if (count > 0) visitor.instances(new LevelVisitor.InstanceBatch(prefab, count, positions, r, model, collision, material, mass));
+        }
+        reader.endArray();
+    }
+
+    private static void readLights(Json5Reader reader, LevelVisitor visitor) {
+        Vector3f position = new Vector3f();
+        Vector3f color = new Vector3f();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            position.set(0, 0, 0);
+            color.set(1, 1, 1);
+            float constant = 1.0f;
+            float linear = 0.7f;
+            float quadratic = 1.8f;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "position" -> readVector3f(reader, position);
+                    case "color" -> readVector3f(reader, color);
+                    case "constant" -> constant = reader.nextFloat();
+                    case "linear" -> linear = reader.nextFloat();
+                    case "quadratic" -> quadratic = reader.nextFloat();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            visitor.light(new LevelVisitor.LightDefinition(position, color, constant, linear, quadratic));
+        }
+        reader.endArray();
+    }
+
+    private static Vector3f readVector3f(Json5Reader reader, Vector3f dest) {
+        reader.beginArray();
+        dest.set(reader.nextFloat(), reader.nextFloat(), reader.nextFloat());
+        reader.endArray();
+        return dest;
+    }
+
+    private static void readFloats(Json5Reader reader, float[] dest, int offset, int count) {
+        reader.beginArray();
+        for (int i = 0; i < count; i++) dest[offset + i] = reader.nextFloat();
+        reader.endArray();
+    }
+
+    private static float[] ensure(float[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    private static Quaternionf readQuaternionf(Json5Reader reader, Quaternionf dest) {
+        reader.beginArray();
+        dest.set(reader.nextFloat(), reader.nextFloat(), reader.nextFloat(), reader.nextFloat());
+        reader.endArray();
+        return dest;
+    }
+
+    /**
+     * A visitor that writes the level back out as JSON5. Sections are buffered and written in the usual order by {@link #end()}.
+     */
+    public static class Writer implements LevelVisitor {
+        private final java.io.Writer out;
+
+        private final StringBuilder pbr = new StringBuilder();
+        private final StringBuilder materials = new StringBuilder();
+        private final StringBuilder statics = new StringBuilder();
+        private final StringBuilder dynamics = new StringBuilder();
+        private final StringBuilder prefabs = new StringBuilder();
+        private final StringBuilder instances = new StringBuilder();
+        private final StringBuilder lights = new StringBuilder();
+
+        public Writer(java.io.Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void pbr(Vector3fc skylightPosition, Vector3fc skylightColor) {
+            pbr.setLength(0);
+            pbr.append("    \"skylight_position\": ").append(array(skylightPosition)).append(",\n");
+            pbr.append("    \"skylight_color\": ").append(array(skylightColor)).append(",\n");
+        }
+
+        @Override
+        public void material(String name, Material material) {
+            materials.append("    ").append(quote(name)).append(": {\n");
+            materials.append("      \"friction\": ").append(number(material.friction())).append(",\n");
+            materials.append("      \"restitution\": ").append(number(material.restitution())).append(",\n");
+            materials.append("    },\n");
+        }
+
+        @Override
+        public void entity(EntityDefinition entity) {
+            StringBuilder section = entity.dynamic() ? dynamics : statics;
+            section.append("    {\n");
+            if (entity.model() != null) section.append("      \"model\": ").append(quote(entity.model())).append(",\n");
+            if (entity.position() != null) section.append("      \"position\": ").append(array(entity.position())).append(",\n");
+            if (entity.rotation() != null) section.append("      \"rotation\": ").append(array(entity.rotation())).append(",\n");
+            if (entity.collision() != null) section.append("      \"collision\": ").append(quote(entity.collision())).append(",\n");
+            if (entity.material() != null) section.append("      \"material\": ").append(quote(entity.material())).append(",\n");
+            if (entity.dynamic()) section.append("      \"mass\": ").append(number(entity.mass())).append(",\n");
+            section.append("    },\n");
+        }
+
+        @Override
+        public void prefab(PrefabDefinition prefab) {
+            prefabs.append("    ").append(quote(prefab.name())).append(": {\n");
+            if (prefab.model() != null) prefabs.append("      \"model\": ").append(quote(prefab.model())).append(",\n");
+            if (prefab.collision() != null) prefabs.append("      \"collision\": ").append(quote(prefab.collision())).append(",\n");
+            if (prefab.material() != null) prefabs.append("      \"material\": ").append(quote(prefab.material())).append(",\n");
+            if (prefab.dynamic()) {
+                prefabs.append("      \"mass\": ").append(number(prefab.mass())).append(",\n");
+                prefabs.append("      \"dynamic\": true,\n");
+            }
+            prefabs.append("    },\n");
+        }
+
+        @Override
+        public void instances(InstanceBatch batch) {
+            instances.append("    {\n");
+            instances.append("      \"prefab\": ").append(quote(batch.prefab())).append(",\n");
+            if (batch.model() != null) instances.append("      \"model\": ").append(quote(batch.model())).append(",\n");
+            if (batch.collision() != null) instances.append("      \"collision\": ").append(quote(batch.collision())).append(",\n");
+            if (batch.material() != null) instances.append("      \"material\": ").append(quote(batch.material())).append(",\n");
+            if (!Float.isNaN(batch.mass())) instances.append("      \"mass\": ").append(number(batch.mass())).append(",\n");
+            float[] p = batch.positions();
+            float[] r = batch.rotations();
+            if (batch.count() == 1) {
+                instances.append("      \"position\": ").append(array(p, 0, 3)).append(",\n");
+                instances.append("      \"rotation\": ").append(array(r, 0, 4)).append(",\n");
+            } else {
+                // grids and scatters were expanded on the way in, so they come back out as plain lists
+                instances.append("      \"positions\": [\n");
+                for (int i = 0; i < batch.count(); i++) instances.append("        ").append(array(p, 3 * i, 3)).append(",\n");
+                instances.append("      ],\n");
+                instances.append("      \"rotations\": [\n");
+                for (int i = 0; i < batch.count(); i++) instances.append("        ").append(array(r, 4 * i, 4)).append(",\n");
+                instances.append("      ],\n");
+            }
+            instances.append("    },\n");
+        }
+
+        @Override
+        public void light(LightDefinition light) {
+            lights.append("    {\n");
+            lights.append("      \"position\": ").append(array(light.position())).append(",\n");
+            lights.append("      \"color\": ").append(array(light.color())).append(",\n");
+            lights.append("      \"constant\": ").append(number(light.constant())).append(",\n");
+            lights.append("      \"linear\": ").append(number(light.linear())).append(",\n");
+            lights.append("      \"quadratic\": ").append(number(light.quadratic())).append(",\n");
+            lights.append("    },\n");
+        }
+
+        @Override
+        public void end() {
+            try {
+                out.write("{\n");
+                out.write("  \"pbr\": {\n" + pbr + "  },\n");
+                out.write("  \"materials\": {\n" + materials + "  },\n");
+                out.write("  \"static\": [\n" + statics + "  ],\n");
+                out.write("  \"dynamic\": [\n" + dynamics + "  ],\n");
+                out.write("  \"prefabs\": {\n" + prefabs + "  },\n");
+                out.write("  \"instances\": [\n" + instances + "  ],\n");
+                out.write("  \"lights\": [\n" + lights + "  ],\n");
+                out.write("}\n");
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static String array(Vector3fc v) {
+            return "[" + number(v.x()) + ", " + number(v.y()) + ", " + number(v.z()) + "]";
+        }
+
+        private static String array(Quaternionfc q) {
+            return "[" + number(q.x()) + ", " + number(q.y()) + ", " + number(q.z()) + ", " + number(q.w()) + "]";
+        }
+
+        private static String array(float[] values, int offset, int count) {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < count; i++) builder.append(i == 0 ? "" : ", ").append(number(values[offset + i]));
+            return builder.append("]").toString();
+        }
+
+        // shortest text that reads back as the same float
+        private static String number(float value) {
+            if (value == (long) value) return String.format(Locale.ROOT, "%d.0", (long) value);
+            return Float.toString(value);
+        }
+
+        private static String quote(String value) {
+            return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package net.flamgop.asset.level;
+
+import net.flamgop.asset.vfs.VirtualFileSystem;
+import net.flamgop.util.Json5Reader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// converts levels between JSON5 and the binary layout, whichever way round the input is.
+// usage: LevelConverter <input> <output>
+public class LevelConverter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LevelConverter.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: LevelConverter <input> <output>");
+            System.exit(1);
+        }
+        convert(Path.of(args[0]), Path.of(args[1]));
+    }
+
+    public static void convert(Path input, Path output) throws IOException {
+        ByteBuffer source = VirtualFileSystem.readFile(input);
+        try {
+            if (BinaryLevel.isBinary(source)) {
+                try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    BinaryLevel.read(source, new Json5Level.Writer(writer));
+                }
+            } else {
+                Json5Level.read(new Json5Reader(source), new BinaryLevel.Writer(output));
+            }
+        } finally {
+            VirtualFileSystem.free(source);
+        }
+        LOGGER.info("Converted {} to {}", input, output);
+    }
+}
@@ -0,0 +1,46 @@
+package net.flamgop.asset.level;
+
+import net.flamgop.physics.Material;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Quaternionfc;
+import org.joml.Vector3fc;
+
+/**
+ * Receives a level's contents as a reader walks through it, in whatever order the source has them.
+ * <br/>
+ * Vectors and arrays handed to a visitor may be reused by the reader as soon as the call returns, copy anything that has to stick around.
+ */
+public interface LevelVisitor {
+
+    // one static or dynamic entry. position and rotation are null when the source leaves them out, material is null for the default one
+    record EntityDefinition(@Nullable String model, @Nullable Vector3fc position, @Nullable Quaternionfc rotation,
+                            @Nullable String collision, @Nullable String material, float mass, boolean dynamic) {}
+
+    // a reusable entry, placed any number of times through instances(). mass only matters for dynamic ones
+    record PrefabDefinition(String name, @Nullable String model, @Nullable String collision, @Nullable String material,
+                            float mass, boolean dynamic) {}
+
+    /**
+     * count placements of one prefab. positions holds 3 and rotations 4 floats per instance, back to back (the arrays may be
+     * longer than that). model, collision and material override the prefab's for the whole batch when set, as does mass when not NaN.
+     */
+    record InstanceBatch(String prefab, int count, float[] positions, float[] rotations,
+                         @Nullable String model, @Nullable String collision, @Nullable String material, float mass) {}
+
+    record LightDefinition(Vector3fc position, Vector3fc color, float constant, float linear, float quadratic) {}
+
+    void pbr(Vector3fc skylightPosition, Vector3fc skylightColor);
+
+    void material(String name, Material material);
+
+    void entity(EntityDefinition entity);
+
+    void prefab(PrefabDefinition prefab);
+
+    void instances(InstanceBatch batch);
+
+    void light(LightDefinition light);
+
+    // called once the whole level has been read
+    default void end() {}
+}
@@ -0,0 +1,238 @@
+package net.flamgop.asset.loaders;
+
+import net.flamgop.gpu.vertex.VertexArray;
+import net.flamgop.util.AABB;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A model after import, in the exact layout the GPU wants it.
+ * <br/>
+ * The first import of a model writes one of these to {@code ./cache/models/<sha256>.bmesh}, keyed by the source file's path, its contents and the import flags,
+ * and every load after that maps the file instead of going through Assimp. Buffers either belong to the model (and get freed by {@link #free()}) or are slices of the mapping.
+ */
+public record BakedModel(List<Texture> textures, List<Mesh> meshes, boolean mapped) {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BakedModel.class);
+
+    private static final Path CACHE_DIRECTORY = Path.of("./cache/models");
+    private static final int MAGIC = 0x48534D42; // "BMSH"
+    // bump whenever the layout below (or DefaultVertex's) changes
+    private static final int VERSION = 2;
+
+    public static final int SLOT_DIFFUSE = 0;
+    public static final int SLOT_ROUGHNESS = 1;
+    public static final int SLOT_METALLIC = 2;
+    public static final int SLOT_NORMAL = 3;
+    public static final int SLOT_COUNT = 4;
+
+    public enum TextureKind {
+        EXTERNAL, // loaded through the asset manager by path
+        COMPRESSED, // embedded image file, data is whatever stb can decode
+        RAW, // embedded RGBA8 texels
+
+        ;
+    }
+
+    // path is the asset identifier the texture is tracked under
+    public record Texture(TextureKind kind, String path, @Nullable String label, @Nullable ByteBuffer data, int width, int height) {}
+
+    // textures holds an index into the texture table per slot, or -1
+    public record Mesh(String name, ByteBuffer vertices, ByteBuffer indices, VertexArray.IndexType indexType, int indexCount,
+                       AABB aabb, Vector3f boundingSphereCenter, float boundingSphereRadius, int[] textures) {}
+
+    public void free() {
+        if (mapped) return;
+        for (Texture texture : textures) {
+            if (texture.data() != null) MemoryUtil.memFree(texture.data());
+        }
+        for (Mesh mesh : meshes) {
+            MemoryUtil.memFree(mesh.vertices());
+            MemoryUtil.memFree(mesh.indices());
+        }
+    }
+
+    // the source path is part of the key since embedded textures are tracked under identifiers built from it
+    public static Path cachePath(String sourcePath, ByteBuffer source, int importFlags) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sourcePath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.duplicate());
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(importFlags).putInt(VERSION).flip());
+            return CACHE_DIRECTORY.resolve(HexFormat.of().formatHex(digest.digest()) + ".bmesh");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // null if there's nothing usable cached, in which case the caller should import and write it
+    public static @Nullable BakedModel read(Path path, int importFlags) {
+        if (!Files.isRegularFile(path)) return null;
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to map baked model {}", path, e);
+            return null;
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != importFlags) {
+                LOGGER.warn("Baked model {} is stale, rebaking", path);
+                return null;
+            }
+            int textureCount = buffer.getInt();
+            int meshCount = buffer.getInt();
+
+            List<Texture> textures = new ArrayList<>(textureCount);
+            for (int i = 0; i < textureCount; i++) {
+                TextureKind kind = TextureKind.values()[buffer.get()];
+                String texturePath = readString(buffer);
+                String label = readString(buffer);
+                ByteBuffer data = null;
+                int width = 0, height = 0;
+                switch (kind) {
+                    case COMPRESSED -> data = slice(buffer, buffer.getInt());
+                    case RAW -> {
+                        width = buffer.getInt();
+                        height = buffer.getInt();
+                        data = slice(buffer, width * height * 4);
+                    }
+                    case EXTERNAL -> {}
+                }
+                textures.add(new Texture(kind, texturePath, label, data, width, height));
+            }
+
+            List<Mesh> meshes = new ArrayList<>(meshCount);
+            for (int i = 0; i < meshCount; i++) {
+                String name = readString(buffer);
+                VertexArray.IndexType indexType = VertexArray.IndexType.values()[buffer.get()];
+                int vertexBytes = buffer.getInt();
+                int indexCount = buffer.getInt();
+                AABB aabb = new AABB(readVector(buffer), readVector(buffer));
+                Vector3f center = readVector(buffer);
+                float radius = buffer.getFloat();
+                int[] slots = new int[SLOT_COUNT];
+                for (int j = 0; j < SLOT_COUNT; j++) slots[j] = buffer.getInt();
+                ByteBuffer vertices = slice(buffer, vertexBytes);
+                ByteBuffer indices = slice(buffer, indexCount * indexType.bytes());
+                meshes.add(new Mesh(name, vertices, indices, indexType, indexCount, aabb, center, radius, slots));
+            }
+            return new BakedModel(textures, meshes, true);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            LOGGER.warn("Baked model {} is corrupt, rebaking", path, e);
+            return null;
+        }
+    }
+
+    public void write(Path path, int importFlags) {
+        int size = 5 * Integer.BYTES;
+        for (Texture texture : textures) {
+            size += 1 + stringSize(texture.path()) + stringSize(texture.label());
+            switch (texture.kind()) {
+                case COMPRESSED -> size += Integer.BYTES + texture.data().remaining();
+                case RAW -> size += 2 * Integer.BYTES + texture.data().remaining();
+                case EXTERNAL -> {}
+            }
+        }
+        for (Mesh mesh : meshes) {
+            size += stringSize(mesh.name()) + 1 + 2 * Integer.BYTES + 10 * Float.BYTES + SLOT_COUNT * Integer.BYTES;
+            size += mesh.vertices().remaining() + mesh.indices().remaining();
+        }
+
+        ByteBuffer buffer = MemoryUtil.memAlloc(size).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(importFlags).putInt(textures.size()).putInt(meshes.size());
+            for (Texture texture : textures) {
+                buffer.put((byte) texture.kind().ordinal());
+                writeString(buffer, texture.path());
+                writeString(buffer, texture.label());
+                switch (texture.kind()) {
+                    case COMPRESSED -> buffer.putInt(texture.data().remaining()).put(texture.data().duplicate());
+                    case RAW -> buffer.putInt(texture.width()).putInt(texture.height()).put(texture.data().duplicate());
+                    case EXTERNAL -> {}
+                }
+            }
+            for (Mesh mesh : meshes) {
+                writeString(buffer, mesh.name());
+                buffer.put((byte) mesh.indexType().ordinal());
+                buffer.putInt(mesh.vertices().remaining()).putInt(mesh.indexCount());
+                writeVector(buffer, mesh.aabb().min());
+                writeVector(buffer, mesh.aabb().max());
+                writeVector(buffer, mesh.boundingSphereCenter());
+                buffer.putFloat(mesh.boundingSphereRadius());
+                for (int slot : mesh.textures()) buffer.putInt(slot);
+                buffer.put(mesh.vertices().duplicate());
+                buffer.put(mesh.indices().duplicate());
+            }
+            buffer.flip();
+
+            // write next to it and move it into place, so a concurrent load never maps half a file
+            Files.createDirectories(path.getParent());
+            Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write baked model {}", path, e);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static @Nullable String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteBuffer buffer, @Nullable String string) {
+        if (string == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static int stringSize(@Nullable String string) {
+        return Integer.BYTES + (string == null ? 0 : string.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static Vector3f readVector(ByteBuffer buffer) {
+        return new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    private static void writeVector(ByteBuffer buffer, Vector3f vector) {
+        buffer.putFloat(vector.x).putFloat(vector.y).putFloat(vector.z);
+    }
+}
@@ -13,17 +13,20 @@ import net.flamgop.util.ResourceHelper;
 import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3f;
 import org.lwjgl.assimp.*;
+import org.lwjgl.system.MemoryUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.lwjgl.opengl.GL46.*;
 
 @SuppressWarnings("DataFlowIssue")
-public class ModelLoader implements Loader<Model> {
+public class ModelLoader implements StagedLoader<Model, ModelLoader.DecodedModel> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ModelLoader.class);
 
@@ -37,146 +40,291 @@ public class ModelLoader implements Loader<Model> {
                     Assimp.aiProcess_FixInfacingNormals |
                     Assimp.aiProcess_FindDegenerates;
 
+    public record DecodedModel(BakedModel baked, List<CompletableFuture<?>> textures) {}
+
     private final AssetManager assetManager;
+    // every model holds a reference on its textures until it's disposed
+    private final Map<Model, List<AssetIdentifier>> textureReferences = new ConcurrentHashMap<>();
 
     public ModelLoader(final AssetManager assetManager) {
         this.assetManager = assetManager;
     }
 
     @Override
-    public Model load(AssetIdentifier path) {
+    public DecodedModel decode(AssetIdentifier path) {
         String p = path.path();
 
         ByteBuffer asset = ResourceHelper.loadFileFromAssetsOrResources(p);
 
-        List<TexturedMesh> meshes = new ArrayList<>();
+        Path cachePath = BakedModel.cachePath(p, asset, IMPORT_FLAGS);
+        BakedModel baked = BakedModel.read(cachePath, IMPORT_FLAGS);
+        if (baked == null) {
+            baked = importModel(p, asset);
+            baked.write(cachePath, IMPORT_FLAGS);
+            LOGGER.info("Baked {} to {}", p, cachePath);
+        }
+        ResourceHelper.free(asset);
+
+        List<CompletableFuture<?>> textures = new ArrayList<>(baked.textures().size());
+        for (BakedModel.Texture texture : baked.textures()) {
+            textures.add(requestTexture(texture));
+        }
+        return new DecodedModel(baked, textures);
+    }
+
+    @Override
+    public Collection<? extends CompletableFuture<?>> dependencies(DecodedModel decoded) {
+        return decoded.textures();
+    }
+
+    @Override
+    public Model upload(DecodedModel decoded) {
+        BakedModel baked = decoded.baked();
+
+        GPUTexture[] textures = new GPUTexture[baked.textures().size()];
+        List<AssetIdentifier> references = new ArrayList<>(textures.length);
+        for (int i = 0; i < textures.length; i++) {
+            BakedModel.Texture texture = baked.textures().get(i);
+            textures[i] = resolveTexture(texture, decoded.textures().get(i));
+            references.add(new AssetIdentifier(texture.path()));
+            if (texture.label() != null)
+                textures[i].label("Texture \"" + texture.label() + "\"");
+        }
+
+        float maxAniso = glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY);
+        List<TexturedMesh> meshes = new ArrayList<>(baked.meshes().size());
+        for (BakedModel.Mesh mesh : baked.meshes()) {
+            VertexArray vao = VertexArray.withDefaultVertexFormat(mesh.vertices(), mesh.indices(), mesh.indexType(), mesh.indexCount());
+
+            if (!mesh.name().isEmpty()) {
+                vao.label(mesh.name());
+            }
+
+            GPUTexture diffuse = slot(textures, mesh, BakedModel.SLOT_DIFFUSE);
+            GPUTexture roughness = slot(textures, mesh, BakedModel.SLOT_ROUGHNESS);
+            GPUTexture metallic = slot(textures, mesh, BakedModel.SLOT_METALLIC);
+            GPUTexture normal = slot(textures, mesh, BakedModel.SLOT_NORMAL);
+
+            if (roughness != null) {
+                roughness.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
+                roughness.magFilter(GPUTexture.MagFilter.LINEAR);
+                roughness.maxAnisotropy(maxAniso);
+            }
+            if (metallic != null) {
+                metallic.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
+                metallic.magFilter(GPUTexture.MagFilter.LINEAR);
+                metallic.maxAnisotropy(maxAniso);
+            }
+            if (normal != null) {
+                normal.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
+                normal.magFilter(GPUTexture.MagFilter.LINEAR);
+                normal.maxAnisotropy(maxAniso);
+            }
+
+            Material material = new Material(DefaultShaders.GBUFFER,
+                    diffuse != null ? diffuse : GPUTexture.MISSING_TEXTURE,
+                    roughness != null ? roughness : GPUTexture.MISSING_TEXTURE,
+                    metallic != null ? metallic : GPUTexture.MISSING_TEXTURE,
+                    normal != null ? normal : GPUTexture.MISSING_NORMAL
+            );
+
+            meshes.add(new TexturedMesh(vao, material, mesh.aabb(), mesh.boundingSphereCenter(), mesh.boundingSphereRadius()));
+        }
+
+        // every texture decode has finished by now, so nothing is still reading from these
+        baked.free();
+
+        Model model = new Model(meshes);
+        textureReferences.put(model, references);
+        return model;
+    }
 
-        AIScene scene = Assimp.aiImportFileFromMemory(asset, IMPORT_FLAGS, (ByteBuffer) null);
+    private static @Nullable GPUTexture slot(GPUTexture[] textures, BakedModel.Mesh mesh, int slot) {
+        int index = mesh.textures()[slot];
+        return index >= 0 ? textures[index] : null;
+    }
+
+    // kicks off the texture load without waiting for it. external textures resolve to the loaded Asset,
+    // embedded ones to a TextureLoader.DecodedImage (or null if someone else already uploaded it)
+    private CompletableFuture<?> requestTexture(BakedModel.Texture texture) {
+        AssetIdentifier identifier = new AssetIdentifier(texture.path());
+        return switch (texture.kind()) {
+            case EXTERNAL -> {
+                LOGGER.info("Loading texture: {}", texture.path());
+                yield assetManager.loadAsync(identifier, GPUTexture.class);
+            }
+            case COMPRESSED -> {
+                if (assetManager.isTracking(identifier)) yield CompletableFuture.completedFuture(null);
+                yield assetManager.decodeAsync(() -> decodeEmbedded(texture));
+            }
+            case RAW -> {
+                if (assetManager.isTracking(identifier)) yield CompletableFuture.completedFuture(null);
+                yield CompletableFuture.completedFuture(decodeEmbedded(texture));
+            }
+        };
+    }
+
+    private static TextureLoader.DecodedImage decodeEmbedded(BakedModel.Texture texture) {
+        if (texture.kind() == BakedModel.TextureKind.COMPRESSED) return TextureLoader.decodeImage(texture.data());
+        ByteBuffer pixels = MemoryUtil.memAlloc(texture.data().remaining());
+        MemoryUtil.memCopy(texture.data(), pixels);
+        return new TextureLoader.DecodedImage(pixels, texture.width(), texture.height(), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private GPUTexture resolveTexture(BakedModel.Texture texture, CompletableFuture<?> future) {
+        Object result = future.join();
+        if (texture.kind() == BakedModel.TextureKind.EXTERNAL) return ((Asset<GPUTexture>) result).get();
+
+        AssetIdentifier identifier = new AssetIdentifier(texture.path());
+        TextureLoader.DecodedImage image = (TextureLoader.DecodedImage) result;
+        // another model with the same source could have beaten us to it while we were decoding
+        Asset<GPUTexture> existing = assetManager.get(identifier);
+        if (existing != null) {
+            if (image != null) image.free();
+            return existing.get();
+        }
+        // or it was cached when we asked and got evicted since, the baked data is still around so decode it again
+        if (image == null) image = decodeEmbedded(texture);
+        GPUTexture uploaded = TextureLoader.uploadImage(image);
+        Asset<GPUTexture> tracked = assetManager.track(identifier, new Asset<>(uploaded), GPUTexture.class);
+        if (tracked.get() != uploaded) uploaded.destroy();
+        return tracked.get();
+    }
+
+    private BakedModel importModel(String basePath, ByteBuffer source) {
+        List<BakedModel.Mesh> meshes = new ArrayList<>();
+        List<BakedModel.Texture> textures = new ArrayList<>();
+        Map<String, Integer> textureIndices = new HashMap<>();
+
+        AIScene scene = Assimp.aiImportFileFromMemory(source, IMPORT_FLAGS, (ByteBuffer) null);
         if (scene == null || (scene.mFlags() & Assimp.AI_SCENE_FLAGS_INCOMPLETE) != 0 || scene.mRootNode() == null) {
             throw new IllegalStateException("Failed to load model");
         }
-        processNode(p, meshes, scene.mRootNode(), scene);
+        processNode(basePath, meshes, textures, textureIndices, scene.mRootNode(), scene);
 
         Assimp.aiReleaseImport(scene);
 
-        return new Model(meshes);
+        return new BakedModel(textures, meshes, false);
     }
 
-    private void processNode(String basePath, List<TexturedMesh> meshes, AINode node, AIScene scene) {
+    private void processNode(String basePath, List<BakedModel.Mesh> meshes, List<BakedModel.Texture> textures, Map<String, Integer> textureIndices, AINode node, AIScene scene) {
         for (int i = 0; i < node.mNumMeshes(); i++) {
             AIMesh mesh = AIMesh.create(scene.mMeshes().get(node.mMeshes().get(i)));
-            meshes.add(processMesh(basePath, mesh, scene));
+            meshes.add(processMesh(basePath, textures, textureIndices, mesh, scene));
         }
         for (int i = 0; i < node.mNumChildren(); i++) {
-            processNode(basePath, meshes, AINode.create(node.mChildren().get(i)), scene);
+            processNode(basePath, meshes, textures, textureIndices, AINode.create(node.mChildren().get(i)), scene);
         }
     }
 
-    private TexturedMesh processMesh(String basePath, AIMesh mesh, AIScene scene) {
-        List<DefaultVertex> vertices = new ArrayList<>();
-        List<Integer> indices = new ArrayList<>();
+    private BakedModel.Mesh processMesh(String basePath, List<BakedModel.Texture> textures, Map<String, Integer> textureIndices, AIMesh mesh, AIScene scene) {
+        int vertexCount = mesh.mNumVertices();
+        ByteBuffer vertices = MemoryUtil.memAlloc(vertexCount * DefaultVertex.BYTES);
+
+        // read assimp's arrays straight out of native memory, going through AIVector3D per vertex is most of the import time on big meshes
+        long positions = mesh.mVertices().address();
+        long normals = mesh.mNormals() != null ? mesh.mNormals().address() : MemoryUtil.NULL;
+        long texcoords = mesh.mTextureCoords(0) != null ? mesh.mTextureCoords(0).address() : MemoryUtil.NULL;
+        long tangents = mesh.mTangents() != null ? mesh.mTangents().address() : MemoryUtil.NULL;
+        long bitangents = mesh.mBitangents() != null ? mesh.mBitangents().address() : MemoryUtil.NULL;
+        long out = MemoryUtil.memAddress(vertices);
 
         float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE, minZ = Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
 
-        for (int i = 0; i < mesh.mNumVertices(); i++) {
-            DefaultVertex v = new DefaultVertex();
-            AIVector3D vertex = mesh.mVertices().get(i);
-            v.position(vertex.x(), vertex.y(), vertex.z());
-            AIVector3D normal = mesh.mNormals().get(i);
-            v.normal(normal.x(), normal.y(), normal.z());
-            if (mesh.mTextureCoords(0) != null) {
-                AIVector3D texcoord = mesh.mTextureCoords(0).get(i);
-                v.texcoord(texcoord.x(), texcoord.y());
+        for (int i = 0; i < vertexCount; i++) {
+            long offset = (long) i * AIVector3D.SIZEOF;
+            float x = MemoryUtil.memGetFloat(positions + offset);
+            float y = MemoryUtil.memGetFloat(positions + offset + 4);
+            float z = MemoryUtil.memGetFloat(positions + offset + 8);
+
+            float nx = 0, ny = 0, nz = 0;
+            if (normals != MemoryUtil.NULL) {
+                nx = MemoryUtil.memGetFloat(normals + offset);
+                ny = MemoryUtil.memGetFloat(normals + offset + 4);
+                nz = MemoryUtil.memGetFloat(normals + offset + 8);
             }
-            AIVector3D tangent = mesh.mTangents().get(i);
-            AIVector3D bitangent = mesh.mBitangents().get(i);
 
-            Vector3f n = new Vector3f(normal.x(), normal.y(), normal.z());
-            Vector3f t = new Vector3f(tangent.x(), tangent.y(), tangent.z());
-            Vector3f b = new Vector3f(bitangent.x(), bitangent.y(), bitangent.z());
+            float u = 0, v = 0;
+            if (texcoords != MemoryUtil.NULL) {
+                u = MemoryUtil.memGetFloat(texcoords + offset);
+                v = MemoryUtil.memGetFloat(texcoords + offset + 4);
+            }
 
-            float w = (t.cross(b).dot(n) > 0.0f ? 1.0f : -1.0f);
+            int tangent = 0;
+            if (tangents != MemoryUtil.NULL && bitangents != MemoryUtil.NULL) {
+                float tx = MemoryUtil.memGetFloat(tangents + offset);
+                float ty = MemoryUtil.memGetFloat(tangents + offset + 4);
+                float tz = MemoryUtil.memGetFloat(tangents + offset + 8);
+                float bx = MemoryUtil.memGetFloat(bitangents + offset);
+                float by = MemoryUtil.memGetFloat(bitangents + offset + 4);
+                float bz = MemoryUtil.memGetFloat(bitangents + offset + 8);
+
+                // handedness, sign of (t x b) . n
+                float handedness = (ty * bz - tz * by) * nx + (tz * bx - tx * bz) * ny + (tx * by - ty * bx) * nz;
+                tangent = DefaultVertex.pack(tx, ty, tz, handedness > 0.0f ? 1 : 0);
+            }
 
-            v.tangent(tangent.x(), tangent.y(), tangent.z(), (int)w);
-            vertices.add(v);
+            DefaultVertex.put(out + (long) i * DefaultVertex.BYTES, x, y, z, u, v, DefaultVertex.pack(nx, ny, nz, 0), tangent);
 
-            if (vertex.x() < minX) minX = vertex.x();
-            if (vertex.x() > maxX) maxX = vertex.x();
-            if (vertex.y() < minY) minY = vertex.y();
-            if (vertex.y() > maxY) maxY = vertex.y();
-            if (vertex.z() < minZ) minZ = vertex.z();
-            if (vertex.z() > maxZ) maxZ = vertex.z();
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+            if (z < minZ) minZ = z;
+            if (z > maxZ) maxZ = z;
         }
         AABB aabb = new AABB(new Vector3f(minX, minY, minZ), new Vector3f(maxX, maxY, maxZ));
 
-        for (int i = 0; i < mesh.mNumFaces(); i++) {
-            AIFace face = mesh.mFaces().get(i);
-            for (int j = 0; j  < face.mNumIndices(); j++) {
-                indices.add(face.mIndices().get(j));
-            }
+        long faces = mesh.mFaces().address();
+        int faceCount = mesh.mNumFaces();
+        int indexCount = 0;
+        for (int i = 0; i < faceCount; i++) {
+            indexCount += MemoryUtil.memGetInt(faces + (long) i * AIFace.SIZEOF + AIFace.MNUMINDICES);
         }
 
-        VertexArray vao = VertexArray.withDefaultVertexFormat(
-                vertices.toArray(new DefaultVertex[0]),
-                indices.stream().mapToInt(i -> i).toArray()
-        );
-
-        boolean named = mesh.mName().length() > 0;
-        if (named) {
-            vao.label(mesh.mName().dataString());
+        // every index fits in a short as long as there's at most 65536 vertices
+        VertexArray.IndexType indexType = vertexCount <= 0x10000 ? VertexArray.IndexType.UNSIGNED_SHORT : VertexArray.IndexType.UNSIGNED_INT;
+        ByteBuffer indices = MemoryUtil.memAlloc(indexCount * indexType.bytes());
+        long indexOut = MemoryUtil.memAddress(indices);
+        for (int i = 0; i < faceCount; i++) {
+            long face = faces + (long) i * AIFace.SIZEOF;
+            int count = MemoryUtil.memGetInt(face + AIFace.MNUMINDICES);
+            long faceIndices = MemoryUtil.memGetAddress(face + AIFace.MINDICES);
+            for (int j = 0; j < count; j++) {
+                int index = MemoryUtil.memGetInt(faceIndices + (long) j * Integer.BYTES);
+                if (indexType == VertexArray.IndexType.UNSIGNED_SHORT) {
+                    MemoryUtil.memPutShort(indexOut, (short) index);
+                    indexOut += Short.BYTES;
+                } else {
+                    MemoryUtil.memPutInt(indexOut, index);
+                    indexOut += Integer.BYTES;
+                }
+            }
         }
 
-        Material material;
-        GPUTexture diffuse = null;
-        GPUTexture roughness = null;
-        GPUTexture metallic = null;
-        GPUTexture normal = null;
+        int[] slots = new int[BakedModel.SLOT_COUNT];
+        Arrays.fill(slots, -1);
 
         if (mesh.mMaterialIndex() >= 0) {
             AIMaterial aiMaterial = AIMaterial.create(scene.mMaterials().get(mesh.mMaterialIndex()));
 
-            diffuse = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_BASE_COLOR);
-            if (diffuse == null) diffuse = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_DIFFUSE);
-            roughness = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_DIFFUSE_ROUGHNESS);
-            metallic = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_METALNESS);
-            normal = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_NORMALS);
-            if (normal == null) normal = loadTexture(basePath, scene, aiMaterial, Assimp.aiTextureType_NORMAL_CAMERA);
+            slots[BakedModel.SLOT_DIFFUSE] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_BASE_COLOR);
+            if (slots[BakedModel.SLOT_DIFFUSE] < 0) slots[BakedModel.SLOT_DIFFUSE] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_DIFFUSE);
+            slots[BakedModel.SLOT_ROUGHNESS] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_DIFFUSE_ROUGHNESS);
+            slots[BakedModel.SLOT_METALLIC] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_METALNESS);
+            slots[BakedModel.SLOT_NORMAL] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_NORMALS);
+            if (slots[BakedModel.SLOT_NORMAL] < 0) slots[BakedModel.SLOT_NORMAL] = textureIndex(basePath, textures, textureIndices, scene, aiMaterial, Assimp.aiTextureType_NORMAL_CAMERA);
         }
 
-        float maxAniso = glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY);
-        if (roughness != null) {
-            roughness.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
-            roughness.magFilter(GPUTexture.MagFilter.LINEAR);
-            roughness.maxAnisotropy(maxAniso);
-
-        }
-        if (metallic != null) {
-            metallic.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
-            metallic.magFilter(GPUTexture.MagFilter.LINEAR);
-            metallic.maxAnisotropy(maxAniso);
-        }
-        if (normal != null) {
-            normal.minFilter(GPUTexture.MinFilter.LINEAR_MIPMAP_LINEAR);
-            normal.magFilter(GPUTexture.MagFilter.LINEAR);
-            normal.maxAnisotropy(maxAniso);
-        }
-
-        material = new Material(DefaultShaders.GBUFFER,
-                diffuse != null ? diffuse : GPUTexture.MISSING_TEXTURE,
-                roughness != null ? roughness : GPUTexture.MISSING_TEXTURE,
-                metallic != null ? metallic : GPUTexture.MISSING_TEXTURE,
-                normal != null ? normal : GPUTexture.MISSING_NORMAL
-        );
-
-        return new TexturedMesh(vao, material, aabb, aabb.center(), aabb.radius());
+        String name = mesh.mName().length() > 0 ? mesh.mName().dataString() : "";
+        return new BakedModel.Mesh(name, vertices, indices, indexType, indexCount, aabb, aabb.center(), aabb.radius(), slots);
     }
 
-    private @Nullable GPUTexture loadTexture(String sourcePath, AIScene scene, AIMaterial material, int aiTextureType) {
+    // index into the model's texture table, adding the texture if this is the first mesh to use it. -1 if there is none
+    private int textureIndex(String sourcePath, List<BakedModel.Texture> textures, Map<String, Integer> textureIndices, AIScene scene, AIMaterial material, int aiTextureType) {
         int count = Assimp.aiGetMaterialTextureCount(material, aiTextureType);
-        if (count <= 0) return null;
-
-        GPUTexture texture = null;
-        String name = null;
+        if (count <= 0) return -1;
 
         AIString path = AIString.calloc();
         int[] texIndex = new int[1];
@@ -185,49 +333,57 @@ public class ModelLoader implements Loader<Model> {
         path.free();
 
         if (!texturePath.isEmpty()) {
-            name = texturePath;
             if (texturePath.startsWith("*")) {
                 int id = Integer.parseInt(texturePath.substring(1));
-                AITexture aiTexture = AITexture.create(scene.mTextures().get(id));
-
-                AssetIdentifier pathIdentifier = new AssetIdentifier(sourcePath + "/" + texturePath);
-                if (!assetManager.isTracking(pathIdentifier)) {
-                    texture = TextureLoader.loadFromAssimpTexture(aiTexture);
-
-                    Asset<GPUTexture> asset = new Asset<>(texture);
-                    assetManager.track(pathIdentifier, asset);
-                } else {
-                    texture = assetManager.<GPUTexture>get(pathIdentifier).get();
-                }
+                return embeddedTexture(sourcePath + "/" + texturePath, texturePath, textures, textureIndices, AITexture.create(scene.mTextures().get(id)));
             } else {
-                LOGGER.info("Loading texture: {}", texturePath);
-                texture = assetManager.loadSync(new AssetIdentifier(texturePath), GPUTexture.class).get();
+                Integer existing = textureIndices.get(texturePath);
+                if (existing != null) return existing;
+
+                textures.add(new BakedModel.Texture(BakedModel.TextureKind.EXTERNAL, texturePath, texturePath, null, 0, 0));
+                textureIndices.put(texturePath, textures.size() - 1);
+                return textures.size() - 1;
             }
         } else if (texIndex[0] >= 0) {
             AITexture aiTexture = AITexture.create(scene.mTextures().get(texIndex[0]));
             if (aiTexture.mHeight() == 0) {
-                AssetIdentifier pathIdentifier = new AssetIdentifier(sourcePath + "/*" + texIndex[0]);
-                if (!assetManager.isTracking(pathIdentifier)) {
-                    texture = TextureLoader.loadFromAssimpTexture(aiTexture);
-
-                    Asset<GPUTexture> asset = new Asset<>(texture);
-                    assetManager.track(pathIdentifier, asset);
-                } else {
-                    texture = assetManager.<GPUTexture>get(pathIdentifier).get();
-                }
+                return embeddedTexture(sourcePath + "/*" + texIndex[0], null, textures, textureIndices, aiTexture);
             } else {
                 LOGGER.warn("Image data is uncompressed, I have no idea what to do with this!");
             }
         }
+        return -1;
+    }
 
-        if (name != null)
-            texture.label("Texture \"" + name + "\"");
+    // copies the data out since the scene is released long before anything decodes it
+    private int embeddedTexture(String identifier, @Nullable String label, List<BakedModel.Texture> textures, Map<String, Integer> textureIndices, AITexture aiTexture) {
+        Integer existing = textureIndices.get(identifier);
+        if (existing != null) return existing;
+
+        BakedModel.Texture texture;
+        if (aiTexture.mHeight() == 0) {
+            ByteBuffer source = aiTexture.pcDataCompressed();
+            ByteBuffer data = MemoryUtil.memAlloc(source.remaining());
+            MemoryUtil.memCopy(source, data);
+            texture = new BakedModel.Texture(BakedModel.TextureKind.COMPRESSED, identifier, label, data, 0, 0);
+        } else {
+            TextureLoader.DecodedImage image = TextureLoader.decodeAssimpTexture(aiTexture);
+            texture = new BakedModel.Texture(BakedModel.TextureKind.RAW, identifier, label, image.pixels(), image.width(), image.height());
+        }
+        textures.add(texture);
+        textureIndices.put(identifier, textures.size() - 1);
+        return textures.size() - 1;
+    }
 
-        return texture;
+    @Override
+    public long gpuBytes(Model asset) {
+        return asset.byteSize();
     }
 
     @Override
     public void dispose(Model asset) {
         asset.destroy();
+        List<AssetIdentifier> references = textureReferences.remove(asset);
+        if (references != null) references.forEach(identifier -> assetManager.unload(identifier, GPUTexture.class));
     }
 }
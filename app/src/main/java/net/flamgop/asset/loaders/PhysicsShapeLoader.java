@@ -29,6 +29,8 @@ public class PhysicsShapeLoader implements Loader<PhysicsShape> {
 
                 return new PhysicsShape(vertexBuffer);
             }
+        } finally {
+            ResourceHelper.free(bytes);
         }
     }
 
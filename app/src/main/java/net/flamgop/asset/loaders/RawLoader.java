@@ -3,7 +3,6 @@ package net.flamgop.asset.loaders;
 import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.Loader;
 import net.flamgop.util.ResourceHelper;
-import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
 
@@ -13,8 +12,13 @@ public class RawLoader implements Loader<ByteBuffer> {
         return ResourceHelper.loadFileFromAssetsOrResources(path.path());
     }
 
+    @Override
+    public long cpuBytes(ByteBuffer asset) {
+        return asset.capacity();
+    }
+
     @Override
     public void dispose(ByteBuffer asset) {
-        MemoryUtil.memFree(asset);
+        ResourceHelper.free(asset);
     }
 }
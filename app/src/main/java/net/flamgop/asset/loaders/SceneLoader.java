@@ -1,12 +1,11 @@
 package net.flamgop.asset.loaders;
 
-import de.marhali.json5.Json5;
-import de.marhali.json5.Json5Array;
-import de.marhali.json5.Json5Element;
-import de.marhali.json5.Json5Object;
 import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.AssetManager;
 import net.flamgop.asset.Loader;
+import net.flamgop.asset.level.BinaryLevel;
+import net.flamgop.asset.level.Json5Level;
+import net.flamgop.asset.level.LevelVisitor;
 import net.flamgop.entity.Entity;
 import net.flamgop.entity.Scene;
 import net.flamgop.entity.components.*;
@@ -14,16 +13,25 @@ import net.flamgop.gpu.data.Light;
 import net.flamgop.physics.Material;
 import net.flamgop.physics.Physics;
 import net.flamgop.shadow.DirectionalLight;
+import net.flamgop.util.Json5Reader;
 import net.flamgop.util.ResourceHelper;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
+import org.joml.Vector3fc;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+/**
+ * Loads a level, either JSON5 (streamed, see {@link Json5Level}) or binary (see {@link BinaryLevel}), into a {@link Scene}.
+ * Entities are created as the reader reaches them, so neither format is ever held in memory as a whole.
+ */
 public class SceneLoader implements Loader<Scene> {
 
-    private final Json5 json5 = Json5.builder(options -> options.allowInvalidSurrogate().trailingComma().prettyPrinting().build());
+    private static final Material DEFAULT_MATERIAL = new Material(0.5f, 1.0f);
+
     private final AssetManager assetManager;
     private final Physics physics;
 
@@ -34,114 +42,183 @@ public class SceneLoader implements Loader<Scene> {
 
     @Override
     public Scene load(AssetIdentifier path) {
-        String json = ResourceHelper.loadFileContentsFromAssetsOrResources(path.path());
-
-        Json5Element element = json5.parse(json);
-        Json5Object root = element.getAsJson5Object();
-        Json5Object pbr = root.getAsJson5Object("pbr");
-        Json5Object materials = root.getAsJson5Object("materials");
-        Map<String, Material> physicsMaterials = new HashMap<>();
-        for (String s : materials.keySet()) {
-            Json5Object mat = materials.get(s).getAsJson5Object();
-            physicsMaterials.put(s, new Material(
-                    mat.get("friction").getAsFloat(),
-                    mat.get("restitution").getAsFloat()
-            ));
+        ByteBuffer source = ResourceHelper.loadFileFromAssetsOrResources(path.path());
+        SceneBuilder builder = new SceneBuilder(path);
+        try {
+            if (BinaryLevel.isBinary(source)) BinaryLevel.read(source, builder);
+            else Json5Level.read(new Json5Reader(source), builder);
+        } finally {
+            ResourceHelper.free(source);
         }
+        Scene scene = builder.scene;
 
-        Scene scene = new Scene();
-        Entity god = new Entity(UUID.nameUUIDFromBytes("god".getBytes(StandardCharsets.UTF_8)));
-        god.addComponent(new SkyLightComponent(new DirectionalLight(vector3fFromJson(pbr.get("skylight_position")).negate().normalize(), vector3fFromJson(pbr.get("skylight_color")))));
-        god.addComponent(new PBRManagerComponent(scene, god));
-        scene.addRootEntity(god);
-
-        Json5Array lights = root.getAsJson5Array("lights");
-        Json5Array statics = root.getAsJson5Array("static");
-        Json5Array dynamics = root.getAsJson5Array("dynamic");
-
-        if (statics != null) {
-            for (Json5Element e : statics) {
-                Entity ent = new Entity();
-
-                Json5Object stat = e.getAsJson5Object();
-                if (stat.has("model")) ent.addComponent(new ModelRenderer(new AssetIdentifier(stat.get("model").getAsString())));
-                if (stat.has("position")) ent.transform().position(vector3fFromJson(stat.get("position")));
-                if (stat.has("rotation")) ent.transform().rotation(quaternionfFromJson(stat.get("rotation")));
-                if (stat.has("collision")) {
-                    Material material;
-                    if (stat.has("material"))
-                        material = physicsMaterials.get(stat.get("material").getAsString());
-                    else
-                        material = new Material(0.5f, 1.0f);
-                    ent.addComponent(new RigidbodyComponent(
-                            physics,
-                            new AssetIdentifier(stat.get("collision").getAsString()),
-                            material
-                    ));
-                }
-                scene.addRootEntity(ent);
+        physics.beginBatch();
+        try {
+            scene.load(assetManager);
+        } finally {
+            physics.endBatch();
+        }
+
+        return scene;
+    }
+
+    private class SceneBuilder implements LevelVisitor {
+        // a prefab with its assets looked up once, every instance shares them
+        private record Prefab(@Nullable AssetIdentifier model, @Nullable AssetIdentifier collision, @Nullable String material,
+                              float mass, boolean dynamic) {}
+
+        private final AssetIdentifier path;
+        private final Scene scene = new Scene();
+        private final Map<String, Material> materials = new HashMap<>();
+        // levels reference the same few assets over and over
+        private final Map<String, AssetIdentifier> identifiers = new HashMap<>();
+        // entries that name a material the level hasn't defined yet, they wait for the rest of it
+        private final Map<String, EntityDefinition> deferred = new LinkedHashMap<>();
+        private final Map<String, Prefab> prefabs = new HashMap<>();
+        // same for batches of a prefab (or material) that comes later in the file
+        private final Map<String, InstanceBatch> deferredBatches = new LinkedHashMap<>();
+        private Entity god = null;
+        private boolean hasLights = false;
+        // ids derived from the level, the entry's section and its index within that section, so snapshots of this level find
+        // their entities again. Both formats keep the order inside a section but not how sections interleave, so a level and
+        // its conversion only agree on these
+        private int statics = 0, dynamics = 0, batches = 0, lights = 0;
+
+        private SceneBuilder(AssetIdentifier path) {
+            this.path = path;
+        }
+
+        @Override
+        public void pbr(Vector3fc skylightPosition, Vector3fc skylightColor) {
+            god = new Entity(UUID.nameUUIDFromBytes("god".getBytes(StandardCharsets.UTF_8)));
+            god.addComponent(new SkyLightComponent(new DirectionalLight(skylightPosition.negate(new Vector3f()).normalize(), new Vector3f(skylightColor))));
+            god.addComponent(new PBRManagerComponent(scene, god));
+            scene.addRootEntity(god);
+        }
+
+        @Override
+        public void material(String name, Material material) {
+            materials.put(name, material);
+        }
+
+        @Override
+        public void entity(EntityDefinition definition) {
+            String key = definition.dynamic() ? "dynamic/" + dynamics++ : "static/" + statics++;
+            if (definition.collision() != null && definition.material() != null && !materials.containsKey(definition.material())) {
+                // the reader is allowed to reuse these
+                deferred.put(key, new EntityDefinition(definition.model(),
+                        definition.position() != null ? new Vector3f(definition.position()) : null,
+                        definition.rotation() != null ? new Quaternionf(definition.rotation()) : null,
+                        definition.collision(), definition.material(), definition.mass(), definition.dynamic()));
+                return;
             }
+            scene.addRootEntity(instantiate(key, definition));
         }
-        if (dynamics != null) {
-            for (Json5Element e : dynamics) {
-                Entity ent = new Entity();
-
-                Json5Object stat = e.getAsJson5Object();
-                if (stat.has("model")) ent.addComponent(new ModelRenderer(new AssetIdentifier(stat.get("model").getAsString())));
-                if (stat.has("position")) ent.transform().position(vector3fFromJson(stat.get("position")));
-                if (stat.has("rotation")) ent.transform().rotation(quaternionfFromJson(stat.get("rotation")));
-                if (stat.has("collision")) {
-                    Material material;
-                    if (stat.has("material"))
-                        material = physicsMaterials.get(stat.get("material").getAsString());
-                    else
-                        material = new Material(0.5f, 1.0f);
-                    ent.addComponent(new RigidbodyComponent(
-                            physics,
-                            new AssetIdentifier(stat.get("collision").getAsString()),
-                            true,
-                            stat.has("mass") ? stat.get("mass").getAsFloat() : 1f,
-                            material
-                    ));
-                }
-                scene.addRootEntity(ent);
+
+        @Override
+        public void prefab(PrefabDefinition prefab) {
+            prefabs.put(prefab.name(), new Prefab(
+                    prefab.model() != null ? identifier(prefab.model()) : null,
+                    prefab.collision() != null ? identifier(prefab.collision()) : null,
+                    prefab.material(), prefab.mass(), prefab.dynamic()));
+        }
+
+        @Override
+        public void instances(InstanceBatch batch) {
+            String key = "instances/" + batches++;
+            Prefab prefab = prefabs.get(batch.prefab());
+            String material = batch.material() != null ? batch.material() : prefab != null ? prefab.material() : null;
+            if (prefab == null || (material != null && !materials.containsKey(material))) {
+                deferredBatches.put(key, new InstanceBatch(batch.prefab(), batch.count(),
+                        Arrays.copyOf(batch.positions(), 3 * batch.count()), Arrays.copyOf(batch.rotations(), 4 * batch.count()),
+                        batch.model(), batch.collision(), batch.material(), batch.mass()));
+                return;
             }
+            spawn(key, batch, prefab);
         }
-        if (lights != null) {
-            for (Json5Element e : lights) {
-                Json5Object jsonLight = e.getAsJson5Object();
-                Light light = new Light(
-                        jsonLight.has("position") ? vector3fFromJson(jsonLight.get("position")) : new Vector3f(0,0,0),
-                        jsonLight.has("color") ? vector3fFromJson(jsonLight.get("color")) : new Vector3f(1,1,1),
-                        jsonLight.has("constant") ? jsonLight.get("constant").getAsFloat() : 1.0f,
-                        jsonLight.has("linear") ? jsonLight.get("linear").getAsFloat() : 0.7f,
-                        jsonLight.has("quadratic") ? jsonLight.get("quadratic").getAsFloat() : 1.8f
-                );
-                Entity ent = new Entity();
-                ent.addComponent(new LightComponent(light));
+
+        @Override
+        public void light(LightDefinition light) {
+            Entity ent = new Entity(id("light/" + lights++));
+            ent.addComponent(new LightComponent(new Light(new Vector3f(light.position()), new Vector3f(light.color()), light.constant(), light.linear(), light.quadratic())));
+            scene.addRootEntity(ent);
+            hasLights = true;
+        }
+
+        @Override
+        public void end() {
+            for (Map.Entry<String, EntityDefinition> entry : deferred.entrySet()) {
+                EntityDefinition definition = entry.getValue();
+                if (!materials.containsKey(definition.material())) throw new IllegalStateException(path + " uses undefined material \"" + definition.material() + "\"");
+                scene.addRootEntity(instantiate(entry.getKey(), definition));
+            }
+            for (Map.Entry<String, InstanceBatch> entry : deferredBatches.entrySet()) {
+                InstanceBatch batch = entry.getValue();
+                Prefab prefab = prefabs.get(batch.prefab());
+                if (prefab == null) throw new IllegalStateException(path + " uses undefined prefab \"" + batch.prefab() + "\"");
+                String material = batch.material() != null ? batch.material() : prefab.material();
+                if (material != null && !materials.containsKey(material)) throw new IllegalStateException(path + " uses undefined material \"" + material + "\"");
+                spawn(entry.getKey(), batch, prefab);
+            }
+
+            if (god == null) throw new IllegalStateException(path + " has no pbr block");
+            if (hasLights) god.getComponent(PBRManagerComponent.class).recollectLights();
+        }
+
+        private Entity instantiate(String key, EntityDefinition definition) {
+            Entity ent = new Entity(id(key));
+            if (definition.model() != null) ent.addComponent(new ModelRenderer(identifier(definition.model())));
+            if (definition.position() != null) ent.transform().position(definition.position());
+            if (definition.rotation() != null) ent.transform().rotation(definition.rotation());
+            if (definition.collision() != null) {
+                Material material = definition.material() != null ? materials.get(definition.material()) : DEFAULT_MATERIAL;
+                AssetIdentifier collision = identifier(definition.collision());
+                if (definition.dynamic()) ent.addComponent(new RigidbodyComponent(physics, collision, true, definition.mass(), material));
+                else ent.addComponent(new RigidbodyComponent(physics, collision, material));
+            }
+            return ent;
+        }
+
+        // the whole batch is created back to back, so its entities end up in consecutive archetype rows and transform slots
+        private void spawn(String key, InstanceBatch batch, Prefab prefab) {
+            AssetIdentifier model = batch.model() != null ? identifier(batch.model()) : prefab.model();
+            AssetIdentifier collision = batch.collision() != null ? identifier(batch.collision()) : prefab.collision();
+            String materialName = batch.material() != null ? batch.material() : prefab.material();
+            Material material = materialName != null ? materials.get(materialName) : DEFAULT_MATERIAL;
+            float mass = Float.isNaN(batch.mass()) ? prefab.mass() : batch.mass();
+
+            float[] positions = batch.positions();
+            float[] rotations = batch.rotations();
+            for (int i = 0; i < batch.count(); i++) {
+                Entity ent = new Entity(id(key + "/" + i));
+                if (model != null) ent.addComponent(new ModelRenderer(model));
+                ent.transform().position(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+                ent.transform().rotation(rotations[4 * i], rotations[4 * i + 1], rotations[4 * i + 2], rotations[4 * i + 3]);
+                if (collision != null) {
+                    if (prefab.dynamic()) ent.addComponent(new RigidbodyComponent(physics, collision, true, mass, material));
+                    else ent.addComponent(new RigidbodyComponent(physics, collision, material));
+                }
                 scene.addRootEntity(ent);
             }
-            god.getComponent(PBRManagerComponent.class).recollectLights();
         }
 
-        scene.load(assetManager);
+        private UUID id(String key) {
+            return UUID.nameUUIDFromBytes((path.path() + "#" + key).getBytes(StandardCharsets.UTF_8));
+        }
 
-        return scene;
+        private AssetIdentifier identifier(String path) {
+            return identifiers.computeIfAbsent(path, AssetIdentifier::new);
+        }
     }
 
+    // components grab their assets (and make GL objects) the moment the scene loads
     @Override
-    public void dispose(Scene asset) {
-//        asset.destroy();
-        // todo: unleak scene lmao
+    public boolean requiresMainThread() {
+        return true;
     }
 
-    private Vector3f vector3fFromJson(Json5Element element) {
-        Json5Array array = element.getAsJson5Array();
-        return new Vector3f(array.get(0).getAsFloat(), array.get(1).getAsFloat(), array.get(2).getAsFloat());
-    }
-
-    private Quaternionf quaternionfFromJson(Json5Element element) {
-        Json5Array array = element.getAsJson5Array();
-        return new Quaternionf(array.get(0).getAsFloat(), array.get(1).getAsFloat(), array.get(2).getAsFloat(), array.get(3).getAsFloat());
+    @Override
+    public void dispose(Scene asset) {
+        asset.unload(assetManager);
     }
 }
@@ -89,11 +89,11 @@ public class SoundLoader implements Loader<Sound> {
                 continue;
             }
             if (chunkId == DATA) {
+                if (chunkSize > bytes.remaining())
+                    throw new RuntimeException("WAV file is not valid (data chunk is truncated)");
                 audioData = MemoryUtil.memAlloc(chunkSize);
-                byte[] temp = new byte[chunkSize];
-                bytes.get(temp);
-                audioData.put(temp);
-                audioData.flip();
+                MemoryUtil.memCopy(MemoryUtil.memAddress(bytes), MemoryUtil.memAddress(audioData), chunkSize);
+                bytes.position(bytes.position() + chunkSize);
                 continue;
             }
             LOGGER.warn("Sound loader encountered weird WAV chunk: 0x{}, {}", Integer.toHexString(chunkId), chunkSize);
@@ -139,21 +139,29 @@ public class SoundLoader implements Loader<Sound> {
         if (i > 0 && i < filePath.length() - 1) {
             String extension = filePath.substring(i + 1).toLowerCase();
 
-            if (extension.equals("wav"))
-                return loadWav(ResourceHelper.loadFileFromAssetsOrResources(filePath));
-            else if (extension.equals("ogg"))
-                return loadOgg(ResourceHelper.loadFileFromAssetsOrResources(filePath));
-            else {
+            if (!extension.equals("wav") && !extension.equals("ogg")) {
                 LOGGER.warn("Tried to load unknown audio type: {}", filePath);
                 return null; // idk what this is
             }
 
+            ByteBuffer bytes = ResourceHelper.loadFileFromAssetsOrResources(filePath);
+            try {
+                return extension.equals("wav") ? loadWav(bytes) : loadOgg(bytes);
+            } finally {
+                ResourceHelper.free(bytes);
+            }
+
         } else {
             LOGGER.warn("Tried to load invalid audio file: {}", filePath);
             return null;
         }
     }
 
+    @Override
+    public long cpuBytes(Sound asset) {
+        return asset.byteSize();
+    }
+
     @Override
     public void dispose(Sound asset) {
         asset.destroy();
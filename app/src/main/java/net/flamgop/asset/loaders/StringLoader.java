@@ -10,6 +10,11 @@ public class StringLoader implements Loader<String> {
         return ResourceHelper.loadFileContentsFromAssetsOrResources(path.path());
     }
 
+    @Override
+    public long cpuBytes(String asset) {
+        return asset.length();
+    }
+
     @Override
     public void dispose(String asset) {
         // do nothing
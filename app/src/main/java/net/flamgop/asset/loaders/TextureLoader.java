@@ -1,7 +1,7 @@
 package net.flamgop.asset.loaders;
 
 import net.flamgop.asset.AssetIdentifier;
-import net.flamgop.asset.Loader;
+import net.flamgop.asset.StagedLoader;
 import net.flamgop.gpu.DataType;
 import net.flamgop.gpu.texture.GPUTexture;
 import net.flamgop.gpu.texture.TextureFormat;
@@ -15,40 +15,45 @@ import org.lwjgl.system.MemoryUtil;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
-public class TextureLoader implements Loader<GPUTexture> {
+public class TextureLoader implements StagedLoader<GPUTexture, TextureLoader.DecodedImage> {
+
+    // tightly packed RGBA8, owned by whoever holds it until it's uploaded
+    public record DecodedImage(ByteBuffer pixels, int width, int height, boolean stbAllocated) {
+        public void free() {
+            if (stbAllocated) STBImage.stbi_image_free(pixels);
+            else MemoryUtil.memFree(pixels);
+        }
+    }
+
     @Override
-    public GPUTexture load(AssetIdentifier path) {
-        return loadFromBytes(ResourceHelper.loadFileFromAssetsOrResources(path.path()));
+    public DecodedImage decode(AssetIdentifier path) {
+        ByteBuffer data = ResourceHelper.loadFileFromAssetsOrResources(path.path());
+        try {
+            return decodeImage(data);
+        } finally {
+            ResourceHelper.free(data);
+        }
     }
 
-    private static GPUTexture loadFromBytes(ByteBuffer data) {
+    @Override
+    public GPUTexture upload(DecodedImage decoded) {
+        return uploadImage(decoded);
+    }
+
+    // safe to call from any thread
+    public static DecodedImage decodeImage(ByteBuffer data) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            GPUTexture texture = new GPUTexture(GPUTexture.Target.TEXTURE_2D);
             IntBuffer x = stack.mallocInt(1);
             IntBuffer y = stack.mallocInt(1);
             IntBuffer channelsInFile = stack.mallocInt(1);
             ByteBuffer out = STBImage.stbi_load_from_memory(data, x, y, channelsInFile, 4);
-            if (out == null) throw new IllegalStateException("Bad texture data passed to loadFromBytes");
-            int w = x.get(0), h = y.get(0);
-            texture.storage(1, TextureFormat.RGBA8, w, h);
-            texture.subimage(0, 0, 0, w, h, TextureFormat.RGBA, DataType.UNSIGNED_BYTE, out);
-            STBImage.stbi_image_free(out);
-            texture.minFilter(GPUTexture.MinFilter.NEAREST);
-            texture.magFilter(GPUTexture.MagFilter.NEAREST);
-            return texture;
+            if (out == null) throw new IllegalStateException("Bad texture data passed to decodeImage: " + STBImage.stbi_failure_reason());
+            return new DecodedImage(out, x.get(0), y.get(0), true);
         }
     }
 
-    public static GPUTexture loadFromRawBytes(ByteBuffer data, TextureFormat color, TextureFormat format, DataType type, int width, int height) {
-        GPUTexture texture = new GPUTexture(GPUTexture.Target.TEXTURE_2D);
-        texture.storage(1, color, width, height);
-        texture.subimage(0, 0, 0, width, height, format, type, data);
-        texture.minFilter(GPUTexture.MinFilter.NEAREST);
-        texture.magFilter(GPUTexture.MagFilter.NEAREST);
-        return texture;
-    }
-
-    public static GPUTexture loadFromAssimpTexture(AITexture texture) {
+    // copies the texels out, so the result outlives the AIScene
+    public static DecodedImage decodeAssimpTexture(AITexture texture) {
         if (texture.mHeight() != 0) {
             AITexel.Buffer buffer = texture.pcData();
             ByteBuffer data = MemoryUtil.memAlloc(texture.mWidth() * texture.mHeight() * 4);
@@ -59,14 +64,37 @@ public class TextureLoader implements Loader<GPUTexture> {
                 data.put(texel.a());
             }
             data.flip();
-            GPUTexture tex = loadFromRawBytes(data, TextureFormat.RGBA8, TextureFormat.RGBA, DataType.UNSIGNED_BYTE, texture.mWidth(), texture.mHeight());
-            MemoryUtil.memFree(data);
-            return tex;
+            return new DecodedImage(data, texture.mWidth(), texture.mHeight(), false);
         } else {
-            return loadFromBytes(texture.pcDataCompressed());
+            return decodeImage(texture.pcDataCompressed());
         }
     }
 
+    // frees the decoded pixels
+    public static GPUTexture uploadImage(DecodedImage image) {
+        GPUTexture texture = loadFromRawBytes(image.pixels(), TextureFormat.RGBA8, TextureFormat.RGBA, DataType.UNSIGNED_BYTE, image.width(), image.height());
+        image.free();
+        return texture;
+    }
+
+    public static GPUTexture loadFromRawBytes(ByteBuffer data, TextureFormat color, TextureFormat format, DataType type, int width, int height) {
+        GPUTexture texture = new GPUTexture(GPUTexture.Target.TEXTURE_2D);
+        texture.storage(1, color, width, height);
+        texture.subimage(0, 0, 0, width, height, format, type, data);
+        texture.minFilter(GPUTexture.MinFilter.NEAREST);
+        texture.magFilter(GPUTexture.MagFilter.NEAREST);
+        return texture;
+    }
+
+    public static GPUTexture loadFromAssimpTexture(AITexture texture) {
+        return uploadImage(decodeAssimpTexture(texture));
+    }
+
+    @Override
+    public long gpuBytes(GPUTexture asset) {
+        return asset.byteSize();
+    }
+
     @Override
     public void dispose(GPUTexture asset) {
         asset.destroy();
@@ -0,0 +1,53 @@
+package net.flamgop.asset.vfs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of a packed asset archive (.pak), all little endian:
+ * <pre>
+ * header    int magic, int version, int entryCount, int stringTableSize
+ * toc       entryCount entries of ENTRY_SIZE bytes, sorted by (hash, path)
+ *               long hash, int pathOffset, int pathLength, byte compression, 3 bytes padding, long dataOffset, int storedSize, int size
+ * strings   every path as UTF-8, referenced from the toc
+ * data      entry payloads, dataOffset is from the start of the file
+ * </pre>
+ */
+public final class ArchiveFormat {
+    public static final int MAGIC = 0x4B415046; // "FPAK"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 4 * Integer.BYTES;
+    public static final int ENTRY_SIZE = 36;
+
+    public static final int HASH_OFFSET = 0;
+    public static final int PATH_OFFSET_OFFSET = 8;
+    public static final int PATH_LENGTH_OFFSET = 12;
+    public static final int COMPRESSION_OFFSET = 16;
+    public static final int DATA_OFFSET_OFFSET = 20;
+    public static final int STORED_SIZE_OFFSET = 28;
+    public static final int SIZE_OFFSET = 32;
+
+    public enum Compression {
+        RAW,
+        DEFLATE,
+        LZ4,
+
+        ;
+    }
+
+    private ArchiveFormat() {}
+
+    // FNV-1a, 64 bit
+    public static long hash(byte[] path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static long hash(String path) {
+        return hash(path.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,155 @@
+package net.flamgop.asset.vfs;
+
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.lz4.LZ4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// a packed archive, see ArchiveFormat. the whole file stays mapped, so uncompressed entries are handed out as slices of it.
+public class ArchiveMount implements Mount {
+    private final Path file;
+    private final ByteBuffer archive;
+    private final int entryCount;
+    private final int stringTable;
+
+    public ArchiveMount(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (archive.capacity() < ArchiveFormat.HEADER_SIZE || archive.getInt(0) != ArchiveFormat.MAGIC) throw new IOException(file + " is not an asset archive");
+        if (archive.getInt(4) != ArchiveFormat.VERSION) throw new IOException(file + " has unsupported archive version " + archive.getInt(4));
+        this.entryCount = archive.getInt(8);
+        int stringTableSize = archive.getInt(12);
+        long stringTable = ArchiveFormat.HEADER_SIZE + (long) entryCount * ArchiveFormat.ENTRY_SIZE;
+        if (entryCount < 0 || stringTableSize < 0 || stringTable + stringTableSize > archive.capacity()) {
+            throw new IOException(file + " is truncated or corrupt: " + entryCount + " entries and " + stringTableSize + " bytes of paths don't fit in " + archive.capacity() + " bytes");
+        }
+        this.stringTable = (int) stringTable;
+        for (int i = 0; i < entryCount; i++) validate(i, stringTableSize);
+    }
+
+    // everything read() and find() take from a toc entry has to point inside the file, checked once up front
+    private void validate(int index, int stringTableSize) throws IOException {
+        int entry = entry(index);
+        int pathOffset = archive.getInt(entry + ArchiveFormat.PATH_OFFSET_OFFSET);
+        int pathLength = archive.getInt(entry + ArchiveFormat.PATH_LENGTH_OFFSET);
+        if (pathOffset < 0 || pathLength < 0 || (long) pathOffset + pathLength > stringTableSize) {
+            throw new IOException(file + " entry " + index + " has its path outside the string table");
+        }
+        String name = "entry " + index + " (" + StandardCharsets.UTF_8.decode(archive.slice(stringTable + pathOffset, pathLength)) + ")";
+
+        int compression = Byte.toUnsignedInt(archive.get(entry + ArchiveFormat.COMPRESSION_OFFSET));
+        if (compression >= ArchiveFormat.Compression.values().length) throw new IOException(file + " " + name + " has unknown compression " + compression);
+        long dataOffset = archive.getLong(entry + ArchiveFormat.DATA_OFFSET_OFFSET);
+        int storedSize = archive.getInt(entry + ArchiveFormat.STORED_SIZE_OFFSET);
+        int size = archive.getInt(entry + ArchiveFormat.SIZE_OFFSET);
+        if (dataOffset < stringTable + stringTableSize || storedSize < 0 || size < 0 || dataOffset + storedSize > archive.capacity()) {
+            throw new IOException(file + " " + name + " has its data (" + storedSize + " bytes at " + dataOffset + ") outside the file");
+        }
+        if (compression == ArchiveFormat.Compression.RAW.ordinal() && storedSize != size) {
+            throw new IOException(file + " " + name + " is stored raw but its sizes differ");
+        }
+    }
+
+    private int entry(int index) {
+        return ArchiveFormat.HEADER_SIZE + index * ArchiveFormat.ENTRY_SIZE;
+    }
+
+    private boolean pathEquals(int entry, byte[] path) {
+        if (archive.getInt(entry + ArchiveFormat.PATH_LENGTH_OFFSET) != path.length) return false;
+        int offset = stringTable + archive.getInt(entry + ArchiveFormat.PATH_OFFSET_OFFSET);
+        for (int i = 0; i < path.length; i++) {
+            if (archive.get(offset + i) != path[i]) return false;
+        }
+        return true;
+    }
+
+    // offset of the entry's toc record, or -1
+    private int find(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        long hash = ArchiveFormat.hash(bytes);
+
+        int low = 0, high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = Long.compareUnsigned(archive.getLong(entry(mid) + ArchiveFormat.HASH_OFFSET), hash);
+            if (compare < 0) low = mid + 1;
+            else if (compare > 0) high = mid - 1;
+            else {
+                // collisions sit next to each other, walk back to the first one and check them all
+                int first = mid;
+                while (first > 0 && archive.getLong(entry(first - 1) + ArchiveFormat.HASH_OFFSET) == hash) first--;
+                for (int i = first; i < entryCount && archive.getLong(entry(i) + ArchiveFormat.HASH_OFFSET) == hash; i++) {
+                    if (pathEquals(entry(i), bytes)) return entry(i);
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return find(path) >= 0;
+    }
+
+    @Override
+    public @Nullable ByteBuffer read(String path) {
+        int entry = find(path);
+        if (entry < 0) return null;
+
+        // validated when mounting, but a bad ordinal here would otherwise surface as an index exception
+        int ordinal = Byte.toUnsignedInt(archive.get(entry + ArchiveFormat.COMPRESSION_OFFSET));
+        if (ordinal >= ArchiveFormat.Compression.values().length) throw new RuntimeException("Unknown compression " + ordinal + " of " + path + " in " + file);
+        ArchiveFormat.Compression compression = ArchiveFormat.Compression.values()[ordinal];
+        int dataOffset = Math.toIntExact(archive.getLong(entry + ArchiveFormat.DATA_OFFSET_OFFSET));
+        int storedSize = archive.getInt(entry + ArchiveFormat.STORED_SIZE_OFFSET);
+        int size = archive.getInt(entry + ArchiveFormat.SIZE_OFFSET);
+        ByteBuffer stored = archive.slice(dataOffset, storedSize);
+
+        return switch (compression) {
+            case RAW -> VirtualFileSystem.mapped(stored);
+            case LZ4 -> {
+                ByteBuffer out = MemoryUtil.memAlloc(size);
+                int decompressed = LZ4.LZ4_decompress_safe(stored, out);
+                if (decompressed != size) {
+                    MemoryUtil.memFree(out);
+                    throw new RuntimeException("Corrupt LZ4 entry " + path + " in " + file);
+                }
+                yield out;
+            }
+            case DEFLATE -> {
+                ByteBuffer out = MemoryUtil.memAlloc(size);
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(stored);
+                    while (!inflater.finished() && out.hasRemaining()) {
+                        if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    }
+                    if (out.hasRemaining()) throw new DataFormatException("entry ended early");
+                } catch (DataFormatException e) {
+                    MemoryUtil.memFree(out);
+                    throw new RuntimeException("Corrupt deflate entry " + path + " in " + file, e);
+                } finally {
+                    inflater.end();
+                }
+                yield out.flip();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
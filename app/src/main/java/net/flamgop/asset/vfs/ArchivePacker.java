@@ -0,0 +1,161 @@
+package net.flamgop.asset.vfs;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.lz4.LZ4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+// packs directories into an archive that ArchiveMount can read. later directories win when paths collide.
+// usage: ArchivePacker [-deflate] <output.pak> <directory>...
+public class ArchivePacker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchivePacker.class);
+
+    // already compressed, not worth spending time on
+    private static final Set<String> STORE_RAW = Set.of("png", "jpg", "jpeg", "ogg", "pak");
+    // keep an entry raw unless compression saves at least this much, raw entries are zero copy
+    private static final float MIN_RATIO = 0.9f;
+
+    private record Entry(String path, byte[] pathBytes, long hash, ArchiveFormat.Compression compression, byte[] data, int size) {}
+
+    public static void main(String[] args) throws IOException {
+        ArchiveFormat.Compression compression = ArchiveFormat.Compression.LZ4;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("-deflate")) compression = ArchiveFormat.Compression.DEFLATE;
+            else positional.add(arg);
+        }
+        if (positional.size() < 2) {
+            System.err.println("usage: ArchivePacker [-deflate] <output.pak> <directory>...");
+            System.exit(1);
+        }
+
+        Map<String, Path> files = new TreeMap<>();
+        for (String directory : positional.subList(1, positional.size())) {
+            Path root = Path.of(directory);
+            if (!Files.isDirectory(root)) {
+                LOGGER.warn("Skipping {}, not a directory", root);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile).forEach(file -> files.put(root.relativize(file).toString().replace('\\', '/'), file));
+            }
+        }
+
+        pack(Path.of(positional.getFirst()), files, compression);
+    }
+
+    public static void pack(Path output, Map<String, Path> files, ArchiveFormat.Compression compression) throws IOException {
+        List<Entry> entries = new ArrayList<>(files.size());
+        long rawTotal = 0, storedTotal = 0;
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            Entry entry = compress(file.getKey(), Files.readAllBytes(file.getValue()), compression);
+            rawTotal += entry.size();
+            storedTotal += entry.data().length;
+            entries.add(entry);
+        }
+        // ArchiveMount binary searches on this order
+        entries.sort((a, b) -> {
+            int compare = Long.compareUnsigned(a.hash(), b.hash());
+            return compare != 0 ? compare : Arrays.compareUnsigned(a.pathBytes(), b.pathBytes());
+        });
+
+        int stringTableSize = 0;
+        for (Entry entry : entries) stringTableSize += entry.pathBytes().length;
+
+        int tocSize = entries.size() * ArchiveFormat.ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate(ArchiveFormat.HEADER_SIZE + tocSize + stringTableSize).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(ArchiveFormat.MAGIC).putInt(ArchiveFormat.VERSION).putInt(entries.size()).putInt(stringTableSize);
+
+        long dataOffset = index.capacity();
+        int pathOffset = 0;
+        for (Entry entry : entries) {
+            index.putLong(entry.hash());
+            index.putInt(pathOffset);
+            index.putInt(entry.pathBytes().length);
+            index.put((byte) entry.compression().ordinal());
+            index.put((byte) 0).put((byte) 0).put((byte) 0);
+            index.putLong(dataOffset);
+            index.putInt(entry.data().length);
+            index.putInt(entry.size());
+            pathOffset += entry.pathBytes().length;
+            dataOffset += entry.data().length;
+        }
+        for (Entry entry : entries) index.put(entry.pathBytes());
+        index.flip();
+
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (index.hasRemaining()) channel.write(index);
+            for (Entry entry : entries) {
+                ByteBuffer data = ByteBuffer.wrap(entry.data());
+                while (data.hasRemaining()) channel.write(data);
+            }
+        }
+
+        LOGGER.info("Packed {} files into {} ({} bytes -> {} bytes)", entries.size(), output, rawTotal, storedTotal);
+    }
+
+    private static Entry compress(String path, byte[] data, ArchiveFormat.Compression compression) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        long hash = ArchiveFormat.hash(pathBytes);
+
+        int extension = path.lastIndexOf('.');
+        boolean storeRaw = data.length == 0 || (extension >= 0 && STORE_RAW.contains(path.substring(extension + 1).toLowerCase()));
+        if (!storeRaw) {
+            byte[] compressed = switch (compression) {
+                case LZ4 -> lz4(data);
+                case DEFLATE -> deflate(data);
+                case RAW -> data;
+            };
+            if (compressed.length < data.length * MIN_RATIO)
+                return new Entry(path, pathBytes, hash, compression, compressed, data.length);
+        }
+        return new Entry(path, pathBytes, hash, ArchiveFormat.Compression.RAW, data, data.length);
+    }
+
+    private static byte[] lz4(byte[] data) {
+        ByteBuffer source = MemoryUtil.memAlloc(data.length);
+        ByteBuffer destination = MemoryUtil.memAlloc(LZ4.LZ4_compressBound(data.length));
+        try {
+            source.put(0, data);
+            int written = LZ4.LZ4_compress_default(source, destination);
+            if (written <= 0) throw new IllegalStateException("LZ4 compression failed");
+            byte[] out = new byte[written];
+            destination.get(0, out);
+            return out;
+        } finally {
+            MemoryUtil.memFree(source);
+            MemoryUtil.memFree(destination);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, data.length)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.flamgop.asset.vfs;
+
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// resources bundled with the game. when running from an exploded build these are just files and get mapped like any other.
+public class ClasspathMount implements Mount {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ClassLoader classLoader;
+    private final Map<String, Optional<URL>> urls = new ConcurrentHashMap<>();
+
+    public ClasspathMount(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    private Optional<URL> url(String path) {
+        return urls.computeIfAbsent(path, p -> Optional.ofNullable(classLoader.getResource(p)));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return url(path).isPresent();
+    }
+
+    @Override
+    public @Nullable ByteBuffer read(String path) {
+        URL url = url(path).orElse(null);
+        if (url == null) return null;
+        try {
+            if (url.getProtocol().equals("file")) return VirtualFileSystem.readFile(Path.of(url.toURI()));
+
+            // inside a jar, stream it straight into native memory rather than going through a heap array first
+            try (InputStream is = url.openStream()) {
+                ByteBuffer buffer = MemoryUtil.memAlloc(CHUNK_SIZE);
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = is.read(chunk)) != -1) {
+                    if (buffer.remaining() < read) buffer = MemoryUtil.memRealloc(buffer, buffer.capacity() * 2);
+                    buffer.put(chunk, 0, read);
+                }
+                return buffer.flip();
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        urls.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "classpath";
+    }
+}
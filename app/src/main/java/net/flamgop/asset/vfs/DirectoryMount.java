@@ -0,0 +1,45 @@
+package net.flamgop.asset.vfs;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// loose files on disk, like ./assets
+public class DirectoryMount implements Mount {
+    private final Path root;
+    private final Map<String, Boolean> existence = new ConcurrentHashMap<>();
+
+    public DirectoryMount(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return existence.computeIfAbsent(path, p -> Files.isRegularFile(root.resolve(p)));
+    }
+
+    @Override
+    public @Nullable ByteBuffer read(String path) {
+        if (!exists(path)) return null;
+        try {
+            return VirtualFileSystem.readFile(root.resolve(path));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        existence.clear();
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package net.flamgop.asset.vfs;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+// somewhere files can come from. paths are always relative and use forward slashes.
+public interface Mount {
+    boolean exists(String path);
+
+    /**
+     * @return the file's contents, or null if this mount doesn't have it. Buffers must be given back through {@link VirtualFileSystem#free(ByteBuffer)}, they may be mapped.
+     */
+    @Nullable ByteBuffer read(String path);
+
+    // forget anything cached about what does or doesn't exist
+    default void invalidate() {}
+}
@@ -0,0 +1,92 @@
+package net.flamgop.asset.vfs;
+
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A stack of {@link Mount}s, searched in the order they were mounted.
+ * <br/>
+ * Anything read out of here is either mapped straight from disk (read-only) or allocated with {@link MemoryUtil#memAlloc(int)},
+ * so it always has to be handed back through {@link #free(ByteBuffer)} instead of freeing it directly.
+ */
+public class VirtualFileSystem {
+    // smaller than this and the cost of setting up a mapping isn't worth it
+    public static final long MAP_THRESHOLD = 64 * 1024;
+
+    // buffers handed out that are mapped rather than allocated, by identity: an address could be reused by a later memAlloc, and
+    // holding them here keeps the mapping alive until free() even if the caller only passed the address on to native code
+    private static final Set<ByteBuffer> MAPPED = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private final List<Mount> mounts = new CopyOnWriteArrayList<>();
+
+    public void mount(Mount mount) {
+        mounts.add(mount);
+    }
+
+    public void mountFirst(Mount mount) {
+        mounts.addFirst(mount);
+    }
+
+    public void unmount(Mount mount) {
+        mounts.remove(mount);
+    }
+
+    public List<Mount> mounts() {
+        return List.copyOf(mounts);
+    }
+
+    public boolean exists(String path) {
+        for (Mount mount : mounts) {
+            if (mount.exists(path)) return true;
+        }
+        return false;
+    }
+
+    public @Nullable ByteBuffer read(String path) {
+        for (Mount mount : mounts) {
+            if (!mount.exists(path)) continue;
+            ByteBuffer buffer = mount.read(path);
+            if (buffer != null) return buffer;
+        }
+        return null;
+    }
+
+    public void invalidate() {
+        for (Mount mount : mounts) mount.invalidate();
+    }
+
+    // mapped buffers are dropped and left for the GC to unmap, everything else is freed
+    public static void free(ByteBuffer buffer) {
+        if (!MAPPED.remove(buffer)) MemoryUtil.memFree(buffer);
+    }
+
+    // for mounts to hand out a mapping that free() knows not to touch, every call has to pass a buffer object of its own
+    public static ByteBuffer mapped(ByteBuffer buffer) {
+        MAPPED.add(buffer);
+        return buffer;
+    }
+
+    public static ByteBuffer readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) return mapped(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+
+            ByteBuffer buffer = MemoryUtil.memAlloc((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            return buffer.flip();
+        }
+    }
+}
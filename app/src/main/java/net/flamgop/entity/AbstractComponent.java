@@ -1,6 +1,11 @@
 package net.flamgop.entity;
 
+import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.AssetManager;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
 
 public abstract class AbstractComponent {
     private Transform transform;
@@ -13,9 +18,24 @@ public abstract class AbstractComponent {
         this.transform = transform;
     }
 
+    // every asset load() is going to ask for, so the scene can fetch them all in parallel before any component loads
+    public void collectAssets(BiConsumer<AssetIdentifier, Class<?>> assets) {}
+
+    // the component's extent in its entity's local space, the scene keeps the union of these in its spatial index
+    public boolean localBounds(Vector3f min, Vector3f max) {
+        return false;
+    }
+
+    // state that doesn't come from the level (velocities, counters...), at most SceneSnapshot.MAX_COMPONENT_STATE bytes. false writes nothing
+    public boolean writeState(ByteBuffer out) {
+        return false;
+    }
+
+    // gets exactly what writeState wrote, transforms are already restored by the time this is called
+    public void readState(ByteBuffer in) {}
+
     public abstract void load(AssetManager assetManager);
     public abstract void unload(AssetManager assetManager);
     public abstract void update(float delta);
     public abstract void physicsUpdate(float fixedDelta); // sort of a fixed update
-    public abstract void render();
 }
@@ -0,0 +1,165 @@
+package net.flamgop.entity;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every entity in a {@link Scene} with exactly the same set of component types, stored column by column.
+ * <br/>
+ * The signature is the entity's component classes sorted by name (an entity with two components of one type gets two columns).
+ * Each column is a dense array holding that component for every row, so a system that wants one type walks one array instead
+ * of going entity to component list to component. Rows also carry the entity and its {@link TransformStore} slot.
+ * <br/>
+ * Active entities are packed at the front so per-frame work can stop at {@link #activeSize()}.
+ * Removing a row or toggling an entity moves other rows around, row indices are only stable until the next structural change.
+ */
+public class Archetype {
+
+    static final Comparator<Class<?>> ORDER = Comparator.comparing(Class::getName);
+
+    private final List<Class<? extends AbstractComponent>> signature;
+    private final AbstractComponent[][] columns;
+    private Entity[] entities;
+    private int[] transforms;
+    private int size;
+    // active entities take rows [0, activeSize), inactive ones the rest
+    private int activeSize;
+
+    // first column whose type is assignable to the key, -1 when there is none. systems look columns up from worker threads
+    private final Map<Class<?>, Integer> lookup = new ConcurrentHashMap<>();
+    private final Map<ClassValue<Boolean>, int[]> overriding = new ConcurrentHashMap<>();
+
+    Archetype(List<Class<? extends AbstractComponent>> signature) {
+        this.signature = List.copyOf(signature);
+        this.columns = new AbstractComponent[signature.size()][16];
+        this.entities = new Entity[16];
+        this.transforms = new int[16];
+    }
+
+    static List<Class<? extends AbstractComponent>> signatureOf(List<AbstractComponent> components) {
+        List<Class<? extends AbstractComponent>> signature = new ArrayList<>(components.size());
+        for (AbstractComponent component : components) signature.add(component.getClass());
+        signature.sort(ORDER);
+        return signature;
+    }
+
+    public List<Class<? extends AbstractComponent>> signature() {
+        return signature;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // iteration over the scene stops here, the rows after belong to inactive entities
+    public int activeSize() {
+        return activeSize;
+    }
+
+    public int column(Class<?> type) {
+        return lookup.computeIfAbsent(type, t -> {
+            for (int i = 0; i < signature.size(); i++) {
+                if (t.isAssignableFrom(signature.get(i))) return i;
+            }
+            return -1;
+        });
+    }
+
+    public boolean has(Class<?> type) {
+        return column(type) >= 0;
+    }
+
+    /**
+     * The raw column, valid for rows {@code 0} to {@link #size()}. Replaced when the archetype grows.
+     */
+    public AbstractComponent[] columnData(int column) {
+        return columns[column];
+    }
+
+    public Entity entity(int row) {
+        return entities[row];
+    }
+
+    public int transform(int row) {
+        return transforms[row];
+    }
+
+    // places the entity in a new row and sets its row
+    void add(Entity entity) {
+        if (size == entities.length) grow();
+        int row = size++;
+        entities[row] = entity;
+        transforms[row] = entity.transform().slot();
+        entity.row(row);
+
+        boolean[] used = new boolean[columns.length];
+        for (AbstractComponent component : entity.components()) {
+            for (int i = 0; i < columns.length; i++) {
+                if (!used[i] && signature.get(i) == component.getClass()) {
+                    used[i] = true;
+                    columns[i][row] = component;
+                    break;
+                }
+            }
+        }
+
+        if (entity.active()) swap(row, activeSize++);
+    }
+
+    void remove(int row) {
+        if (row < activeSize) {
+            swap(row, --activeSize);
+            row = activeSize;
+        }
+        int last = --size;
+        swap(row, last);
+        entities[last] = null;
+        for (AbstractComponent[] column : columns) column[last] = null;
+    }
+
+    // moves the row across the boundary between the active and inactive rows
+    void active(int row, boolean active) {
+        if (active && row >= activeSize) swap(row, activeSize++);
+        else if (!active && row < activeSize) swap(row, --activeSize);
+    }
+
+    private void swap(int a, int b) {
+        if (a == b) return;
+        Entity entity = entities[a];
+        entities[a] = entities[b];
+        entities[b] = entity;
+        int transform = transforms[a];
+        transforms[a] = transforms[b];
+        transforms[b] = transform;
+        for (AbstractComponent[] column : columns) {
+            AbstractComponent component = column[a];
+            column[a] = column[b];
+            column[b] = component;
+        }
+        entities[a].row(a);
+        entities[b].row(b);
+    }
+
+    /**
+     * Columns whose component type overrides the given callback, see {@link ComponentCallbacks}.
+     */
+    int[] overriding(ClassValue<Boolean> callback) {
+        int[] cached = overriding.get(callback);
+        if (cached != null) return cached;
+        int[] matches = new int[columns.length];
+        int count = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (callback.get(signature.get(i))) matches[count++] = i;
+        }
+        cached = Arrays.copyOf(matches, count);
+        overriding.put(callback, cached);
+        return cached;
+    }
+
+    private void grow() {
+        int capacity = entities.length * 2;
+        entities = Arrays.copyOf(entities, capacity);
+        transforms = Arrays.copyOf(transforms, capacity);
+        for (int i = 0; i < columns.length; i++) columns[i] = Arrays.copyOf(columns[i], capacity);
+    }
+}
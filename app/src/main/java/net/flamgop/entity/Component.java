@@ -7,5 +7,4 @@ public class Component extends AbstractComponent {
     @Override public void unload(AssetManager assetManager) {}
     @Override public void update(float delta) {}
     @Override public void physicsUpdate(float fixedDelta) {}
-    @Override public void render() {}
 }
@@ -0,0 +1,29 @@
+package net.flamgop.entity;
+
+import org.joml.Vector3f;
+
+/**
+ * Which callbacks a component type actually implements, so the scene never calls the empty defaults from {@link Component}
+ * or {@link AbstractComponent}.
+ */
+final class ComponentCallbacks {
+    static final ClassValue<Boolean> UPDATE = overrides("update", float.class);
+    static final ClassValue<Boolean> PHYSICS_UPDATE = overrides("physicsUpdate", float.class);
+    static final ClassValue<Boolean> BOUNDS = overrides("localBounds", Vector3f.class, Vector3f.class);
+
+    private ComponentCallbacks() {}
+
+    private static ClassValue<Boolean> overrides(String name, Class<?>... parameters) {
+        return new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                try {
+                    Class<?> declaring = type.getMethod(name, parameters).getDeclaringClass();
+                    return declaring != Component.class && declaring != AbstractComponent.class;
+                } catch (NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        };
+    }
+}
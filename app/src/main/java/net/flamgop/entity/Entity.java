@@ -13,6 +13,14 @@ public class Entity {
 
     private boolean active;
 
+    // where the scene keeps this entity, set once it's added to one
+    private Scene scene;
+    private Archetype archetype;
+    private int row = -1;
+    // leaf in the scene's spatial index and the transform version its box was computed from
+    int proxy = -1;
+    int boundsVersion;
+
     public Entity() {
         this(UUID.randomUUID());
     }
@@ -31,8 +39,14 @@ public class Entity {
         return active;
     }
 
+    /**
+     * Inactive entities keep their components but the scene skips them every frame.
+     * Inside a scene this moves the entity's row, use {@link Scene#commands()} while the scene is updating.
+     */
     public void active(boolean active) {
+        if (this.active == active) return;
         this.active = active;
+        if (scene != null) scene.activeChanged(this);
     }
 
     public UUID id() {
@@ -43,12 +57,53 @@ public class Entity {
         return transform;
     }
 
+    /**
+     * Structural changes move the entity between archetypes right away, use {@link Scene#commands()} while the scene is updating.
+     */
     public void addComponent(AbstractComponent c) {
         c.transform(this.transform);
         components.add(c);
+        if (scene != null) scene.componentAdded(this, c);
+    }
+
+    /**
+     * Structural changes move the entity between archetypes right away, use {@link Scene#commands()} while the scene is updating.
+     */
+    public boolean removeComponent(AbstractComponent c) {
+        if (!components.remove(c)) return false;
+        if (scene != null) scene.componentRemoved(this, c);
+        return true;
+    }
+
+    Scene scene() {
+        return scene;
+    }
+
+    void scene(Scene scene) {
+        this.scene = scene;
+    }
+
+    public Archetype archetype() {
+        return archetype;
+    }
+
+    void archetype(Archetype archetype) {
+        this.archetype = archetype;
+    }
+
+    int row() {
+        return row;
+    }
+
+    void row(int row) {
+        this.row = row;
     }
 
     public <T extends AbstractComponent> T getComponent(Class<T> type) {
+        if (archetype != null) {
+            int column = archetype.column(type);
+            return column < 0 ? null : type.cast(archetype.columnData(column)[row]);
+        }
         for (AbstractComponent c : components) {
             if (type.isInstance(c)) return type.cast(c);
         }
@@ -56,6 +111,7 @@ public class Entity {
     }
 
     public <T extends AbstractComponent> boolean hasComponent(Class<T> type) {
+        if (archetype != null) return archetype.has(type);
         for (AbstractComponent c : components) {
             if (type.isInstance(c)) return true;
         }
@@ -1,51 +1,367 @@
 package net.flamgop.entity;
 
+import net.flamgop.asset.Asset;
+import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.AssetManager;
+import net.flamgop.entity.components.RigidbodyComponent;
+import net.flamgop.util.DynamicAABBTree;
 import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+/**
+ * Entities are grouped into {@link Archetype}s by their component types, per-frame work walks the archetype columns
+ * rather than each entity's component list. Inactive entities and callbacks a component doesn't override are skipped.
+ */
 public class Scene {
-    private final List<Entity> allEntities = new ArrayList<>();
-    private final List<Entity> rootEntities = new ArrayList<>();
+    // insertion ordered sets so destroying an entity doesn't shift a list
+    private final Set<Entity> allEntities = new LinkedHashSet<>();
+    private final Set<Entity> rootEntities = new LinkedHashSet<>();
+    private final Map<UUID, Entity> byId = new HashMap<>();
+    // every entity with a component of the key type (or a subclass of it), kept up to date as components are added
+    private final Map<Class<?>, Set<Entity>> membership = new HashMap<>();
+
+    private final Map<List<Class<? extends AbstractComponent>>, Archetype> archetypeIndex = new HashMap<>();
+    private final List<Archetype> archetypes = new ArrayList<>();
+    // archetypes matching a set of component types, dropped whenever a new archetype shows up
+    private final Map<Set<Class<?>>, List<Archetype>> queries = new HashMap<>();
+
+    private final SystemScheduler updateSystems = new SystemScheduler();
+    private final SystemScheduler fixedSystems = new SystemScheduler();
+
+    // world space boxes around every active entity with a component that reports bounds
+    private final DynamicAABBTree<Entity> spatial = new DynamicAABBTree<>();
+    private final Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f();
+    private final Matrix4f boundsWorld = new Matrix4f();
+
+    private final SceneCommands commands = new SceneCommands();
+    // components added after load() have to be loaded (and removed ones unloaded) when their commands are applied
+    private boolean loaded = false;
+
+    public Scene() {
+        // components can do anything in their callbacks, so these claim everything and keep to the main thread
+        updateSystems.add(new CallbackSystem(ComponentCallbacks.UPDATE, (c, delta) -> c.update(delta)));
+        fixedSystems.add(new CallbackSystem(ComponentCallbacks.PHYSICS_UPDATE, (c, delta) -> c.physicsUpdate(delta)));
+        // bodies move every step whoever built the scene, so this isn't left to the loader. matches no archetype until a rigidbody shows up
+        fixedSystems.add(RigidbodyComponent.SYNC);
+    }
 
     public void addRootEntity(Entity entity) {
         rootEntities.add(entity);
+        add(entity);
+    }
+
+    private void add(Entity entity) {
         allEntities.add(entity);
+        byId.put(entity.id(), entity);
+        entity.scene(this);
+        place(entity);
+        for (AbstractComponent component : entity.components()) index(entity, component.getClass());
+    }
+
+    void componentAdded(Entity entity, AbstractComponent component) {
+        entity.archetype().remove(entity.row());
+        place(entity);
+        index(entity, component.getClass());
+    }
+
+    void componentRemoved(Entity entity, AbstractComponent component) {
+        entity.archetype().remove(entity.row());
+        place(entity);
+        unindex(entity, component.getClass());
+        // whatever's left gets its box recomputed on the next refresh
+        removeProxy(entity);
+    }
+
+    void activeChanged(Entity entity) {
+        entity.archetype().active(entity.row(), entity.active());
+        if (!entity.active()) removeProxy(entity);
+    }
+
+    private void removeProxy(Entity entity) {
+        if (entity.proxy < 0) return;
+        spatial.remove(entity.proxy);
+        entity.proxy = -1;
+    }
+
+    /**
+     * Frustum, sphere, box and ray queries over the world space bounds of every active entity that has any.
+     * Current as of the last {@link #refreshBounds()}.
+     */
+    public DynamicAABBTree<Entity> spatial() {
+        return spatial;
+    }
+
+    /**
+     * Moves the spatial index entries of every entity whose transform changed since the last call.
+     * Call once a frame after the world matrices are brought up to date.
+     */
+    public void refreshBounds() {
+        for (Archetype archetype : archetypes) {
+            int[] bounded = archetype.overriding(ComponentCallbacks.BOUNDS);
+            if (bounded.length == 0) continue;
+            for (int row = 0, size = archetype.activeSize(); row < size; row++) {
+                Entity entity = archetype.entity(row);
+                int version = entity.transform().version();
+                if (entity.proxy >= 0 && entity.boundsVersion == version) continue;
+
+                float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+                boolean any = false;
+                for (int c : bounded) {
+                    if (!archetype.columnData(c)[row].localBounds(boundsMin, boundsMax)) continue;
+                    any = true;
+                    minX = Math.min(minX, boundsMin.x);
+                    minY = Math.min(minY, boundsMin.y);
+                    minZ = Math.min(minZ, boundsMin.z);
+                    maxX = Math.max(maxX, boundsMax.x);
+                    maxY = Math.max(maxY, boundsMax.y);
+                    maxZ = Math.max(maxZ, boundsMax.z);
+                }
+                if (!any) continue;
+
+                // the local box's center moves with the matrix, its half extents spread over the rotated axes
+                Matrix4f m = entity.transform().getWorldMatrix(boundsWorld);
+                float cx = (minX + maxX) * 0.5f, cy = (minY + maxY) * 0.5f, cz = (minZ + maxZ) * 0.5f;
+                float ex = (maxX - minX) * 0.5f, ey = (maxY - minY) * 0.5f, ez = (maxZ - minZ) * 0.5f;
+                float wx = m.m00() * cx + m.m10() * cy + m.m20() * cz + m.m30();
+                float wy = m.m01() * cx + m.m11() * cy + m.m21() * cz + m.m31();
+                float wz = m.m02() * cx + m.m12() * cy + m.m22() * cz + m.m32();
+                float rx = Math.abs(m.m00()) * ex + Math.abs(m.m10()) * ey + Math.abs(m.m20()) * ez;
+                float ry = Math.abs(m.m01()) * ex + Math.abs(m.m11()) * ey + Math.abs(m.m21()) * ez;
+                float rz = Math.abs(m.m02()) * ex + Math.abs(m.m12()) * ey + Math.abs(m.m22()) * ez;
+
+                if (entity.proxy < 0) entity.proxy = spatial.insert(wx - rx, wy - ry, wz - rz, wx + rx, wy + ry, wz + rz, entity);
+                else spatial.move(entity.proxy, wx - rx, wy - ry, wz - rz, wx + rx, wy + ry, wz + rz);
+                entity.boundsVersion = version;
+            }
+        }
+    }
+
+    private void index(Entity entity, Class<?> type) {
+        for (Class<?> t = type; t != null && AbstractComponent.class.isAssignableFrom(t); t = t.getSuperclass()) {
+            membership.computeIfAbsent(t, _ -> new LinkedHashSet<>()).add(entity);
+        }
+    }
+
+    // only drops the entity from a type's set once it has no component of that type left
+    private void unindex(Entity entity, Class<?> type) {
+        for (Class<?> t = type; t != null && AbstractComponent.class.isAssignableFrom(t); t = t.getSuperclass()) {
+            if (entity.archetype() != null && entity.archetype().has(t)) continue;
+            Set<Entity> entities = membership.get(t);
+            if (entities != null) entities.remove(entity);
+        }
+    }
+
+    /**
+     * Structural changes to make at the next sync point, safe to record while the scene is updating.
+     */
+    public SceneCommands commands() {
+        return commands;
+    }
+
+    /**
+     * Applies every recorded command in order. Only call this where nothing is iterating the scene.
+     */
+    public void applyCommands(AssetManager assetManager) {
+        SceneCommands.Command command;
+        while ((command = commands.poll()) != null) {
+            switch (command) {
+                case SceneCommands.Spawn(Entity entity) -> {
+                    if (entity.scene() != null) continue;
+                    if (entity.transform().parent() == null) rootEntities.add(entity);
+                    add(entity);
+                    if (loaded) entity.components().forEach(c -> c.load(assetManager));
+                }
+                case SceneCommands.Active(Entity entity, boolean active) -> entity.active(active);
+                case SceneCommands.Destroy(Entity entity) -> {
+                    if (entity.scene() == this) destroy(entity, assetManager);
+                }
+                case SceneCommands.AddComponent(Entity entity, AbstractComponent component) -> {
+                    entity.addComponent(component);
+                    if (loaded && entity.scene() == this) component.load(assetManager);
+                }
+                case SceneCommands.RemoveComponent(Entity entity, AbstractComponent component) -> {
+                    if (entity.removeComponent(component) && loaded && entity.scene() == this) component.unload(assetManager);
+                }
+            }
+        }
+    }
+
+    private void destroy(Entity entity, AssetManager assetManager) {
+        // children first, releasing the parent's transform detaches it
+        for (Transform child : List.copyOf(entity.transform().children())) {
+            if (child.entity().scene() == this) destroy(child.entity(), assetManager);
+        }
+        if (loaded) entity.components().forEach(c -> c.unload(assetManager));
+
+        entity.archetype().remove(entity.row());
+        removeProxy(entity);
+        for (AbstractComponent component : entity.components()) {
+            for (Class<?> t = component.getClass(); t != null && AbstractComponent.class.isAssignableFrom(t); t = t.getSuperclass()) {
+                Set<Entity> entities = membership.get(t);
+                if (entities != null) entities.remove(entity);
+            }
+        }
+        allEntities.remove(entity);
+        rootEntities.remove(entity);
+        byId.remove(entity.id());
+        entity.transform().release();
+
+        entity.scene(null);
+        entity.archetype(null);
+        entity.row(-1);
+    }
+
+    private void place(Entity entity) {
+        List<Class<? extends AbstractComponent>> signature = Archetype.signatureOf(entity.components());
+        Archetype archetype = archetypeIndex.get(signature);
+        if (archetype == null) {
+            archetype = new Archetype(signature);
+            archetypeIndex.put(archetype.signature(), archetype);
+            archetypes.add(archetype);
+            queries.clear();
+        }
+        entity.archetype(archetype);
+        archetype.add(entity);
+    }
+
+    public List<Archetype> archetypes() {
+        return Collections.unmodifiableList(archetypes);
+    }
+
+    /**
+     * Every archetype that has a component assignable to each of the given types.
+     */
+    public List<Archetype> query(Class<?>... types) {
+        // copyOf rather than of, a type listed twice is fine
+        return queries.computeIfAbsent(Set.copyOf(Arrays.asList(types)), key -> {
+            List<Archetype> matches = new ArrayList<>();
+            for (Archetype archetype : archetypes) {
+                boolean all = true;
+                for (Class<?> type : key) {
+                    if (!archetype.has(type)) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) matches.add(archetype);
+            }
+            return Collections.unmodifiableList(matches);
+        });
+    }
+
+    public <A> void forEach(Class<A> type, Consumer<? super A> action) {
+        for (Archetype archetype : query(type)) {
+            AbstractComponent[] column = archetype.columnData(archetype.column(type));
+            for (int row = 0, size = archetype.activeSize(); row < size; row++) action.accept(type.cast(column[row]));
+        }
+    }
+
+    public <A, B> void forEach(Class<A> a, Class<B> b, BiConsumer<? super A, ? super B> action) {
+        for (Archetype archetype : query(a, b)) {
+            AbstractComponent[] first = archetype.columnData(archetype.column(a));
+            AbstractComponent[] second = archetype.columnData(archetype.column(b));
+            for (int row = 0, size = archetype.activeSize(); row < size; row++) action.accept(a.cast(first[row]), b.cast(second[row]));
+        }
     }
 
     public @Nullable Entity getByUUID(UUID uuid) {
-        return allEntities.stream().filter(e -> e.id().equals(uuid)).findFirst().orElse(null);
+        return byId.get(uuid);
+    }
+
+    /**
+     * Every entity that has a component of the given type (subclasses included), in the order they got it.
+     */
+    public Set<Entity> entitiesWith(Class<? extends AbstractComponent> type) {
+        Set<Entity> entities = membership.get(type);
+        return entities == null ? Set.of() : Collections.unmodifiableSet(entities);
     }
 
-    public List<Entity> allEntities() {
-        return Collections.unmodifiableList(allEntities);
+    public Collection<Entity> allEntities() {
+        return Collections.unmodifiableSet(allEntities);
     }
 
-    public List<Entity> rootEntities() {
-        return Collections.unmodifiableList(rootEntities);
+    public Collection<Entity> rootEntities() {
+        return Collections.unmodifiableSet(rootEntities);
     }
 
+    /**
+     * Fetches every asset the components ask for in parallel, then loads the components, which by then only hit the cache.
+     */
     public void load(AssetManager assetManager) {
+        Map<AssetIdentifier, Class<?>> assets = new LinkedHashMap<>();
+        allEntities.forEach(e -> e.components().forEach(c -> c.collectAssets(assets::putIfAbsent)));
+
+        Map<AssetIdentifier, CompletableFuture<? extends Asset<?>>> prefetched = new LinkedHashMap<>();
+        assets.forEach((identifier, type) -> prefetched.put(identifier, assetManager.loadAsync(identifier, type)));
+        // a failed prefetch isn't fatal here, the component asking for it will fail on its own
+        assetManager.await(CompletableFuture.allOf(prefetched.values().stream()
+                .map(future -> future.handle((_, _) -> null))
+                .toArray(CompletableFuture[]::new)));
+
         allEntities.forEach(e -> e.components().forEach(c -> c.load(assetManager)));
+        loaded = true;
+
+        // the components hold their own references now
+        prefetched.forEach((identifier, future) -> {
+            if (!future.isCompletedExceptionally() && future.join() != null)
+                assetManager.unload(identifier, assets.get(identifier));
+        });
     }
 
     public void unload(AssetManager assetManager) {
         allEntities.forEach(e -> e.components().forEach(c -> c.unload(assetManager)));
+        loaded = false;
+    }
+
+    /**
+     * Systems run by {@link #update(float)}. Starts out with the one calling every component's {@code update} on the main thread.
+     */
+    public SystemScheduler updateSystems() {
+        return updateSystems;
+    }
+
+    /**
+     * Systems run by {@link #fixedUpdate(float)}. Starts out with the one calling every component's {@code physicsUpdate} on the main thread.
+     */
+    public SystemScheduler fixedSystems() {
+        return fixedSystems;
     }
 
     public void update(float delta) {
-        allEntities.forEach(e -> e.components().forEach(c -> c.update(delta)));
+        updateSystems.run(this, delta);
     }
 
     public void fixedUpdate(float fixedDelta) {
-        allEntities.forEach(e -> e.components().forEach(c -> c.physicsUpdate(fixedDelta)));
+        fixedSystems.run(this, fixedDelta);
     }
 
-    public void render(float delta) {
-        allEntities.forEach(e -> e.components().forEach(AbstractComponent::render));
+    // only visits the columns whose type overrides the callback
+    private record CallbackSystem(ClassValue<Boolean> overrides, Callback callback) implements SceneSystem {
+        private interface Callback {
+            void call(AbstractComponent component, float delta);
+        }
+
+        private static final Class<?>[] QUERY = {AbstractComponent.class};
+        private static final Set<Class<?>> EVERYTHING = Set.of(AbstractComponent.class, Transform.class);
+
+        @Override public Class<?>[] query() { return QUERY; }
+        @Override public Set<Class<?>> reads() { return EVERYTHING; }
+        @Override public Set<Class<?>> writes() { return EVERYTHING; }
+        @Override public boolean mainThread() { return true; }
+
+        @Override
+        public void execute(Archetype archetype, int from, int to, float delta) {
+            for (int c : archetype.overriding(overrides)) {
+                AbstractComponent[] column = archetype.columnData(c);
+                for (int row = from; row < to; row++) callback.call(column[row], delta);
+            }
+        }
     }
 }
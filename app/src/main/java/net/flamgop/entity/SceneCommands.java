@@ -0,0 +1,50 @@
+package net.flamgop.entity;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Structural changes recorded while the scene is being iterated (from any thread, systems included) and applied in order
+ * by {@link Scene#applyCommands(net.flamgop.asset.AssetManager)} at a point where nothing is walking the archetypes.
+ * <br/>
+ * Spawned entities and added components are loaded when they're applied, destroyed entities and removed components are unloaded.
+ * Destroying an entity destroys its transform children with it.
+ */
+public class SceneCommands {
+
+    sealed interface Command {}
+    record Spawn(Entity entity) implements Command {}
+    record Destroy(Entity entity) implements Command {}
+    record Active(Entity entity, boolean active) implements Command {}
+    record AddComponent(Entity entity, AbstractComponent component) implements Command {}
+    record RemoveComponent(Entity entity, AbstractComponent component) implements Command {}
+
+    private final ConcurrentLinkedQueue<Command> queue = new ConcurrentLinkedQueue<>();
+
+    public void spawn(Entity entity) {
+        queue.add(new Spawn(entity));
+    }
+
+    public void destroy(Entity entity) {
+        queue.add(new Destroy(entity));
+    }
+
+    public void active(Entity entity, boolean active) {
+        queue.add(new Active(entity, active));
+    }
+
+    public void addComponent(Entity entity, AbstractComponent component) {
+        queue.add(new AddComponent(entity, component));
+    }
+
+    public void removeComponent(Entity entity, AbstractComponent component) {
+        queue.add(new RemoveComponent(entity, component));
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    Command poll() {
+        return queue.poll();
+    }
+}
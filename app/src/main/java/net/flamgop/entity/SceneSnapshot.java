@@ -0,0 +1,357 @@
+package net.flamgop.entity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Layout of a scene snapshot (.snap), all little endian:
+ * <pre>
+ * header     int magic, int version, long sequence, long baseSequence, int entityCount, int removedCount
+ * removed    long uuidMost, long uuidLeast for every entity destroyed since the base snapshot
+ * entities   long uuidMost, long uuidLeast, byte active, float position[3], float rotation[4], short componentCount,
+ *            then per component: int key, int length, byte state[length]
+ * </pre>
+ * A full snapshot has baseSequence -1. An incremental one only holds the entities that changed since the snapshot numbered
+ * baseSequence and has to be restored on top of it. Component keys are the hash of the component's class name, restore skips
+ * any block it can't match (so adding state to a component doesn't break older files).
+ * <br/>
+ * Entities are matched by UUID, so snapshots restore onto a scene loaded from the same level (which hands out stable ids).
+ * Nothing in the file says how to build an entity, so a snapshot naming one the scene doesn't have is refused.
+ * Sequences keep counting up across launches when the writer is started from the last saved one, see {@link #sequence(Path)}.
+ */
+public final class SceneSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SceneSnapshot.class);
+
+    public static final int MAGIC = 0x50414E53; // "SNAP"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+    // the most a component's writeState is allowed to write
+    public static final int MAX_COMPONENT_STATE = 1024;
+
+    private static final int ENTITY_SIZE = 2 * Long.BYTES + 1 + 7 * Float.BYTES + Short.BYTES;
+
+    private SceneSnapshot() {}
+
+    public static int key(AbstractComponent component) {
+        return component.getClass().getName().hashCode();
+    }
+
+    /**
+     * Thrown when a snapshot is truncated, malformed, from another version, incremental on top of a snapshot the scene
+     * isn't at, or has entities the scene doesn't. Restore checks all of that before touching the scene, so the scene is
+     * unchanged when this is thrown.
+     */
+    public static class FormatException extends IOException {
+        public FormatException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Applies a snapshot to the scene. Removed entities, and for a full snapshot every entity it doesn't list, are destroyed
+     * through {@link Scene#commands()} so they go away at the next sync point. Call this where nothing is iterating the scene.
+     *
+     * @param current the sequence of the snapshot the scene was last restored to, or -1. An incremental snapshot is only
+     *                accepted if its base is exactly that one
+     * @return the restored snapshot's sequence, to pass as current next time
+     */
+    public static long restore(Scene scene, ByteBuffer source, long current) throws FormatException {
+        ByteBuffer buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        Set<UUID> ids = new HashSet<>();
+        validate(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), ids);
+
+        buffer.position(2 * Integer.BYTES);
+        long sequence = buffer.getLong();
+        long base = buffer.getLong();
+        if (base >= 0 && base != current) {
+            throw new FormatException("Snapshot " + sequence + " is incremental on " + base + ", but the scene is at " + (current >= 0 ? current : "no snapshot"));
+        }
+        for (UUID id : ids) {
+            if (scene.getByUUID(id) == null) throw new FormatException("Snapshot " + sequence + " has entity " + id + ", which the scene doesn't");
+        }
+        int entityCount = buffer.getInt();
+        int removedCount = buffer.getInt();
+
+        for (int i = 0; i < removedCount; i++) {
+            Entity entity = scene.getByUUID(new UUID(buffer.getLong(), buffer.getLong()));
+            if (entity != null) scene.commands().destroy(entity);
+        }
+        // a full snapshot lists everything that existed, whatever came after it goes
+        if (base < 0) {
+            for (Entity entity : scene.allEntities()) {
+                if (!ids.contains(entity.id())) scene.commands().destroy(entity);
+            }
+        }
+
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = scene.getByUUID(new UUID(buffer.getLong(), buffer.getLong()));
+            boolean active = buffer.get() != 0;
+            float px = buffer.getFloat(), py = buffer.getFloat(), pz = buffer.getFloat();
+            float rx = buffer.getFloat(), ry = buffer.getFloat(), rz = buffer.getFloat(), rw = buffer.getFloat();
+            int components = Short.toUnsignedInt(buffer.getShort());
+
+            entity.active(active);
+            entity.transform().position(px, py, pz);
+            entity.transform().rotation(rx, ry, rz, rw);
+            for (int c = 0; c < components; c++) {
+                int key = buffer.getInt();
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                for (AbstractComponent component : entity.components()) {
+                    if (key(component) != key) continue;
+                    try {
+                        component.readState(buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN));
+                    } catch (BufferUnderflowException e) {
+                        // the block is whole, just shorter than this component expects now, treat it like an unknown one
+                        LOGGER.warn("Skipping short {} state of entity {}", component.getClass().getSimpleName(), entity.id());
+                    }
+                    break;
+                }
+                buffer.position(end);
+            }
+        }
+        return sequence;
+    }
+
+    public static long restore(Scene scene, Path path, long current) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+            return restore(scene, buffer.flip(), current);
+        }
+    }
+
+    /**
+     * The sequence of the snapshot at path, or -1 if there's no readable one. Writers continue numbering from this so base
+     * sequences don't repeat across launches.
+     */
+    public static long sequence(Path path) {
+        if (!Files.isRegularFile(path)) return -1;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) return -1;
+            return header.getLong();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read snapshot header of {}", path, e);
+            return -1;
+        }
+    }
+
+    // walks the whole layout without applying anything, so a bad file is rejected before the scene changes. Collects the entity ids
+    private static void validate(ByteBuffer buffer, Set<UUID> ids) throws FormatException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) throw new FormatException("Not a scene snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new FormatException("Unsupported scene snapshot version " + version);
+        buffer.getLong(); // sequence
+        buffer.getLong(); // base sequence
+        int entityCount = buffer.getInt();
+        int removedCount = buffer.getInt();
+        if (entityCount < 0 || removedCount < 0) throw new FormatException("Negative entity count in scene snapshot");
+
+        if ((long) removedCount * 2 * Long.BYTES > buffer.remaining()) throw new FormatException("Scene snapshot ends inside the removed list");
+        buffer.position(buffer.position() + removedCount * 2 * Long.BYTES);
+
+        for (int i = 0; i < entityCount; i++) {
+            if (buffer.remaining() < ENTITY_SIZE) throw new FormatException("Scene snapshot ends inside entity " + i);
+            if (!ids.add(new UUID(buffer.getLong(), buffer.getLong()))) throw new FormatException("Entity " + i + " appears twice in a scene snapshot");
+            buffer.position(buffer.position() + ENTITY_SIZE - 2 * Long.BYTES - Short.BYTES);
+            int components = Short.toUnsignedInt(buffer.getShort());
+            for (int c = 0; c < components; c++) {
+                if (buffer.remaining() < 2 * Integer.BYTES) throw new FormatException("Scene snapshot ends inside a component of entity " + i);
+                buffer.getInt(); // key
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) throw new FormatException("Bad component state length " + length + " in entity " + i);
+                buffer.position(buffer.position() + length);
+            }
+        }
+        if (buffer.hasRemaining()) throw new FormatException(buffer.remaining() + " stray bytes after the last entity of a scene snapshot");
+    }
+
+    /**
+     * Captures snapshots of one scene, double buffered: {@link #capture(boolean)} packs the scene into one buffer on the
+     * calling thread (at a sync point, that part has to see a consistent frame) while the other buffer may still be getting
+     * written out in the background by {@link #save(Path, boolean)}.
+     * <br/>
+     * Incremental captures only include entities whose record (active flag, transform and component state) differs from
+     * the previous capture's, compared by hash, so every entity is still packed but unchanged ones are dropped again.
+     */
+    public static class Writer {
+        private final Scene scene;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Scene Snapshot Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final ByteBuffer[] buffers = new ByteBuffer[2];
+        // background write of each buffer, it can't be packed again until that's done
+        private final CompletableFuture<?>[] writes = {CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(null)};
+        private int back = 0;
+
+        private long sequence;
+        // whether a capture since construction or the last restore gives incremental captures something to build on
+        private boolean hasBase = false;
+        // hash of every entity's record as of the last capture
+        private final Map<UUID, Long> written = new HashMap<>();
+
+        public Writer(Scene scene) {
+            this(scene, -1);
+        }
+
+        // lastSequence is the highest sequence already on disk, the first capture is numbered after it
+        public Writer(Scene scene, long lastSequence) {
+            this.scene = scene;
+            this.sequence = lastSequence;
+            buffers[0] = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buffers[1] = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Packs the scene into the back buffer and swaps. The returned buffer stays valid until the capture after next.
+         */
+        public ByteBuffer capture(boolean incremental) {
+            // a failed write was already logged, the buffer is free either way
+            writes[back].handle((_, _) -> null).join();
+            incremental &= hasBase;
+
+            ByteBuffer buffer = buffers[back];
+            buffer.clear();
+            buffer.position(HEADER_SIZE);
+
+            Set<UUID> removed = new HashSet<>(written.keySet());
+            for (Entity entity : scene.allEntities()) removed.remove(entity.id());
+            written.keySet().removeAll(removed);
+
+            if (incremental) {
+                buffer = ensure(buffer, removed.size() * 2 * Long.BYTES);
+                for (UUID id : removed) buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+            }
+
+            int changed = 0;
+            for (Entity entity : scene.allEntities()) {
+                buffer = ensure(buffer, ENTITY_SIZE);
+                int recordStart = buffer.position();
+                buffer.putLong(entity.id().getMostSignificantBits()).putLong(entity.id().getLeastSignificantBits());
+                buffer.put((byte) (entity.active() ? 1 : 0));
+                float[] positions = entity.transform().store().positions(), rotations = entity.transform().store().rotations();
+                int p = entity.transform().slot() * 3, r = entity.transform().slot() * 4;
+                buffer.putFloat(positions[p]).putFloat(positions[p + 1]).putFloat(positions[p + 2]);
+                buffer.putFloat(rotations[r]).putFloat(rotations[r + 1]).putFloat(rotations[r + 2]).putFloat(rotations[r + 3]);
+
+                int countAt = buffer.position();
+                buffer.putShort((short) 0);
+                int count = 0;
+                for (AbstractComponent component : entity.components()) {
+                    buffer = ensure(buffer, 2 * Integer.BYTES + MAX_COMPONENT_STATE);
+                    int start = buffer.position();
+                    buffer.position(start + 2 * Integer.BYTES);
+                    ByteBuffer state = buffer.slice(buffer.position(), MAX_COMPONENT_STATE).order(ByteOrder.LITTLE_ENDIAN);
+                    if (!component.writeState(state)) {
+                        buffer.position(start);
+                        continue;
+                    }
+                    buffer.putInt(start, key(component)).putInt(start + Integer.BYTES, state.position());
+                    buffer.position(buffer.position() + state.position());
+                    count++;
+                }
+                buffer.putShort(countAt, (short) count);
+
+                // state a component keeps outside the transform (velocities, counters...) only shows up here
+                long hash = hash(buffer, recordStart + 2 * Long.BYTES, buffer.position());
+                Long previous = written.put(entity.id(), hash);
+                if (incremental && previous != null && previous == hash) buffer.position(recordStart);
+                else changed++;
+            }
+
+            long base = incremental ? sequence : -1;
+            sequence++;
+            hasBase = true;
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, sequence).putLong(16, base)
+                    .putInt(24, changed).putInt(28, incremental ? removed.size() : 0);
+            buffer.flip();
+
+            buffers[back] = buffer;
+            ByteBuffer captured = buffer;
+            back ^= 1;
+            return captured.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Captures right away, then writes the file on the writer thread (to a temporary file first, so a crash mid-write
+         * doesn't eat the previous save).
+         */
+        public CompletableFuture<Path> save(Path path, boolean incremental) {
+            int index = back;
+            ByteBuffer data = capture(incremental);
+            CompletableFuture<Path> write = CompletableFuture.supplyAsync(() -> {
+                Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer duplicate = data.duplicate();
+                    while (duplicate.hasRemaining()) channel.write(duplicate);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to write snapshot " + path, e);
+                }
+                try {
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to replace snapshot " + path, e);
+                }
+                return path;
+            }, executor).whenComplete((_, t) -> {
+                if (t != null) LOGGER.error("Scene snapshot failed", t);
+            });
+            writes[index] = write;
+            return write;
+        }
+
+        /**
+         * Call after restoring the scene to a snapshot. Numbering continues past it and the next capture is a full one, the
+         * previous capture no longer describes the scene.
+         */
+        public void restored(long restoredSequence) {
+            sequence = Math.max(sequence, restoredSequence);
+            written.clear();
+            hasBase = false;
+        }
+
+        // FNV-1a, 64 bit
+        private static long hash(ByteBuffer buffer, int from, int to) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = from; i < to; i++) {
+                hash ^= buffer.get(i) & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+            if (buffer.remaining() >= bytes) return buffer;
+            int capacity = buffer.capacity();
+            while (capacity - buffer.position() < bytes) capacity *= 2;
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            grown.put(buffer.flip());
+            return grown;
+        }
+
+        public void destroy() {
+            executor.shutdown();
+        }
+    }
+}
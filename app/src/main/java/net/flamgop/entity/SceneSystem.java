@@ -0,0 +1,27 @@
+package net.flamgop.entity;
+
+import java.util.Set;
+
+/**
+ * A unit of per-frame work over the active rows of every {@link Archetype} matching {@link #query()}.
+ * <br/>
+ * {@link #reads()} and {@link #writes()} name the component types (or {@link Transform}) the system touches, the
+ * {@link SystemScheduler} runs systems whose accesses don't overlap at the same time and splits big archetypes into chunks.
+ * Types overlap when one is assignable to the other, so declaring {@link AbstractComponent} claims every component.
+ */
+public interface SceneSystem {
+    Class<?>[] query();
+    Set<Class<?>> reads();
+    Set<Class<?>> writes();
+
+    // anything touching GL has to stay on the thread that owns the context
+    default boolean mainThread() {
+        return false;
+    }
+
+    /**
+     * Runs over rows {@code from} (inclusive) to {@code to} (exclusive) of one archetype.
+     * Off the main thread this is called concurrently for disjoint row ranges.
+     */
+    void execute(Archetype archetype, int from, int to, float delta);
+}
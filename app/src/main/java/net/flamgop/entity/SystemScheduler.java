@@ -0,0 +1,103 @@
+package net.flamgop.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs {@link SceneSystem}s on a fork-join pool.
+ * <br/>
+ * Systems are split into phases in the order they were added, a system joins the current phase unless its accesses
+ * conflict with one already in it (one writes what the other reads or writes). Phases run one after another. Within a
+ * phase every worker system is cut into chunks of at most {@link #CHUNK} rows which the pool picks up, while main thread
+ * systems run on the calling thread in the meantime.
+ */
+public class SystemScheduler {
+
+    private static final int CHUNK = 1024;
+
+    private final ForkJoinPool pool;
+    private final List<SceneSystem> systems = new ArrayList<>();
+    private List<List<SceneSystem>> phases = null;
+
+    public SystemScheduler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SystemScheduler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void add(SceneSystem system) {
+        systems.add(system);
+        phases = null;
+    }
+
+    public void run(Scene scene, float delta) {
+        if (phases == null) phases = plan(systems);
+        for (List<SceneSystem> phase : phases) runPhase(scene, phase, delta);
+    }
+
+    private void runPhase(Scene scene, List<SceneSystem> phase, float delta) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (SceneSystem system : phase) {
+            if (system.mainThread()) continue;
+            for (Archetype archetype : scene.query(system.query())) {
+                for (int from = 0, size = archetype.activeSize(); from < size; from += CHUNK) {
+                    int start = from, end = Math.min(size, from + CHUNK);
+                    tasks.add(ForkJoinTask.adapt(() -> system.execute(archetype, start, end, delta)));
+                }
+            }
+        }
+
+        // not worth a trip through the pool
+        if (tasks.size() == 1) {
+            tasks.getFirst().invoke();
+            tasks.clear();
+        }
+        for (ForkJoinTask<?> task : tasks) pool.execute(task);
+
+        for (SceneSystem system : phase) {
+            if (!system.mainThread()) continue;
+            for (Archetype archetype : scene.query(system.query())) system.execute(archetype, 0, archetype.activeSize(), delta);
+        }
+
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+
+    private static List<List<SceneSystem>> plan(List<SceneSystem> systems) {
+        List<List<SceneSystem>> phases = new ArrayList<>();
+        List<SceneSystem> current = new ArrayList<>();
+        for (SceneSystem system : systems) {
+            boolean conflicts = false;
+            for (SceneSystem other : current) {
+                if (conflict(system, other)) {
+                    conflicts = true;
+                    break;
+                }
+            }
+            if (conflicts) {
+                phases.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(system);
+        }
+        if (!current.isEmpty()) phases.add(current);
+        return phases;
+    }
+
+    private static boolean conflict(SceneSystem a, SceneSystem b) {
+        return overlaps(a.writes(), b.writes()) || overlaps(a.writes(), b.reads()) || overlaps(a.reads(), b.writes());
+    }
+
+    private static boolean overlaps(Set<Class<?>> a, Set<Class<?>> b) {
+        for (Class<?> x : a) {
+            for (Class<?> y : b) {
+                if (x.isAssignableFrom(y) || y.isAssignableFrom(x)) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,107 +2,223 @@ package net.flamgop.entity;
 
 import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
 import org.joml.Vector3f;
+import org.joml.Vector3fc;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * A handle to one slot of a {@link TransformStore}, the position, rotation and world matrix themselves live in the store's arrays.
+ * <br/>
+ * World matrices are brought up to date in batches by {@link TransformStore#update()}, use {@link #version()} to tell whether one moved.
+ */
 public class Transform {
-    private final Vector3f position = new Vector3f();
-    private final Quaternionf rotation = new Quaternionf();
+    private final TransformStore store;
+    private final int slot;
 
     private @Nullable Transform parent;
     private final List<Transform> children = new ArrayList<>();
 
-    private boolean dirty = true;
-    private final Matrix4f cachedLocal = new Matrix4f();
-    private final Matrix4f cachedWorld = new Matrix4f();
+    // handed out by the *View() accessors, made on first use
+    private @Nullable Vector3f positionView;
+    private @Nullable Quaternionf rotationView;
+    private @Nullable Matrix4f worldView;
+    private int worldViewVersion;
 
     private final Entity entity;
 
     public Transform(Entity entity) {
+        this(entity, TransformStore.global());
+    }
+
+    public Transform(Entity entity, TransformStore store) {
         this.entity = entity;
+        this.store = store;
+        this.slot = store.allocate();
     }
 
     public Entity entity() {
         return entity;
     }
 
+    public TransformStore store() {
+        return store;
+    }
+
+    public int slot() {
+        return slot;
+    }
+
     public void parent(@Nullable Transform parent) {
-        if (parent != null) parent.children.remove(this);
+        if (parent != null && parent.store != store) throw new IllegalArgumentException("Parent transform lives in a different store!");
+        if (this.parent != null) this.parent.children.remove(this);
         this.parent = parent;
         if (parent != null && !parent.children.contains(this)) parent.children.add(this);
+        store.parent(slot, parent != null ? parent.slot : -1);
+    }
+
+    // the entity is gone, hand the slot back. don't touch this transform afterwards
+    void release() {
+        parent(null);
+        for (Transform child : List.copyOf(children)) child.parent(null);
+        store.release(slot);
+    }
+
+    public @Nullable Transform parent() {
+        return parent;
     }
 
     public List<Transform> children() {
         return Collections.unmodifiableList(children);
     }
 
-    public void translate(Vector3f delta) {
-        position.add(delta);
+    public void translate(Vector3fc delta) {
+        float[] positions = store.positions();
+        int i = slot * 3;
+        positions[i] += delta.x();
+        positions[i + 1] += delta.y();
+        positions[i + 2] += delta.z();
         markDirty();
     }
 
-    public void rotate(Quaternionf delta) {
-        rotation.mul(delta);
-        markDirty();
+    public void rotate(Quaternionfc delta) {
+        float[] rotations = store.rotations();
+        int i = slot * 4;
+        float x = rotations[i], y = rotations[i + 1], z = rotations[i + 2], w = rotations[i + 3];
+        float dx = delta.x(), dy = delta.y(), dz = delta.z(), dw = delta.w();
+        rotation(
+                w * dx + x * dw + y * dz - z * dy,
+                w * dy - x * dz + y * dw + z * dx,
+                w * dz + x * dy - y * dx + z * dw,
+                w * dw - x * dx - y * dy - z * dz
+        );
     }
 
-    public void lookAt(Vector3f target, Vector3f up) {
-        rotation.identity().lookAlong(target.sub(position, new Vector3f()).normalize(), up);
-        markDirty();
+    public void lookAt(Vector3fc target, Vector3fc up) {
+        float[] positions = store.positions();
+        int i = slot * 3;
+        float dx = target.x() - positions[i], dy = target.y() - positions[i + 1], dz = target.z() - positions[i + 2];
+        float inv = 1.0f / (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        Quaternionf rotation = scratchRotation().identity().lookAlong(dx * inv, dy * inv, dz * inv, up.x(), up.y(), up.z());
+        rotation(rotation);
     }
 
     public Vector3f position() {
-        return new Vector3f(position);
+        return position(new Vector3f());
     }
     public Quaternionf rotation() {
-        return new Quaternionf(rotation);
+        return rotation(new Quaternionf());
+    }
+
+    public Vector3f position(Vector3f dest) {
+        float[] positions = store.positions();
+        int i = slot * 3;
+        return dest.set(positions[i], positions[i + 1], positions[i + 2]);
+    }
+    public Quaternionf rotation(Quaternionf dest) {
+        float[] rotations = store.rotations();
+        int i = slot * 4;
+        return dest.set(rotations[i], rotations[i + 1], rotations[i + 2], rotations[i + 3]);
+    }
+
+    /**
+     * The position as of this call, in an object owned by this transform. Read it before the transform moves again.
+     */
+    public Vector3fc positionView() {
+        if (positionView == null) positionView = new Vector3f();
+        return position(positionView);
+    }
+    /**
+     * The rotation as of this call, in an object owned by this transform. Read it before the transform moves again.
+     */
+    public Quaternionfc rotationView() {
+        return rotation(scratchRotation());
+    }
+
+    public void position(Vector3fc position) {
+        position(position.x(), position.y(), position.z());
+    }
+    public void rotation(Quaternionfc rotation) {
+        rotation(rotation.x(), rotation.y(), rotation.z(), rotation.w());
     }
 
-    public void position(Vector3f position) {
-        this.position.set(position);
+    public void position(float x, float y, float z) {
+        float[] positions = store.positions();
+        int i = slot * 3;
+        positions[i] = x;
+        positions[i + 1] = y;
+        positions[i + 2] = z;
         markDirty();
     }
-    public void rotation(Quaternionf rotation) {
-        this.rotation.set(rotation);
+    public void rotation(float x, float y, float z, float w) {
+        float[] rotations = store.rotations();
+        int i = slot * 4;
+        rotations[i] = x;
+        rotations[i + 1] = y;
+        rotations[i + 2] = z;
+        rotations[i + 3] = w;
         markDirty();
     }
 
+    private Quaternionf scratchRotation() {
+        if (rotationView == null) rotationView = new Quaternionf();
+        return rotationView;
+    }
+
     private void markDirty() {
-        this.dirty = true;
-        for (Transform child : children) {
-            child.markDirty();
-        }
+        store.markDirty(slot);
     }
 
     public Matrix4f getLocalMatrix() {
-        return new Matrix4f().translation(position).mul(new Matrix4f().rotation(rotation));
+        return getLocalMatrix(new Matrix4f());
+    }
+
+    public Matrix4f getLocalMatrix(Matrix4f dest) {
+        float[] positions = store.positions(), rotations = store.rotations();
+        int p = slot * 3, r = slot * 4;
+        return dest.translationRotate(positions[p], positions[p + 1], positions[p + 2], rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3]);
     }
 
     public Matrix4f getInverseWorldMatrix() {
-        return getWorldMatrix().invert(new Matrix4f());
+        return getInverseWorldMatrix(new Matrix4f());
+    }
+
+    public Matrix4f getInverseWorldMatrix(Matrix4f dest) {
+        return getWorldMatrix(dest).invert();
     }
 
     public boolean dirty() {
-        return dirty;
+        return store.dirty(slot);
+    }
+
+    // changes whenever the world matrix does
+    public int version() {
+        return store.version(slot);
     }
 
     public Matrix4f getWorldMatrix() {
-        if (dirty) {
-            cachedLocal.identity()
-                    .translate(position)
-                    .rotate(rotation);
+        return getWorldMatrix(new Matrix4f());
+    }
 
-            if (parent != null)
-                cachedWorld.set(parent.getWorldMatrix()).mul(cachedLocal);
-            else
-                cachedWorld.set(cachedLocal);
+    public Matrix4f getWorldMatrix(Matrix4f dest) {
+        return store.world(slot, dest);
+    }
 
-            dirty = false;
+    /**
+     * The world matrix in an object owned by this transform, only copied out of the store again when {@link #version()} moves.
+     */
+    public Matrix4fc worldMatrixView() {
+        int version = version();
+        if (worldView == null || worldViewVersion != version) {
+            if (worldView == null) worldView = new Matrix4f();
+            getWorldMatrix(worldView);
+            worldViewVersion = version;
         }
-        return new Matrix4f(cachedWorld);
+        return worldView;
     }
 }
@@ -0,0 +1,265 @@
+package net.flamgop.entity;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local position and rotation plus the world matrix of every {@link Transform}, stored as flat arrays indexed by slot.
+ * <br/>
+ * Layout per slot:
+ * <pre>
+ * positions[slot * 3 .. +3]  x, y, z
+ * rotations[slot * 4 .. +4]  x, y, z, w
+ * worlds[slot * 16 .. +16]   column major world matrix
+ * parents[slot]              parent slot, -1 for roots
+ * versions[slot]             bumped every time the world matrix changes
+ * </pre>
+ * Live slots are kept in an order where every parent comes before its children (a pre-order walk, so each subtree is one
+ * contiguous range). Setters only flag their slot and widen the dirty range, {@link #update()} then walks that range once,
+ * recomputing the flagged slots and anything under a slot that changed. Consumers compare {@link #version(int)} against the
+ * last one they saw instead of comparing matrices.
+ * <br/>
+ * Released slots go on a free list and are handed out again before the arrays grow.
+ * The arrays returned by {@link #positions()} and {@link #rotations()} are replaced when the store grows, don't hold on to them across an allocation.
+ */
+public class TransformStore {
+
+    private static final TransformStore GLOBAL = new TransformStore(1024);
+
+    public static TransformStore global() {
+        return GLOBAL;
+    }
+
+    private float[] positions;
+    private float[] rotations;
+    private float[] worlds;
+    private int[] parents;
+    private int[] versions;
+    private boolean[] dirty;
+    private boolean[] live;
+    // pass number of the last update() that changed the slot, so children know to follow
+    private int[] changedPass;
+    private int pass;
+
+    // live slots, parents first
+    private int[] order;
+    private int[] orderIndex;
+    // one past the last position of the subtree starting at each order position
+    private int[] subtreeEnd;
+    private int orderSize;
+    private volatile boolean orderStale = true;
+
+    // order positions that need walking, [low, high) packed as low << 32 | high so both bounds change together
+    private static final long CLEAN = range(Integer.MAX_VALUE, 0);
+    private final AtomicLong dirtyRange = new AtomicLong(CLEAN);
+
+    private int capacity;
+    private int high;
+
+    private int[] free = new int[64];
+    private int freeCount;
+
+    private final Matrix4f parentScratch = new Matrix4f();
+    private final Matrix4f localScratch = new Matrix4f();
+
+    public TransformStore(int capacity) {
+        this.capacity = Math.max(capacity, 16);
+        this.positions = new float[this.capacity * 3];
+        this.rotations = new float[this.capacity * 4];
+        this.worlds = new float[this.capacity * 16];
+        this.parents = new int[this.capacity];
+        this.versions = new int[this.capacity];
+        this.dirty = new boolean[this.capacity];
+        this.live = new boolean[this.capacity];
+        this.changedPass = new int[this.capacity];
+        this.order = new int[this.capacity];
+        this.orderIndex = new int[this.capacity];
+        this.subtreeEnd = new int[this.capacity];
+    }
+
+    public synchronized int allocate() {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (high == capacity) grow();
+            slot = high++;
+        }
+        positions[slot * 3] = positions[slot * 3 + 1] = positions[slot * 3 + 2] = 0;
+        rotations[slot * 4] = rotations[slot * 4 + 1] = rotations[slot * 4 + 2] = 0;
+        rotations[slot * 4 + 3] = 1;
+        parents[slot] = -1;
+        live[slot] = true;
+        dirty[slot] = true;
+        orderStale = true;
+        return slot;
+    }
+
+    public synchronized void release(int slot) {
+        live[slot] = false;
+        dirty[slot] = false;
+        parents[slot] = -1;
+        orderStale = true;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    private void grow() {
+        capacity *= 2;
+        positions = Arrays.copyOf(positions, capacity * 3);
+        rotations = Arrays.copyOf(rotations, capacity * 4);
+        worlds = Arrays.copyOf(worlds, capacity * 16);
+        parents = Arrays.copyOf(parents, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        live = Arrays.copyOf(live, capacity);
+        changedPass = Arrays.copyOf(changedPass, capacity);
+        order = Arrays.copyOf(order, capacity);
+        orderIndex = Arrays.copyOf(orderIndex, capacity);
+        subtreeEnd = Arrays.copyOf(subtreeEnd, capacity);
+    }
+
+    public synchronized void parent(int slot, int parent) {
+        parents[slot] = parent;
+        dirty[slot] = true;
+        orderStale = true;
+    }
+
+    public int parent(int slot) {
+        return parents[slot];
+    }
+
+    /**
+     * Flags the slot's local transform as changed. Safe to call from several threads at once for different slots.
+     */
+    public void markDirty(int slot) {
+        dirty[slot] = true;
+        if (orderStale) return; // the next update walks everything anyway
+        int position = orderIndex[slot];
+        int end = subtreeEnd[position];
+        dirtyRange.accumulateAndGet(range(position, end), (current, added) -> range(
+                Math.min(low(current), low(added)),
+                Math.max(high(current), high(added))
+        ));
+    }
+
+    private static long range(int low, int high) {
+        return (long) low << 32 | (high & 0xFFFFFFFFL);
+    }
+
+    private static int low(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int high(long range) {
+        return (int) range;
+    }
+
+    public boolean dirty(int slot) {
+        return dirty[slot];
+    }
+
+    public int version(int slot) {
+        if (needsUpdate()) update();
+        return versions[slot];
+    }
+
+    public Matrix4f world(int slot, Matrix4f dest) {
+        if (needsUpdate()) update();
+        return dest.set(worlds, slot * 16);
+    }
+
+    public boolean needsUpdate() {
+        long range = dirtyRange.get();
+        return orderStale || low(range) < high(range);
+    }
+
+    /**
+     * Brings every world matrix up to date in one pass over the dirty range.
+     * Called once a frame after the scene updates, and on demand by anything reading a world matrix before then.
+     */
+    public synchronized void update() {
+        int from, to;
+        if (orderStale) {
+            rebuildOrder();
+            from = 0;
+            to = orderSize;
+        } else {
+            long range = dirtyRange.getAndSet(CLEAN);
+            from = low(range);
+            to = high(range);
+            if (from >= to) return;
+        }
+        pass++;
+
+        for (int i = from; i < to; i++) {
+            int slot = order[i];
+            int parent = parents[slot];
+            if (!dirty[slot] && (parent < 0 || changedPass[parent] != pass)) continue;
+
+            int p = slot * 3, r = slot * 4;
+            localScratch.translationRotate(positions[p], positions[p + 1], positions[p + 2], rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3]);
+            if (parent >= 0) parentScratch.set(worlds, parent * 16).mul(localScratch, localScratch);
+            localScratch.get(worlds, slot * 16);
+
+            dirty[slot] = false;
+            versions[slot]++;
+            changedPass[slot] = pass;
+        }
+    }
+
+    private void rebuildOrder() {
+        // children of every live slot, packed: child slots of s are packed[start[s] .. start[s + 1])
+        int[] start = new int[high + 1];
+        for (int slot = 0; slot < high; slot++) {
+            if (live[slot] && parents[slot] >= 0) start[parents[slot] + 1]++;
+        }
+        for (int slot = 0; slot < high; slot++) start[slot + 1] += start[slot];
+        int[] packed = new int[start[high]];
+        int[] fill = Arrays.copyOf(start, high);
+        for (int slot = 0; slot < high; slot++) {
+            if (live[slot] && parents[slot] >= 0) packed[fill[parents[slot]]++] = slot;
+        }
+
+        orderSize = 0;
+        int[] stack = new int[Math.max(high, 1)];
+        for (int root = 0; root < high; root++) {
+            if (!live[root] || parents[root] >= 0) continue;
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int slot = stack[--top];
+                orderIndex[slot] = orderSize;
+                order[orderSize++] = slot;
+                for (int c = start[slot + 1] - 1; c >= start[slot]; c--) stack[top++] = packed[c];
+            }
+        }
+
+        // subtree sizes bottom up, pre-order means a node's subtree is the run right after it
+        int[] sizes = new int[high];
+        for (int i = orderSize - 1; i >= 0; i--) {
+            int slot = order[i];
+            sizes[slot]++;
+            subtreeEnd[i] = i + sizes[slot];
+            if (parents[slot] >= 0) sizes[parents[slot]] += sizes[slot];
+        }
+
+        dirtyRange.set(CLEAN);
+        orderStale = false;
+    }
+
+    public float[] positions() {
+        return positions;
+    }
+
+    public float[] rotations() {
+        return rotations;
+    }
+
+    // one past the highest slot ever handed out, anything iterating the raw arrays stops here
+    public int high() {
+        return high;
+    }
+}
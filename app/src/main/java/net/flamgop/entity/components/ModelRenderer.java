@@ -4,17 +4,22 @@ import net.flamgop.asset.Asset;
 import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.AssetManager;
 import net.flamgop.entity.Component;
-import net.flamgop.gpu.buffer.GPUBuffer;
-import net.flamgop.gpu.buffer.UniformBuffer;
 import net.flamgop.gpu.data.ModelUniformData;
 import net.flamgop.gpu.model.Model;
+import net.flamgop.gpu.model.TexturedMesh;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+import java.util.function.BiConsumer;
 
 public class ModelRenderer extends Component {
 
     private final AssetIdentifier assetIdentifier;
-    private UniformBuffer uniformBuffer;
-    private ModelUniformData modelUniformData;
+    // world and normal matrix, the render queue copies them into the frame's instance buffer
+    private final ModelUniformData modelUniformData = new ModelUniformData();
     private Asset<Model> model;
+    // transform version the matrices were last computed with
+    private int transformVersion;
 
     public ModelRenderer(AssetIdentifier modelIdentifier) {
         this.assetIdentifier = modelIdentifier;
@@ -25,32 +30,55 @@ public class ModelRenderer extends Component {
         return model.get();
     }
 
+    @Override
+    public void collectAssets(BiConsumer<AssetIdentifier, Class<?>> assets) {
+        assets.accept(this.assetIdentifier, Model.class);
+    }
+
+    @Override
+    public boolean localBounds(Vector3f min, Vector3f max) {
+        Model model = model();
+        if (model == null || model.meshes.isEmpty()) return false;
+        min.set(Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY);
+        for (TexturedMesh mesh : model.meshes) {
+            min.min(mesh.aabb().min());
+            max.max(mesh.aabb().max());
+        }
+        return true;
+    }
+
     @Override
     public void load(AssetManager assetManager) {
         this.model = assetManager.loadSync(this.assetIdentifier, Model.class);
-        uniformBuffer = new UniformBuffer(GPUBuffer.UpdateHint.STATIC);
-        uniformBuffer.buffer().label(this.assetIdentifier.path() + " Model UBO");
-        modelUniformData = new ModelUniformData();
-        modelUniformData.model = this.transform().getWorldMatrix();
+        this.transform().getWorldMatrix(modelUniformData.model);
+        transformVersion = this.transform().version();
         modelUniformData.computeNormal();
-        uniformBuffer.allocate(modelUniformData);
     }
 
     @Override
     public void unload(AssetManager assetManager) {
-        uniformBuffer.destroy();
         assetManager.unload(this.assetIdentifier, Model.class);
     }
 
-    @Override
-    public void render() {
-        if (model == null) return;
-        if (modelUniformData.model != this.transform().getWorldMatrix()) {
-            modelUniformData.model = this.transform().getWorldMatrix();
+    // recomputes the matrices if the transform moved since, false while there's nothing to draw
+    public boolean prepare() {
+        if (model == null) return false;
+        int version = this.transform().version();
+        if (version != transformVersion) {
+            transformVersion = version;
+            this.transform().getWorldMatrix(modelUniformData.model);
             modelUniformData.computeNormal();
-            uniformBuffer.store(modelUniformData);
         }
-        uniformBuffer.bind(1);
-        model.get().draw(modelUniformData.model);
+        return true;
+    }
+
+    // as of the last prepare()
+    public Matrix4fc worldMatrix() {
+        return modelUniformData.model;
+    }
+
+    public Matrix4fc normalMatrix() {
+        return modelUniformData.normal;
     }
 }
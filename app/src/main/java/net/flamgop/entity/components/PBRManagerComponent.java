@@ -44,10 +44,7 @@ public class PBRManagerComponent extends AbstractComponent {
 
     public void recollectLights() {
         this.lightArray.lights.clear();
-        scene.allEntities().forEach(e -> {
-            if (e.hasComponent(LightComponent.class))
-                this.lightArray.lights.add(e.getComponent(LightComponent.class).light());
-        });
+        scene.forEach(LightComponent.class, l -> this.lightArray.lights.add(l.light()));
         lightSSBO.allocate(this.lightArray);
     }
 
@@ -63,5 +60,4 @@ public class PBRManagerComponent extends AbstractComponent {
     @Override public void unload(AssetManager assetManager) {}
     @Override public void update(float delta) {}
     @Override public void physicsUpdate(float fixedDelta) {}
-    @Override public void render() {}
 }
@@ -4,19 +4,31 @@ package net.flamgop.entity.components;
 import com.github.stephengold.joltjni.Body;
 import com.github.stephengold.joltjni.BodyCreationSettings;
 import com.github.stephengold.joltjni.BodyInterface;
+import com.github.stephengold.joltjni.Vec3;
 import com.github.stephengold.joltjni.enumerate.EActivation;
 import com.github.stephengold.joltjni.enumerate.EMotionType;
 import com.github.stephengold.joltjni.enumerate.EOverrideMassProperties;
+import com.github.stephengold.joltjni.readonly.QuatArg;
+import com.github.stephengold.joltjni.readonly.RVec3Arg;
+import com.github.stephengold.joltjni.readonly.Vec3Arg;
 import net.flamgop.asset.Asset;
 import net.flamgop.asset.AssetIdentifier;
 import net.flamgop.asset.AssetManager;
+import net.flamgop.entity.AbstractComponent;
+import net.flamgop.entity.Archetype;
 import net.flamgop.entity.Component;
+import net.flamgop.entity.SceneSystem;
+import net.flamgop.entity.Transform;
 import net.flamgop.physics.Layers;
 import net.flamgop.physics.Material;
 import net.flamgop.physics.Physics;
 import net.flamgop.physics.PhysicsShape;
 import net.flamgop.util.JoltJoml;
 
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
 public class RigidbodyComponent extends Component {
     private final Physics physics;
     private final AssetIdentifier assetIdentifier;
@@ -39,6 +51,11 @@ public class RigidbodyComponent extends Component {
         this(physics, assetIdentifier, false, 0f, material);
     }
 
+    @Override
+    public void collectAssets(BiConsumer<AssetIdentifier, Class<?>> assets) {
+        assets.accept(this.assetIdentifier, PhysicsShape.class);
+    }
+
     @SuppressWarnings("resource")
     @Override
     public void load(AssetManager assetManager) {
@@ -50,20 +67,71 @@ public class RigidbodyComponent extends Component {
         }
         settings.setFriction(material.friction());
         settings.setRestitution(material.restitution());
-        BodyInterface bi = physics.bodyInterface();
-        this.body = bi.createBody(settings);
-        bi.addBody(this.body, dynamic ? EActivation.Activate : EActivation.DontActivate);
+        this.body = physics.bodyInterface().createBody(settings);
+        physics.addBody(this.body, dynamic ? EActivation.Activate : EActivation.DontActivate);
     }
 
     @Override
     public void unload(AssetManager assetManager) {
-        this.body.close();
-        this.shape.release();
+        // null when load failed or this was already unloaded
+        if (this.body != null) {
+            physics.removeBody(this.body);
+            this.body = null;
+        }
+        assetManager.unload(this.assetIdentifier, PhysicsShape.class);
+    }
+
+    @Override
+    public boolean writeState(ByteBuffer out) {
+        if (!dynamic || this.body == null) return false;
+        Vec3Arg linear = this.body.getLinearVelocity();
+        Vec3Arg angular = this.body.getAngularVelocity();
+        out.putFloat(linear.getX()).putFloat(linear.getY()).putFloat(linear.getZ());
+        out.putFloat(angular.getX()).putFloat(angular.getY()).putFloat(angular.getZ());
+        out.put((byte) (this.body.isActive() ? 1 : 0));
+        return true;
     }
 
+    // puts the body where the restored transform is and gives it back its velocities
     @Override
-    public void physicsUpdate(float fixedDelta) {
-        this.transform().position(JoltJoml.toVector3f(this.body.getPosition()));
-        this.transform().rotation(JoltJoml.toQuaternionf(this.body.getRotation()));
+    public void readState(ByteBuffer in) {
+        if (this.body == null) return;
+        BodyInterface bi = physics.bodyInterface();
+        int id = this.body.getId();
+        Vec3 linear = new Vec3(in.getFloat(), in.getFloat(), in.getFloat());
+        Vec3 angular = new Vec3(in.getFloat(), in.getFloat(), in.getFloat());
+        boolean active = in.get() != 0;
+        bi.setPositionAndRotation(id, JoltJoml.toRVec3Arg(this.transform().position()), JoltJoml.toQuatArg(this.transform().rotation()), active ? EActivation.Activate : EActivation.DontActivate);
+        bi.setLinearAndAngularVelocity(id, linear, angular);
+        if (!active) bi.deactivateBody(id);
+    }
+
+    public void syncTransform() {
+        // no body when load failed or after unload
+        if (this.body == null) return;
+        // asleep (or static), nothing moved. leaving the transform alone also keeps its version, so nothing re-uploads
+        if (!this.body.isActive()) return;
+        RVec3Arg position = this.body.getPosition();
+        QuatArg rotation = this.body.getRotation();
+        this.transform().position((float) position.x(), (float) position.y(), (float) position.z());
+        this.transform().rotation(rotation.getX(), rotation.getY(), rotation.getZ(), rotation.getW());
     }
+
+    /**
+     * Copies every body's position and rotation into its entity's transform after a physics step, spread across the pool.
+     * Each row writes only its own transform slot.
+     */
+    public static final SceneSystem SYNC = new SceneSystem() {
+        private static final Class<?>[] QUERY = {RigidbodyComponent.class};
+
+        @Override public Class<?>[] query() { return QUERY; }
+        @Override public Set<Class<?>> reads() { return Set.of(RigidbodyComponent.class); }
+        @Override public Set<Class<?>> writes() { return Set.of(Transform.class); }
+
+        @Override
+        public void execute(Archetype archetype, int from, int to, float delta) {
+            AbstractComponent[] column = archetype.columnData(archetype.column(RigidbodyComponent.class));
+            for (int row = from; row < to; row++) ((RigidbodyComponent) column[row]).syncTransform();
+        }
+    };
 }
@@ -1,94 +1,157 @@
 package net.flamgop.gpu;
 
+import net.flamgop.entity.Entity;
+import net.flamgop.entity.Scene;
+import net.flamgop.entity.components.ModelRenderer;
+import net.flamgop.gpu.culling.BatchCuller;
+import net.flamgop.gpu.culling.PackedBounds;
+import net.flamgop.gpu.culling.VisibleList;
+import net.flamgop.gpu.model.Model;
 import net.flamgop.gpu.model.TexturedMesh;
-import net.flamgop.shadow.CascadedShadowMaps;
-import net.flamgop.shadow.DirectionalLight;
+import net.flamgop.shadow.CascadeSetup;
 import net.flamgop.shadow.ShadowManager;
-import net.flamgop.util.AABB;
-import net.flamgop.util.FrustumPlane;
-import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
+import org.joml.Matrix4fc;
 
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Culls the scene once per frame for every view that draws it: the camera and each shadow cascade.
+ * <br/>
+ * {@link #cull(Scene)} asks the scene's spatial index for the entities any view reaches, turns every mesh of their loaded
+ * {@link ModelRenderer}s into an item, tests all items against all views in one {@link BatchCuller} pass and leaves a view mask per item (bit {@link #CAMERA} for the camera, bit {@code 1 + i} for cascade i) plus
+ * a visible list for the GBuffer pass and one for the shadow pass, which {@link RenderQueue} turns into draws.
+ */
 public class FrustumCulling {
-    private final int shadowMapResolution;
-    private final DirectionalLight directionalLight;
+    public static final int CAMERA = 0;
+    private static final int PLANES = CascadeSetup.PLANES;
+
     private final ShadowManager shadowManager;
     private final Camera camera;
 
-    private final FrustumPlane[][] cascadePlanes;
-    private FrustumPlane[] planes;
+    // the camera's planes, then every cascade's
+    private final float[] packedPlanes;
+    private final int views;
     private boolean enabled = true;
-    private boolean shadow = false;
 
-    public FrustumCulling(ShadowManager shadowManager, DirectionalLight directionalLight, int shadowMapResolution, Camera camera) {
+    private final PackedBounds bounds = new PackedBounds(1024);
+    private ModelRenderer[] renderers = new ModelRenderer[1024];
+    private TexturedMesh[] meshes = new TexturedMesh[1024];
+    private int[] masks = new int[1024];
+    private int items = 0;
+    private long[][] visible;
+
+    private final VisibleList cameraVisible = new VisibleList();
+    private final VisibleList shadowVisible = new VisibleList();
+
+    // kept so collecting doesn't allocate a lambda every frame
+    private final Consumer<Entity> collect = this::collect;
+    private final Consumer<ModelRenderer> add = this::add;
+
+    public FrustumCulling(ShadowManager shadowManager, Camera camera) {
         this.shadowManager = shadowManager;
-        this.directionalLight = directionalLight;
-        this.shadowMapResolution = shadowMapResolution;
         this.camera = camera;
-        this.planes = camera.getFrustumPlanes();
-        this.cascadePlanes = new FrustumPlane[this.shadowManager.cascades()][];
-        float[] splits = CascadedShadowMaps.computeCascadeSplits(this.shadowManager.cascades(), camera.near(), camera.far(), this.shadowManager.lambda());
-        for (int i = 0; i < this.shadowManager.cascades(); i++) {
-            cascadePlanes[i] = CascadedShadowMaps.getCascadeFrustumPlanes(camera, directionalLight, shadowMapResolution, i, splits);
-        }
+        this.views = 1 + this.shadowManager.cascades();
+        this.packedPlanes = new float[4 * PLANES * views];
+        this.visible = new long[views][BatchCuller.words(1024)];
+        update();
     }
 
+    // after the shadow manager's update, the cascade planes are taken as it computed them
     public void update() {
-        this.planes = camera.getFrustumPlanes();
-        float[] splits = CascadedShadowMaps.computeCascadeSplits(this.shadowManager.cascades(), camera.near(), camera.far(), this.shadowManager.lambda());
-        for (int i = 0; i < this.shadowManager.cascades(); i++) {
-            cascadePlanes[i] = CascadedShadowMaps.getCascadeFrustumPlanes(camera, directionalLight, shadowMapResolution, i, splits);
-        }
+        BatchCuller.pack(camera.getFrustumPlanes(), packedPlanes, 0);
+        float[] cascadePlanes = shadowManager.cascadeSetup().planes();
+        System.arraycopy(cascadePlanes, 0, packedPlanes, 4 * PLANES, cascadePlanes.length);
     }
 
     public void toggle() {
         enabled = !enabled;
     }
 
-    public void shadow(boolean shadow) {
-        this.shadow = shadow;
-    }
-
-    public boolean isVisible(TexturedMesh mesh, Matrix4f model) {
-        if (!enabled) return true;
+    // rebuilds the items and the visible lists, after everything that moves things this frame, the scene's refreshBounds() and update()
+    public void cull(Scene scene) {
+        int previous = items;
+        items = 0;
+        bounds.clear();
+        // the index only narrows things down to whole entities, their meshes still get the exact per view test below
+        if (enabled) scene.spatial().queryFrusta(packedPlanes, PLANES, views, collect);
+        else scene.forEach(ModelRenderer.class, add);
+        // don't keep renderers of destroyed entities alive
+        if (previous > items) {
+            Arrays.fill(renderers, items, previous, null);
+            Arrays.fill(meshes, items, previous, null);
+        }
 
-        if (!shadow) {
-            FrustumPlane[] planes = this.planes;
-            return isMeshInsideFrustum(mesh, model, planes);
-        } else {
-            for (int i = 0; i < this.shadowManager.cascades(); i++) {
-                FrustumPlane[] planes = this.cascadePlanes[i];
-                if (isMeshInsideFrustum(mesh, model, planes)) return true;
+        if (enabled) {
+            if (visible[0].length < BatchCuller.words(items)) visible = new long[views][BatchCuller.words(renderers.length)];
+            BatchCuller.cull(bounds, packedPlanes, PLANES, visible);
+            Arrays.fill(masks, 0, items, 0);
+            for (int v = 0; v < views; v++) {
+                long[] bits = visible[v];
+                for (int w = 0, words = BatchCuller.words(items); w < words; w++) {
+                    for (long word = bits[w]; word != 0; word &= word - 1) masks[(w << 6) + Long.numberOfTrailingZeros(word)] |= 1 << v;
+                }
             }
+        } else {
+            Arrays.fill(masks, 0, items, (1 << views) - 1);
         }
-        return false;
-    }
 
-    private boolean isMeshInsideFrustum(TexturedMesh mesh, Matrix4f model, FrustumPlane[] planes) {
-        Vector3f center = model.transform(new Vector4f(mesh.boundingSphereCenter(), 1.0f)).xyz(new Vector3f());
-        float radius = mesh.boundingSphereRadius();
-        for (FrustumPlane plane : planes) {
-            if (plane.distanceToPoint(center) < -radius) {
-                return false;
-            }
+        cameraVisible.clear();
+        shadowVisible.clear();
+        for (int i = 0; i < items; i++) {
+            if ((masks[i] & (1 << CAMERA)) != 0) cameraVisible.add(i);
+            // the shadow pass lays every cascade out in one draw, so anything any cascade sees goes in
+            if ((masks[i] >>> 1) != 0) shadowVisible.add(i);
         }
+    }
 
-        AABB aabb = mesh.aabb();
-        Vector3f[] corners = aabb.getCorners();
-        for (FrustumPlane plane : planes) {
-            boolean allOutside = true;
-            for (Vector3f corner : corners) {
-                corner = model.transform(new Vector4f(corner, 1.0f)).xyz(new Vector3f());
-                if (plane.distanceToPoint(corner) >= 0) {
-                    allOutside = false;
-                    break;
-                }
-            }
-            if (allOutside) {
-                return false;
-            }
+    public VisibleList cameraVisible() {
+        return cameraVisible;
+    }
+
+    public VisibleList shadowVisible() {
+        return shadowVisible;
+    }
+
+    public int viewMask(int item) {
+        return masks[item];
+    }
+
+    public ModelRenderer renderer(int item) {
+        return renderers[item];
+    }
+
+    public TexturedMesh mesh(int item) {
+        return meshes[item];
+    }
+
+    // world space boxes of this frame's items, by item index
+    public PackedBounds bounds() {
+        return bounds;
+    }
+
+    private void collect(Entity entity) {
+        ModelRenderer renderer = entity.getComponent(ModelRenderer.class);
+        if (renderer != null) add(renderer);
+    }
+
+    private void add(ModelRenderer renderer) {
+        if (!renderer.prepare()) return;
+        Model model = renderer.model();
+        Matrix4fc world = renderer.worldMatrix();
+        for (TexturedMesh mesh : model.meshes) {
+            if (items == renderers.length) grow();
+            renderers[items] = renderer;
+            meshes[items] = mesh;
+            bounds.add(world, mesh.aabb().min(), mesh.aabb().max());
+            items++;
         }
-        return true;
+    }
+
+    private void grow() {
+        int capacity = renderers.length * 2;
+        renderers = Arrays.copyOf(renderers, capacity);
+        meshes = Arrays.copyOf(meshes, capacity);
+        masks = Arrays.copyOf(masks, capacity);
     }
 }
@@ -0,0 +1,204 @@
+package net.flamgop.gpu;
+
+import net.flamgop.entity.components.ModelRenderer;
+import net.flamgop.gpu.buffer.GPUBuffer;
+import net.flamgop.gpu.culling.VisibleList;
+import net.flamgop.gpu.model.Material;
+import net.flamgop.gpu.model.TexturedMesh;
+import net.flamgop.gpu.texture.GPUTexture;
+import net.flamgop.gpu.vertex.VertexArray;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Turns a pass's visible items (see {@link FrustumCulling}) into draws ordered to change as little GL state as possible.
+ * <br/>
+ * Every item gets a 64 bit key, compared unsigned:
+ * <pre>
+ * 63..60  pass
+ * 59..48  shader program name
+ * 47..32  material id, handed out in the order materials are first seen by each build
+ * 31..16  vertex array name
+ * 15..0   distance from the eye, front to back
+ * </pre>
+ * The keys are radix sorted along with the item indices. Sorting puts every instance of a mesh and material next to each other, and
+ * {@link #submit()} draws each such run with one instanced call. It only binds the shader, a texture unit or the VAO when it
+ * differs from what the previous draw left bound.
+ */
+public class RenderQueue {
+    public static final int PASS_SHADOW = 0;
+    public static final int PASS_GBUFFER = 1;
+
+    // binding of the InstanceBuffer block in the model shaders
+    public static final int INSTANCE_BINDING = 4;
+
+    private static final int MAX_TEXTURE_UNITS = 32;
+    // mat4 model, mat4 normal
+    private static final int INSTANCE_SIZE = 32 * Float.BYTES;
+
+    // only valid during one build, cleared at the start of the next so unloaded materials aren't kept around and ids stay small
+    private final Map<Material, Integer> materialIds = new IdentityHashMap<>();
+    private long[] keys = new long[1024];
+    private int[] items = new int[1024];
+    private long[] keyScratch = new long[1024];
+    private int[] itemScratch = new int[1024];
+    private int size = 0;
+    private FrustumCulling source;
+
+    private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+    private final GPUBuffer instanceBuffer;
+    private ByteBuffer instanceData = null;
+    private int draws = 0;
+
+    public RenderQueue() {
+        instanceBuffer = new GPUBuffer(GPUBuffer.BufferUsage.STREAM_DRAW);
+        instanceBuffer.label("Instance SSBO");
+    }
+
+    /**
+     * Replaces the queue's contents with the listed items. Materials are read through {@link TexturedMesh#activeMaterial()}, so
+     * build after setting up any material override for the pass.
+     */
+    public void build(int pass, FrustumCulling culling, VisibleList visible, Vector3fc eye, float far) {
+        source = culling;
+        size = visible.size();
+        materialIds.clear();
+        if (keys.length < size) {
+            int capacity = Math.max(size, keys.length * 2);
+            keys = new long[capacity];
+            items = new int[capacity];
+            keyScratch = new long[capacity];
+            itemScratch = new int[capacity];
+        }
+        for (int i = 0; i < size; i++) {
+            int item = visible.item(i);
+            TexturedMesh mesh = culling.mesh(item);
+            Material material = mesh.activeMaterial();
+            int materialId = materialIds.computeIfAbsent(material, _ -> materialIds.size());
+            keys[i] = key(pass, material.shader().handle(), materialId, mesh.vao().handle(), culling.bounds().distance(item, eye), far);
+            items[i] = item;
+        }
+        sort(keys, items, size, keyScratch, itemScratch);
+    }
+
+    public static long key(int pass, int shader, int material, int vao, float distance, float far) {
+        long depth = (long) Math.clamp(distance / far * 0xFFFF, 0f, (float) 0xFFFF);
+        return (long) (pass & 0xF) << 60
+                | (long) (shader & 0xFFF) << 48
+                | (long) (material & 0xFFFF) << 32
+                | (long) (vao & 0xFFFF) << 16
+                | depth;
+    }
+
+    /**
+     * Sorts the first count keys as unsigned, moving values along with them. Least significant byte first, bytes every key
+     * shares (usually the pass and often the shader) are skipped. The scratch arrays need count elements.
+     */
+    public static void sort(long[] keys, int[] values, int count, long[] keyScratch, int[] valueScratch) {
+        long[] srcKeys = keys, dstKeys = keyScratch;
+        int[] srcValues = values, dstValues = valueScratch;
+        int[] counts = new int[256];
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+            if (count == 0 || counts[(int) (srcKeys[0] >>> shift) & 0xFF] == count) continue;
+
+            for (int b = 0, offset = 0; b < 256; b++) {
+                int c = counts[b];
+                counts[b] = offset;
+                offset += c;
+            }
+            for (int i = 0; i < count; i++) {
+                int slot = counts[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+                dstKeys[slot] = srcKeys[i];
+                dstValues[slot] = srcValues[i];
+            }
+
+            long[] k = srcKeys; srcKeys = dstKeys; dstKeys = k;
+            int[] v = srcValues; srcValues = dstValues; dstValues = v;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcValues, 0, values, 0, count);
+        }
+    }
+
+    /**
+     * Uploads the world and normal matrix of every queued item, in sorted order, to the instance buffer. Then it issues one
+     * instanced draw per run of items that share a mesh and material. Draws scale with distinct meshes, not with how many
+     * entities use them.
+     */
+    public void submit() {
+        draws = 0;
+        if (size == 0) return;
+
+        int bytes = size * INSTANCE_SIZE;
+        if (instanceData == null || instanceData.capacity() < bytes) {
+            if (instanceData != null) MemoryUtil.memFree(instanceData);
+            instanceData = MemoryUtil.memAlloc(Math.max(bytes, 2 * (instanceData == null ? 0 : instanceData.capacity())));
+        }
+        for (int i = 0; i < size; i++) {
+            ModelRenderer renderer = source.renderer(items[i]);
+            renderer.worldMatrix().get(i * INSTANCE_SIZE, instanceData);
+            renderer.normalMatrix().get(i * INSTANCE_SIZE + 16 * Float.BYTES, instanceData);
+        }
+        // a fresh allocation every submit, so the driver never has to wait on the previous pass still reading the old one
+        instanceBuffer.allocate(instanceData.limit(bytes).position(0));
+        instanceData.clear();
+        instanceBuffer.bind(GPUBuffer.Target.SHADER_STORAGE, INSTANCE_BINDING);
+
+        // whatever ran between two submits may have bound anything
+        Arrays.fill(boundTextures, 0);
+        ShaderProgram shader = null;
+        Material material = null;
+        VertexArray vao = null;
+        for (int start = 0, end; start < size; start = end) {
+            TexturedMesh mesh = source.mesh(items[start]);
+            Material next = mesh.activeMaterial();
+            end = start + 1;
+            while (end < size && source.mesh(items[end]).vao() == mesh.vao() && source.mesh(items[end]).activeMaterial() == next) end++;
+
+            if (next != material) {
+                material = next;
+                for (int unit = 0; unit < material.textureCount(); unit++) {
+                    GPUTexture texture = material.texture(unit);
+                    if (texture == null) continue;
+                    if (unit < MAX_TEXTURE_UNITS) {
+                        if (boundTextures[unit] == texture.handle()) continue;
+                        boundTextures[unit] = texture.handle();
+                    }
+                    texture.bindToUnit(unit);
+                }
+                if (material.shader() != shader) {
+                    shader = material.shader();
+                    shader.use();
+                }
+            }
+            if (mesh.vao() != vao) {
+                vao = mesh.vao();
+                vao.bind();
+            }
+            vao.drawBoundInstanced(VertexArray.DrawMode.TRIANGLES, end - start, start);
+            draws++;
+        }
+    }
+
+    // draw calls the last submit issued
+    public int draws() {
+        return draws;
+    }
+
+    public void destroy() {
+        instanceBuffer.destroy();
+        if (instanceData != null) MemoryUtil.memFree(instanceData);
+    }
+
+    public int size() {
+        return size;
+    }
+}
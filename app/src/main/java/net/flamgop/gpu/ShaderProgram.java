@@ -184,11 +184,11 @@ public class ShaderProgram {
         buffer.clear();
     }
 
-    public void uniformMatrix4fv(int location, boolean transpose, Matrix4f mat) {
+    public void uniformMatrix4fv(int location, boolean transpose, Matrix4fc mat) {
         glProgramUniformMatrix4fv(handle, location, transpose, mat.get(matrix4x4AcquisitionFloatBuffer.get()));
     }
 
-    public void uniformMatrix4fv(int location, boolean transpose, Matrix4f mat, FloatBuffer buffer) {
+    public void uniformMatrix4fv(int location, boolean transpose, Matrix4fc mat, FloatBuffer buffer) {
         glProgramUniformMatrix4fv(handle, location, transpose, mat.get(buffer));
         buffer.clear();
     }
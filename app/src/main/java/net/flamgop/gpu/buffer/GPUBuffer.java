@@ -62,6 +62,7 @@ public class GPUBuffer {
 
     private final int handle;
     private final BufferUsage usage;
+    private long size;
 
     public GPUBuffer(BufferUsage usage) {
         this.handle = glCreateBuffers();
@@ -70,18 +71,22 @@ public class GPUBuffer {
 
     public void allocate(long size) {
         glNamedBufferData(this.handle, size, this.usage.glQualifier);
+        this.size = size;
     }
 
     public void allocate(ByteBuffer buffer) {
         glNamedBufferData(this.handle, buffer, this.usage.glQualifier);
+        this.size = buffer.remaining();
     }
 
     public void allocate(IntBuffer buffer) {
         glNamedBufferData(this.handle, buffer, this.usage.glQualifier);
+        this.size = (long) buffer.remaining() * Integer.BYTES;
     }
 
     public void allocate(FloatBuffer buffer) {
         glNamedBufferData(this.handle, buffer, this.usage.glQualifier);
+        this.size = (long) buffer.remaining() * Float.BYTES;
     }
 
     public void store(ByteBuffer buffer, int offset) {
@@ -108,6 +113,11 @@ public class GPUBuffer {
         return this.handle;
     }
 
+    // bytes of the last allocation
+    public long size() {
+        return this.size;
+    }
+
     public int usage() {
         return this.usage.glQualifier;
     }
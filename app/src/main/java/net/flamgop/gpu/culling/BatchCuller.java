@@ -0,0 +1,81 @@
+package net.flamgop.gpu.culling;
+
+import net.flamgop.util.FrustumPlane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Culls a whole {@link PackedBounds} against any number of views in one go, writing one bitset per view.
+ * <br/>
+ * Planes are packed as {@code (nx, ny, nz, d)} quads with normals pointing into the volume, see {@link #pack(FrustumPlane[], float[], int)},
+ * every view has the same number of them and view v's start at {@code v * 4 * planesPerView}. A box is kept unless it lies entirely
+ * behind one of the planes, which is conservative near the frustum's corners, same as the old corner test.
+ * <br/>
+ * When the JVM was started with {@code --add-modules jdk.incubator.vector} the boxes are tested a full SIMD register at a time,
+ * otherwise (or for the tail that doesn't fill a register) a plain loop does the same math.
+ */
+public final class BatchCuller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchCuller.class);
+
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    static {
+        LOGGER.debug("Batch culling {}", VECTOR ? "uses the Vector API" : "is scalar, start with --add-modules jdk.incubator.vector to vectorize it");
+    }
+
+    private BatchCuller() {}
+
+    // longs needed for a bitset of count bits
+    public static int words(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    public static boolean visible(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    // writes planes.length quads starting at offset
+    public static void pack(FrustumPlane[] planes, float[] dest, int offset) {
+        for (int i = 0; i < planes.length; i++) {
+            FrustumPlane plane = planes[i];
+            dest[offset + 4 * i] = plane.normal().x;
+            dest[offset + 4 * i + 1] = plane.normal().y;
+            dest[offset + 4 * i + 2] = plane.normal().z;
+            dest[offset + 4 * i + 3] = plane.distance();
+        }
+    }
+
+    public static void cull(PackedBounds bounds, float[] planes, int planeCount, long[] visible) {
+        cull(bounds, planes, planeCount, new long[][] {visible});
+    }
+
+    /**
+     * Sets bit i of {@code visible[v]} for every box i that isn't completely behind one of view v's planes, clears the others.
+     * Every box is loaded once and tested against all views. Each bitset needs {@link #words(int)} longs.
+     */
+    public static void cull(PackedBounds bounds, float[] planes, int planesPerView, long[][] visible) {
+        int words = words(bounds.size);
+        for (long[] view : visible) Arrays.fill(view, 0, words, 0L);
+        int from = VECTOR ? VectorCuller.cull(bounds, planes, planesPerView, visible) : 0;
+        for (int i = from; i < bounds.size; i++) {
+            float cx = bounds.centerX[i], cy = bounds.centerY[i], cz = bounds.centerZ[i];
+            float ex = bounds.extentX[i], ey = bounds.extentY[i], ez = bounds.extentZ[i];
+            for (int v = 0; v < visible.length; v++) {
+                if (visible(cx, cy, cz, ex, ey, ez, planes, v * 4 * planesPerView, planesPerView)) visible[v][i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    // the test for a single box
+    public static boolean visible(float cx, float cy, float cz, float ex, float ey, float ez, float[] planes, int planeOffset, int planeCount) {
+        for (int p = planeOffset, end = planeOffset + 4 * planeCount; p < end; p += 4) {
+            float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+            float distance = nx * cx + ny * cy + nz * cz + planes[p + 3];
+            float radius = Math.abs(nx) * ex + Math.abs(ny) * ey + Math.abs(nz) * ez;
+            if (distance + radius < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package net.flamgop.gpu.culling;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+
+/**
+ * World space boxes as center and half extents, one array per component so {@link BatchCuller} can stream through them.
+ * Filled from scratch every frame, {@link #clear()} keeps the arrays.
+ */
+public class PackedBounds {
+    float[] centerX, centerY, centerZ;
+    float[] extentX, extentY, extentZ;
+    int size = 0;
+
+    public PackedBounds(int capacity) {
+        capacity = Math.max(capacity, 16);
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        centerZ = new float[capacity];
+        extentX = new float[capacity];
+        extentY = new float[capacity];
+        extentZ = new float[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float distance(int index, Vector3fc point) {
+        float dx = centerX[index] - point.x(), dy = centerY[index] - point.y(), dz = centerZ[index] - point.z();
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public int add(float cx, float cy, float cz, float ex, float ey, float ez) {
+        if (size == centerX.length) grow();
+        int i = size++;
+        centerX[i] = cx;
+        centerY[i] = cy;
+        centerZ[i] = cz;
+        extentX[i] = ex;
+        extentY[i] = ey;
+        extentZ[i] = ez;
+        return i;
+    }
+
+    // adds the box around a local space box after transforming it, (min, max) being the local one
+    public int add(Matrix4fc world, Vector3fc min, Vector3fc max) {
+        float cx = (min.x() + max.x()) * 0.5f, cy = (min.y() + max.y()) * 0.5f, cz = (min.z() + max.z()) * 0.5f;
+        float ex = (max.x() - min.x()) * 0.5f, ey = (max.y() - min.y()) * 0.5f, ez = (max.z() - min.z()) * 0.5f;
+        // the transformed extents are the local ones through the absolute of the rotation/scale part, no corners needed
+        return add(
+                world.m00() * cx + world.m10() * cy + world.m20() * cz + world.m30(),
+                world.m01() * cx + world.m11() * cy + world.m21() * cz + world.m31(),
+                world.m02() * cx + world.m12() * cy + world.m22() * cz + world.m32(),
+                Math.abs(world.m00()) * ex + Math.abs(world.m10()) * ey + Math.abs(world.m20()) * ez,
+                Math.abs(world.m01()) * ex + Math.abs(world.m11()) * ey + Math.abs(world.m21()) * ez,
+                Math.abs(world.m02()) * ex + Math.abs(world.m12()) * ey + Math.abs(world.m22()) * ez
+        );
+    }
+
+    private void grow() {
+        int capacity = centerX.length * 2;
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        centerZ = Arrays.copyOf(centerZ, capacity);
+        extentX = Arrays.copyOf(extentX, capacity);
+        extentY = Arrays.copyOf(extentY, capacity);
+        extentZ = Arrays.copyOf(extentZ, capacity);
+    }
+}
@@ -0,0 +1,42 @@
+package net.flamgop.gpu.culling;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// only ever loaded when the incubator module is there, BatchCuller checks before touching it
+final class VectorCuller {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private VectorCuller() {}
+
+    // culls every box up to the last full register and returns where the scalar tail has to pick up
+    static int cull(PackedBounds bounds, float[] planes, int planesPerView, long[][] visible) {
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(bounds.size);
+        for (int i = 0; i < bound; i += lanes) {
+            FloatVector cx = FloatVector.fromArray(SPECIES, bounds.centerX, i);
+            FloatVector cy = FloatVector.fromArray(SPECIES, bounds.centerY, i);
+            FloatVector cz = FloatVector.fromArray(SPECIES, bounds.centerZ, i);
+            FloatVector ex = FloatVector.fromArray(SPECIES, bounds.extentX, i);
+            FloatVector ey = FloatVector.fromArray(SPECIES, bounds.extentY, i);
+            FloatVector ez = FloatVector.fromArray(SPECIES, bounds.extentZ, i);
+
+            for (int v = 0; v < visible.length; v++) {
+                VectorMask<Float> inside = SPECIES.maskAll(true);
+                for (int p = v * 4 * planesPerView, end = p + 4 * planesPerView; p < end && inside.anyTrue(); p += 4) {
+                    float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+                    FloatVector distance = cx.mul(nx).add(cy.mul(ny)).add(cz.mul(nz)).add(planes[p + 3]);
+                    FloatVector radius = ex.mul(Math.abs(nx)).add(ey.mul(Math.abs(ny))).add(ez.mul(Math.abs(nz)));
+                    // dropped only when behind the plane, like the scalar test, so a NaN box is kept on both paths rather than
+                    // culled by one of them (NaN >= 0 would be false)
+                    inside = inside.andNot(distance.add(radius).compare(VectorOperators.LT, 0f));
+                }
+                // lane counts are powers of two no wider than 16, so a register's bits never straddle two words
+                visible[v][i >>> 6] |= inside.toLong() << (i & 63);
+            }
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,26 @@
+package net.flamgop.gpu.culling;
+
+import java.util.Arrays;
+
+// indices of the items one pass draws this frame, in item order
+public class VisibleList {
+    private int[] items = new int[256];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public int item(int index) {
+        return items[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int item) {
+        if (size == items.length) items = Arrays.copyOf(items, size * 2);
+        items[size++] = item;
+    }
+}
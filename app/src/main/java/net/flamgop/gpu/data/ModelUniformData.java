@@ -10,7 +10,7 @@ public class ModelUniformData implements BufferSerializable {
     public Matrix4f normal = new Matrix4f();
 
     public void computeNormal() {
-        this.normal = new Matrix4f(this.model).invert().transpose();
+        this.model.invert(this.normal).transpose();
     }
 
     @Override
@@ -26,6 +26,19 @@ public class Material {
         this.textures.addAll(Arrays.asList(textures));
     }
 
+    public ShaderProgram shader() {
+        return shader;
+    }
+
+    public int textureCount() {
+        return textures.size();
+    }
+
+    // null where the unit is left alone
+    public GPUTexture texture(int unit) {
+        return textures.get(unit);
+    }
+
     public void use() {
         for (int i = 0 ; i < textures.size() ; i++) {
             GPUTexture texture = textures.get(i);
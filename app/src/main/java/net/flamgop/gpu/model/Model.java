@@ -1,7 +1,5 @@
 package net.flamgop.gpu.model;
 
-import net.flamgop.Game;
-import org.joml.Matrix4f;
 import org.lwjgl.assimp.*;
 
 import java.util.List;
@@ -14,11 +12,12 @@ public class Model {
         this.meshes = meshes;
     }
 
-    public void draw(Matrix4f model) {
+    public long byteSize() {
+        long size = 0;
         for (TexturedMesh mesh : meshes) {
-            if (!Game.INSTANCE.culling().isVisible(mesh, model)) continue;
-            mesh.draw();
+            size += mesh.vao().byteSize();
         }
+        return size;
     }
 
     public void destroy() {
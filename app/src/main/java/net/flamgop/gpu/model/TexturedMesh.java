@@ -33,6 +33,15 @@ public class TexturedMesh {
         this.boundingSphereRadius = boundingSphereRadius;
     }
 
+    public Material material() {
+        return material;
+    }
+
+    // what draw() would use right now, the override if one is set
+    public Material activeMaterial() {
+        return overrideMaterial && materialOverride != null ? materialOverride : material;
+    }
+
     public AABB aabb() {
         return aabb;
     }
@@ -49,12 +58,6 @@ public class TexturedMesh {
         return vao;
     }
 
-    public void draw() {
-        if (!overrideMaterial || materialOverride == null) this.material.use();
-        else materialOverride.use();
-        this.vao.draw(VertexArray.DrawMode.TRIANGLES);
-    }
-
     public void destroy() {
         this.vao.destroy();
         // we don't manage our material.
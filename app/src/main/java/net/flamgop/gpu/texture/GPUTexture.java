@@ -271,6 +271,7 @@ public class GPUTexture {
 
     private final int handle;
     private final Target target;
+    private long byteSize;
 
     public GPUTexture(Target target) {
         this.handle = glCreateTextures(target.glQualifier);
@@ -512,14 +513,17 @@ public class GPUTexture {
 
     public void storage(int level, TextureFormat color, int width) {
         glTextureStorage1D(handle, level, color.glQualifier, width);
+        this.byteSize = measureStorage(level);
     }
 
     public void storage(int level, TextureFormat color, int width, int height) {
         glTextureStorage2D(handle, level, color.glQualifier, width, height);
+        this.byteSize = measureStorage(level);
     }
 
     public void storage(int level, TextureFormat color, int width, int height, int depth) {
         glTextureStorage3D(handle, level, color.glQualifier, width, height, depth);
+        this.byteSize = measureStorage(level);
     }
 
     public void subimage(int level, int xoffset, int width, TextureFormat format, int type, long pixels) {
@@ -546,6 +550,28 @@ public class GPUTexture {
         glTextureSubImage3D(this.handle, level, xoffset, yoffset, zoffset, width, height, depth, format.glQualifier, type.glQualifier(), MemoryUtil.memAddress(pixels));
     }
 
+    // asks the driver what every level of the storage holds, only an estimate since it doesn't count padding or compression
+    private long measureStorage(int levels) {
+        long bytes = 0;
+        for (int level = 0; level < levels; level++) {
+            long texels = (long) glGetTextureLevelParameteri(handle, level, GL_TEXTURE_WIDTH)
+                    * Math.max(1, glGetTextureLevelParameteri(handle, level, GL_TEXTURE_HEIGHT))
+                    * Math.max(1, glGetTextureLevelParameteri(handle, level, GL_TEXTURE_DEPTH));
+            int bits = glGetTextureLevelParameteri(handle, level, GL_TEXTURE_RED_SIZE)
+                    + glGetTextureLevelParameteri(handle, level, GL_TEXTURE_GREEN_SIZE)
+                    + glGetTextureLevelParameteri(handle, level, GL_TEXTURE_BLUE_SIZE)
+                    + glGetTextureLevelParameteri(handle, level, GL_TEXTURE_ALPHA_SIZE)
+                    + glGetTextureLevelParameteri(handle, level, GL_TEXTURE_DEPTH_SIZE)
+                    + glGetTextureLevelParameteri(handle, level, GL_TEXTURE_STENCIL_SIZE);
+            bytes += texels * bits / 8;
+        }
+        return bytes;
+    }
+
+    public long byteSize() {
+        return byteSize;
+    }
+
     public int handle() {
         return handle;
     }
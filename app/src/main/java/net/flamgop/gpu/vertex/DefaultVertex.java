@@ -1,24 +1,28 @@
 package net.flamgop.gpu.vertex;
 
+import net.flamgop.util.LazyInit;
+import org.lwjgl.system.MemoryUtil;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class DefaultVertex {
 
     public static final int BYTES = 5 * Float.BYTES + 2 * Integer.BYTES;
-    public static final VertexFormat FORMAT = VertexFormat.builder()
+    // lazy so vertices can be packed on a worker thread, building the format queries GL
+    public static final LazyInit<VertexFormat> FORMAT = new LazyInit<>(() -> VertexFormat.builder()
             .attribute(0, Attribute.of(Attribute.Type.FLOAT, 3, false))
             .attribute(1, Attribute.of(Attribute.Type.FLOAT, 2, false))
             .attribute(2, Attribute.of(Attribute.Type.INT_2_10_10_10_REV, 4, true))
             .attribute(3, Attribute.of(Attribute.Type.INT_2_10_10_10_REV, 4, true))
-            .build();
+            .build());
 
     private static int pack10(float f) {
         f = Math.max(-1.0f, Math.min(1.0f, f));
-        return Math.round(f * 511f); // 10bits
+        return Math.round(f * 511f) & 0x3FF; // 10bits, two's complement
     }
 
-    private static int pack(float nx, float ny, float nz, int w) {
+    public static int pack(float nx, float ny, float nz, int w) {
         int x = pack10(nx);
         int y = pack10(ny);
         int z = pack10(nz);
@@ -27,6 +31,17 @@ public class DefaultVertex {
         return (w << 30) | (z << 20) | (y << 10) | x;
     }
 
+    // writes one vertex straight to memory in the same layout as get(), for packing big meshes without an instance per vertex
+    public static void put(long address, float x, float y, float z, float u, float v, int normal, int tangent) {
+        MemoryUtil.memPutFloat(address, x);
+        MemoryUtil.memPutFloat(address + 4, y);
+        MemoryUtil.memPutFloat(address + 8, z);
+        MemoryUtil.memPutFloat(address + 12, u);
+        MemoryUtil.memPutFloat(address + 16, v);
+        MemoryUtil.memPutInt(address + 20, normal);
+        MemoryUtil.memPutInt(address + 24, tangent);
+    }
+
     private float x, y, z;
     private float u, v;
     private int tangent = 0;
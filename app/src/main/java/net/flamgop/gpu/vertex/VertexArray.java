@@ -11,14 +11,20 @@ import static org.lwjgl.opengl.GL46.*;
 public class VertexArray {
 
     public enum IndexType {
-        UNSIGNED_BYTE(GL_UNSIGNED_BYTE),
-        UNSIGNED_SHORT(GL_UNSIGNED_SHORT),
-        UNSIGNED_INT(GL_UNSIGNED_INT),
+        UNSIGNED_BYTE(GL_UNSIGNED_BYTE, Byte.BYTES),
+        UNSIGNED_SHORT(GL_UNSIGNED_SHORT, Short.BYTES),
+        UNSIGNED_INT(GL_UNSIGNED_INT, Integer.BYTES),
 
         ;
         final int glQualifier;
-        IndexType(int glQualifier) {
+        final int bytes;
+        IndexType(int glQualifier, int bytes) {
             this.glQualifier = glQualifier;
+            this.bytes = bytes;
+        }
+
+        public int bytes() {
+            return bytes;
         }
     }
 
@@ -78,19 +84,26 @@ public class VertexArray {
     }
 
     public static VertexArray withDefaultVertexFormat(DefaultVertex[] vertices, int[] indices) {
-        VertexArray buffer = new VertexArray(DefaultVertex.FORMAT);
         try (MemoryStack stack = MemoryStack.stackPush()) {
             ByteBuffer vertexData = MemoryUtil.memAlloc(vertices.length * DefaultVertex.BYTES);
             ByteBuffer indexData = MemoryUtil.memByteBuffer(stack.ints(indices));
             for (DefaultVertex vertex : vertices) vertex.get(vertexData);
             vertexData.flip();
 
-            buffer.data(vertexData, 0, 0);
-            buffer.elementData(indexData, IndexType.UNSIGNED_INT, indices.length);
+            VertexArray buffer = withDefaultVertexFormat(vertexData, indexData, IndexType.UNSIGNED_INT, indices.length);
+            MemoryUtil.memFree(vertexData);
             return buffer;
         }
     }
 
+    // for vertices that were already packed somewhere else (probably off-thread), the caller keeps ownership of both buffers
+    public static VertexArray withDefaultVertexFormat(ByteBuffer vertices, ByteBuffer indices, IndexType indexType, int indexCount) {
+        VertexArray buffer = new VertexArray(DefaultVertex.FORMAT.get());
+        buffer.data(vertices, 0, 0);
+        buffer.elementData(indices, indexType, indexCount);
+        return buffer;
+    }
+
     public void label(String label) {
         glObjectLabel(GL_VERTEX_ARRAY, this.vao, label);
         for (int i = 0; i < this.buffers.length; i++) {
@@ -105,6 +118,15 @@ public class VertexArray {
         return vao;
     }
 
+    // every buffer this array owns, vertex and element
+    public long byteSize() {
+        long size = this.elementBuffer != null ? this.elementBuffer.size() : 0;
+        for (GPUBuffer buffer : buffers) {
+            if (buffer != null) size += buffer.size();
+        }
+        return size;
+    }
+
     public int indexCount() {
         return indexCount;
     }
@@ -132,6 +154,16 @@ public class VertexArray {
         glVertexArrayBindingDivisor(vao, bindingIndex, bindingDivisor);
     }
 
+    public void bind() {
+        glBindVertexArray(vao);
+    }
+
+    // draws assuming this is the bound vertex array, for callers that track bindings themselves.
+    // instances are numbered from baseInstance on, which the shader sees as gl_BaseInstance
+    public void drawBoundInstanced(DrawMode mode, int instances, int baseInstance) {
+        glDrawElementsInstancedBaseInstance(mode.glQualifier, indexCount, indexType.glQualifier, 0, instances, baseInstance);
+    }
+
     public void draw(DrawMode mode) {
         glBindVertexArray(vao);
         glDrawElements(mode.glQualifier, indexCount, indexType.glQualifier, 0);
@@ -1,6 +1,7 @@
 package net.flamgop.physics;
 
 import com.github.stephengold.joltjni.*;
+import com.github.stephengold.joltjni.enumerate.EActivation;
 import electrostatic4j.snaploader.LibraryInfo;
 import electrostatic4j.snaploader.LoadingCriterion;
 import electrostatic4j.snaploader.NativeBinaryLoader;
@@ -8,12 +9,19 @@ import electrostatic4j.snaploader.filesystem.DirectoryPath;
 import electrostatic4j.snaploader.platform.NativeDynamicLibrary;
 import electrostatic4j.snaploader.platform.util.PlatformPredicate;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Physics {
 
     private final TempAllocator tempAllocator;
     private final JobSystem jobSystem;
     private final PhysicsSystem physicsSystem;
 
+    private boolean batching = false;
+    private final List<Body> batchedActive = new ArrayList<>();
+    private final List<Body> batchedInactive = new ArrayList<>();
+
     public Physics() throws Exception {
         LibraryInfo info = new LibraryInfo(null, "joltjni", DirectoryPath.USER_DIR);
         NativeBinaryLoader loader = new NativeBinaryLoader(info);
@@ -62,7 +70,7 @@ public class Physics {
                 layerMap, numBpLayers, ovoFilter, Layers.NUM_LAYERS);
 
         physicsSystem = new PhysicsSystem();
-        int maxBodies = 5_000;
+        int maxBodies = 65_536;
         int numBodyMutexes = 0; // default
         int maxBodyPairs = 65_536;
         int maxContacts = 20_480;
@@ -89,6 +97,56 @@ public class Physics {
         return physicsSystem.getBodyInterface();
     }
 
+    // adds right away, or at endBatch() if a batch is open
+    public void addBody(Body body, EActivation activation) {
+        if (batching) {
+            (activation == EActivation.Activate ? batchedActive : batchedInactive).add(body);
+            return;
+        }
+        bodyInterface().addBody(body, activation);
+    }
+
+    // takes the body out of the world (or out of the open batch) and frees it
+    public void removeBody(Body body) {
+        int id = body.getId();
+        if (batching && (batchedActive.remove(body) || batchedInactive.remove(body))) {
+            bodyInterface().destroyBody(id);
+            return;
+        }
+        BodyInterface bi = bodyInterface();
+        if (bi.isAdded(id)) bi.removeBody(id);
+        bi.destroyBody(id);
+    }
+
+    /**
+     * Holds on to every body passed to {@link #addBody(Body, EActivation)} until {@link #endBatch()}.
+     * <br/>
+     * Adding bodies one at a time inserts each into the broadphase separately, which is most of the cost of loading a big level.
+     */
+    public void beginBatch() {
+        batching = true;
+    }
+
+    public void endBatch() {
+        batching = false;
+        addBodies(batchedActive, EActivation.Activate);
+        addBodies(batchedInactive, EActivation.DontActivate);
+        physicsSystem.optimizeBroadPhase();
+    }
+
+    private void addBodies(List<Body> bodies, EActivation activation) {
+        if (bodies.isEmpty()) return;
+        BodyInterface bi = bodyInterface();
+        try (BodyIdArray ids = new BodyIdArray(bodies.size())) {
+            for (int i = 0; i < bodies.size(); i++) {
+                ids.set(i, bodies.get(i).getId());
+            }
+            long state = bi.addBodiesPrepare(ids, bodies.size());
+            bi.addBodiesFinalize(ids, bodies.size(), state, activation);
+        }
+        bodies.clear();
+    }
+
     public void update(float delta, int steps) {
         physicsSystem.update(delta, steps, tempAllocator, jobSystem);
     }
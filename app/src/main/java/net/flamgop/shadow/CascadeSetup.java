@@ -0,0 +1,94 @@
+package net.flamgop.shadow;
+
+import net.flamgop.entity.Scene;
+import net.flamgop.gpu.Camera;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+/**
+ * Everything about the shadow cascades that changes at most once a frame: the light's view, the split distances and every
+ * cascade's light space matrix and frustum planes. {@link ShadowManager#update(DirectionalLight, Scene)} fills it in, the shadow
+ * pass, the GBuffer blit and the culler all read the same values.
+ * <br/>
+ * How far back toward the light the cascades reach comes from the scene's spatial index, whose root box already covers everything
+ * that has bounds, so nothing here walks the scene.
+ */
+public class CascadeSetup {
+    public static final int PLANES = 6;
+
+    private final int cascadeCount;
+    private final int resolution;
+    private final float shadowFar;
+    private final float lambda;
+
+    private final Matrix4f lightView = new Matrix4f();
+    private float[] splits;
+    private final Matrix4f[] matrices;
+    // (nx, ny, nz, d) quads, PLANES per cascade
+    private final float[] planes;
+
+    private final Vector3f min = new Vector3f();
+    private final Vector3f max = new Vector3f();
+    private final Vector3f eye = new Vector3f();
+    private final Vector4f plane = new Vector4f();
+
+    public CascadeSetup(int cascadeCount, int resolution, float shadowFar, float lambda) {
+        this.cascadeCount = cascadeCount;
+        this.resolution = resolution;
+        this.shadowFar = shadowFar;
+        this.lambda = lambda;
+        this.splits = new float[cascadeCount + 1];
+        this.matrices = new Matrix4f[cascadeCount];
+        for (int i = 0; i < cascadeCount; i++) matrices[i] = new Matrix4f();
+        this.planes = new float[4 * PLANES * cascadeCount];
+    }
+
+    public void update(Camera camera, DirectionalLight light, Scene scene) {
+        eye.set(light.direction).normalize().mul(-100);
+        lightView.setLookAt(eye.x, eye.y, eye.z, 0, 0, 0, 0, 1, 0);
+        splits = CascadedShadowMaps.computeCascadeSplits(cascadeCount, camera.near(), shadowFar, lambda);
+
+        float sceneNear = Float.POSITIVE_INFINITY;
+        if (scene.spatial().rootBounds(min, max)) {
+            for (int i = 0; i < 8; i++) {
+                float x = (i & 1) == 0 ? min.x : max.x, y = (i & 2) == 0 ? min.y : max.y, z = (i & 4) == 0 ? min.z : max.z;
+                sceneNear = Math.min(sceneNear, lightView.m02() * x + lightView.m12() * y + lightView.m22() * z + lightView.m32());
+            }
+        }
+
+        for (int i = 0; i < cascadeCount; i++) {
+            CascadedShadowMaps.computeCascadeMatrix(i, camera, lightView, resolution, splits, sceneNear, matrices[i]);
+            for (int p = 0; p < PLANES; p++) {
+                matrices[i].frustumPlane(p, plane);
+                int offset = 4 * (PLANES * i + p);
+                planes[offset] = plane.x;
+                planes[offset + 1] = plane.y;
+                planes[offset + 2] = plane.z;
+                planes[offset + 3] = plane.w;
+            }
+        }
+    }
+
+    public int cascades() {
+        return cascadeCount;
+    }
+
+    public Matrix4fc lightView() {
+        return lightView;
+    }
+
+    // cascadeCount + 1 distances, cascade i covers splits[i] to splits[i + 1]
+    public float[] splits() {
+        return splits;
+    }
+
+    public Matrix4fc matrix(int cascade) {
+        return matrices[cascade];
+    }
+
+    public float[] planes() {
+        return planes;
+    }
+}
@@ -1,20 +1,11 @@
 package net.flamgop.shadow;
 
-import net.flamgop.Game;
-import net.flamgop.entity.Entity;
-import net.flamgop.entity.Scene;
-import net.flamgop.entity.components.ModelRenderer;
 import net.flamgop.gpu.Camera;
-import net.flamgop.gpu.model.Model;
 import net.flamgop.util.AABB;
-import net.flamgop.util.FrustumPlane;
 import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class CascadedShadowMaps {
     public static float[] computeCascadeSplits(int cascadeCount, float near, float far, float lambda) {
         float[] splits = new float[cascadeCount + 1];
@@ -28,17 +19,11 @@ public class CascadedShadowMaps {
         return splits;
     }
 
-    public static Matrix4f[] computeCascadeMatrices(Camera camera, Matrix4f lightView, int cascadeCount, int resolution, float[] splits) {
-        Matrix4f[] result = new Matrix4f[cascadeCount];
-
-        for (int i = 0; i < cascadeCount; i++) {
-            result[i] = computeCascadeMatrix(i, camera, lightView, resolution, splits);
-        }
-
-        return result;
-    }
-
-    public static Matrix4f computeCascadeMatrix(int cascade, Camera camera, Matrix4f lightView, int resolution, float[] splits) {
+    /**
+     * Writes cascade's light space matrix into dest. sceneNear is the smallest light view z of anything that can cast a shadow,
+     * so casters between the light and the cascade's slice still land in the depth range.
+     */
+    public static Matrix4f computeCascadeMatrix(int cascade, Camera camera, Matrix4f lightView, int resolution, float[] splits, float sceneNear, Matrix4f dest) {
         float cascadeNear = splits[cascade];
         float cascadeFar = splits[cascade + 1];
         Matrix4f cascadeProj = new Matrix4f().perspective(camera.fov(), camera.aspect(), cascadeNear, cascadeFar, true);
@@ -50,52 +35,11 @@ public class CascadedShadowMaps {
         invCamViewProj.frustumAabb(min, max);
         Vector2f nearFar = ShadowUtil.computeNearAndFar(lightView, orthoMin, orthoMax, new AABB(min, max));
 
-        float lightNear = nearFar.x;
-        Vector3f tmp = new Vector3f();
-        List<AABB> aabbs = collectAllAABBs(Game.INSTANCE.scene());
-        for (AABB aabb : aabbs) {
-            Vector3f[] corners = aabb.getCorners();
-            for (Vector3f corner : corners) {
-                tmp.set(corner).mulPosition(lightView);
-                lightNear = Math.min(lightNear, tmp.z);
-            }
-        }
+        float lightNear = Math.min(nearFar.x, sceneNear);
 
         snapOrthoToTexels(orthoMin, orthoMax, resolution);
 
-        Matrix4f ortho = new Matrix4f().ortho(orthoMin.x, orthoMax.x, orthoMin.y, orthoMax.y, lightNear, nearFar.y);
-        return new Matrix4f(ortho).mul(lightView);
-    }
-
-    private static List<AABB> collectAllAABBs(Scene scene) {
-        List<AABB> aabbs = new ArrayList<>();
-        for (Entity e : scene.allEntities()) {
-            if (e.hasComponent(ModelRenderer.class)) {
-                Model model = e.getComponent(ModelRenderer.class).model();
-                if (model != null) {
-                    model.meshes.forEach(m -> aabbs.add(m.aabb()));
-                }
-            }
-        }
-        return aabbs;
-    }
-
-    public static FrustumPlane[] getCascadeFrustumPlanes(Camera camera, DirectionalLight light, int resolution, int cascade, float[] splits) {
-        Matrix4f viewProj = computeCascadeMatrix(cascade, camera, ShadowManager.getShadowView(light), resolution, splits);
-
-        float m00 = viewProj.m00(), m01 = viewProj.m01(), m02 = viewProj.m02(), m03 = viewProj.m03();
-        float m10 = viewProj.m10(), m11 = viewProj.m11(), m12 = viewProj.m12(), m13 = viewProj.m13();
-        float m20 = viewProj.m20(), m21 = viewProj.m21(), m22 = viewProj.m22(), m23 = viewProj.m23();
-        float m30 = viewProj.m30(), m31 = viewProj.m31(), m32 = viewProj.m32(), m33 = viewProj.m33();
-
-        return new FrustumPlane[]{
-                new FrustumPlane(new Vector3f(m03 + m00, m13 + m10, m23 + m20), m33 + m30).normalized(), // Left
-                new FrustumPlane(new Vector3f(m03 - m00, m13 - m10, m23 - m20), m33 - m30).normalized(), // Right
-                new FrustumPlane(new Vector3f(m03 + m01, m13 + m11, m23 + m21), m33 + m31).normalized(), // Bottom
-                new FrustumPlane(new Vector3f(m03 - m01, m13 - m11, m23 - m21), m33 - m31).normalized(), // Top
-                new FrustumPlane(new Vector3f(m03 + m02, m13 + m12, m23 + m22), m33 + m32).normalized(), // Near
-                new FrustumPlane(new Vector3f(m03 - m02, m13 - m12, m23 - m22), m33 - m32).normalized()  // Far
-        };
+        return dest.setOrtho(orthoMin.x, orthoMax.x, orthoMin.y, orthoMax.y, lightNear, nearFar.y).mul(lightView);
     }
 
     private static void snapOrthoToTexels(Vector3f min, Vector3f max, int resolution) {
@@ -1,5 +1,6 @@
 package net.flamgop.shadow;
 
+import net.flamgop.entity.Scene;
 import net.flamgop.gpu.Camera;
 import net.flamgop.gpu.framebuffer.GPUFramebuffer;
 import net.flamgop.gpu.texture.GPUTexture;
@@ -34,6 +35,7 @@ public class ShadowManager {
     private final int largestCascadeResolution;
     private final GPUFramebuffer shadowFramebuffer;
     private GPUTexture cascades;
+    private final CascadeSetup cascadeSetup;
 
     /**
      * fancy, fancy
@@ -50,6 +52,7 @@ public class ShadowManager {
         this.shadowFar = shadowFar;
         this.lambda = lambda;
         this.largestCascadeResolution = resolution;
+        this.cascadeSetup = new CascadeSetup(cascadeCount, resolution, shadowFar, lambda);
         shadowShaderProgram = new ShaderProgram();
         shadowShaderProgram.attachShaderSource("Shadow Vertex Shader", ResourceHelper.loadFileContentsFromResource("shaders/shadow.vertex.glsl"), ShaderProgram.ShaderType.VERTEX);
         shadowShaderProgram.attachShaderSource("Shadow Geometry Shader", ResourceHelper.loadFileContentsFromResource("shaders/shadow.geometry.glsl"), ShaderProgram.ShaderType.GEOMETRY);
@@ -82,6 +85,15 @@ public class ShadowManager {
         return this.lambda;
     }
 
+    public CascadeSetup cascadeSetup() {
+        return this.cascadeSetup;
+    }
+
+    // once a frame, after the scene's bounds are refreshed and before anything culls or draws with the cascades
+    public void update(DirectionalLight light, Scene scene) {
+        cascadeSetup.update(camera, light, scene);
+    }
+
     public GPUTexture texture() {
         return cascades;
     }
@@ -95,15 +107,14 @@ public class ShadowManager {
         shadowFramebuffer.clear(GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
     }
 
-    public void bindUniforms(ShaderProgram shaderProgram, Matrix4f lightView) {
+    public void bindUniforms(ShaderProgram shaderProgram) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             if (shaderProgram == null) shaderProgram = shadowShaderProgram;
             FloatBuffer matrixBuffer = stack.callocFloat(16);
-            float[] splits = CascadedShadowMaps.computeCascadeSplits(cascadeCount, camera.near(), shadowFar, lambda);
-            Matrix4f[] cascades = CascadedShadowMaps.computeCascadeMatrices(camera, lightView, this.cascadeCount, this.largestCascadeResolution, splits);
+            float[] splits = cascadeSetup.splits();
             for (int i = 0; i < cascadeCount; i++) {
                 shaderProgram.uniform1f(shaderProgram.getUniformLocation("cascade_distances[" + i + "]"), splits[i + 1]);
-                shaderProgram.uniformMatrix4fv(shaderProgram.getUniformLocation("cascade_matrices[" + i + "]"), false, cascades[i], matrixBuffer);
+                shaderProgram.uniformMatrix4fv(shaderProgram.getUniformLocation("cascade_matrices[" + i + "]"), false, cascadeSetup.matrix(i), matrixBuffer);
             }
         }
     }
@@ -12,9 +12,11 @@ public class Sound {
 
     private boolean valid;
     private final int buffer;
+    private final long byteSize;
 
     public Sound(ByteBuffer soundData, int channels, int sampleRate, int bitsPerSample) {
         this.buffer = alGenBuffers();
+        this.byteSize = soundData.remaining();
 
         int format;
         if (channels == 1 && bitsPerSample == 8)
@@ -42,6 +44,10 @@ public class Sound {
         return valid;
     }
 
+    public long byteSize() {
+        return byteSize;
+    }
+
     public int handle() {
         if (!this.valid) return 0;
         return buffer;
@@ -5,6 +5,7 @@ import net.flamgop.gpu.state.PixelStore;
 import net.flamgop.gpu.state.StateManager;
 import net.flamgop.gpu.texture.GPUTexture;
 import net.flamgop.gpu.texture.TextureFormat;
+import net.flamgop.util.ResourceHelper;
 import org.joml.Vector2f;
 import org.joml.Vector4f;
 import org.lwjgl.PointerBuffer;
@@ -42,7 +43,10 @@ public class Font {
     private final GPUTexture textAtlasTexture;
     private final ByteBuffer textAtlasBuffer;
     private final FT_Face typeface;
+    // FreeType reads the face out of this for as long as it lives, so it's only given back in destroy()
+    private final ByteBuffer ttf;
 
+    // takes ownership of ttf, which has to come from ResourceHelper
     public Font(ByteBuffer ttf, int glyphCount, int characterPadding, int textAtlasWidth, int textAtlasHeight) {
         this.textAtlasWidth = textAtlasWidth;
         this.textAtlasHeight = textAtlasHeight;
@@ -51,6 +55,7 @@ public class Font {
             initFreeType();
         }
 
+        this.ttf = ttf;
         typeface = loadTypeFace(ttf);
 
         FreeType.FT_Set_Pixel_Sizes(typeface, 0, 48);
@@ -171,5 +176,6 @@ public class Font {
 
     public void destroy() {
         FreeType.FT_Done_Face(typeface);
+        ResourceHelper.free(ttf);
     }
 }
@@ -0,0 +1,529 @@
+package net.flamgop.util;
+
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A bounding volume hierarchy over moving axis aligned boxes, nodes stored in flat arrays.
+ * <br/>
+ * Leaves store a "fat" box, the real one grown by {@link #MARGIN} on every side, so small movements don't touch the tree at all.
+ * Inserts pick the sibling that grows the total surface area the least and every node on the way back up gets rebalanced with
+ * a tree rotation when its children's heights differ by more than one, which keeps queries close to logarithmic.
+ * <br/>
+ * Node layout:
+ * <pre>
+ * bounds[node * 6 .. +6]  min x, y, z, max x, y, z
+ * parent[node]            -1 for the root, next free node while on the free list
+ * child1[node]            -1 for leaves
+ * child2[node]
+ * height[node]            0 for leaves, -1 while free
+ * </pre>
+ * Not thread safe, mutate it from one thread and don't query while it's being mutated. Queries share one traversal stack,
+ * so a visitor can't start another query on the same tree.
+ */
+public class DynamicAABBTree<T> {
+
+    public static final float MARGIN = 0.1f;
+
+    @FunctionalInterface
+    public interface RayVisitor<T> {
+        /**
+         * @return the new maximum distance along the ray (use the given one to keep going), or zero or less to stop
+         */
+        float visit(T value, float maxDistance);
+    }
+
+    private float[] bounds;
+    private int[] parent;
+    private int[] child1;
+    private int[] child2;
+    private int[] height;
+    private Object[] values;
+
+    private int capacity;
+    private int count;
+    private int root = -1;
+    private int freeList;
+
+    private int[] stack = new int[64];
+
+    public DynamicAABBTree() {
+        this(64);
+    }
+
+    public DynamicAABBTree(int capacity) {
+        this.capacity = Math.max(capacity, 4);
+        this.bounds = new float[this.capacity * 6];
+        this.parent = new int[this.capacity];
+        this.child1 = new int[this.capacity];
+        this.child2 = new int[this.capacity];
+        this.height = new int[this.capacity];
+        this.values = new Object[this.capacity];
+        linkFree(0);
+    }
+
+    private void linkFree(int from) {
+        for (int i = from; i < capacity - 1; i++) {
+            parent[i] = i + 1;
+            height[i] = -1;
+        }
+        parent[capacity - 1] = -1;
+        height[capacity - 1] = -1;
+        freeList = from;
+    }
+
+    private int allocateNode() {
+        if (freeList == -1) {
+            int old = capacity;
+            capacity *= 2;
+            bounds = Arrays.copyOf(bounds, capacity * 6);
+            parent = Arrays.copyOf(parent, capacity);
+            child1 = Arrays.copyOf(child1, capacity);
+            child2 = Arrays.copyOf(child2, capacity);
+            height = Arrays.copyOf(height, capacity);
+            values = Arrays.copyOf(values, capacity);
+            linkFree(old);
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = -1;
+        child1[node] = -1;
+        child2[node] = -1;
+        height[node] = 0;
+        count++;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        parent[node] = freeList;
+        height[node] = -1;
+        values[node] = null;
+        freeList = node;
+        count--;
+    }
+
+    /**
+     * @return the proxy id, stable until {@link #remove(int)}
+     */
+    public int insert(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, T value) {
+        int leaf = allocateNode();
+        setFat(leaf, minX, minY, minZ, maxX, maxY, maxZ);
+        values[leaf] = value;
+        insertLeaf(leaf);
+        return leaf;
+    }
+
+    public void remove(int proxy) {
+        removeLeaf(proxy);
+        freeNode(proxy);
+    }
+
+    /**
+     * Updates a proxy's box, only restructuring the tree when the new box has left the fat one.
+     *
+     * @return whether the tree changed
+     */
+    public boolean move(int proxy, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int i = proxy * 6;
+        if (bounds[i] <= minX && bounds[i + 1] <= minY && bounds[i + 2] <= minZ
+                && bounds[i + 3] >= maxX && bounds[i + 4] >= maxY && bounds[i + 5] >= maxZ) return false;
+        removeLeaf(proxy);
+        setFat(proxy, minX, minY, minZ, maxX, maxY, maxZ);
+        insertLeaf(proxy);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T value(int proxy) {
+        return (T) values[proxy];
+    }
+
+    // the fat box
+    public void bounds(int proxy, Vector3f min, Vector3f max) {
+        int i = proxy * 6;
+        min.set(bounds[i], bounds[i + 1], bounds[i + 2]);
+        max.set(bounds[i + 3], bounds[i + 4], bounds[i + 5]);
+    }
+
+    /**
+     * The box around everything in the tree (fat boxes, so slightly generous).
+     *
+     * @return false if the tree is empty
+     */
+    public boolean rootBounds(Vector3f min, Vector3f max) {
+        if (root == -1) return false;
+        bounds(root, min, max);
+        return true;
+    }
+
+    public int size() {
+        return (count + 1) / 2;
+    }
+
+    public int height() {
+        return root == -1 ? 0 : height[root];
+    }
+
+    private void setFat(int node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int i = node * 6;
+        bounds[i] = minX - MARGIN;
+        bounds[i + 1] = minY - MARGIN;
+        bounds[i + 2] = minZ - MARGIN;
+        bounds[i + 3] = maxX + MARGIN;
+        bounds[i + 4] = maxY + MARGIN;
+        bounds[i + 5] = maxZ + MARGIN;
+    }
+
+    private boolean isLeaf(int node) {
+        return child1[node] == -1;
+    }
+
+    private float area(int node) {
+        int i = node * 6;
+        return area(bounds[i + 3] - bounds[i], bounds[i + 4] - bounds[i + 1], bounds[i + 5] - bounds[i + 2]);
+    }
+
+    private float unionArea(int a, int b) {
+        int i = a * 6, j = b * 6;
+        float dx = Math.max(bounds[i + 3], bounds[j + 3]) - Math.min(bounds[i], bounds[j]);
+        float dy = Math.max(bounds[i + 4], bounds[j + 4]) - Math.min(bounds[i + 1], bounds[j + 1]);
+        float dz = Math.max(bounds[i + 5], bounds[j + 5]) - Math.min(bounds[i + 2], bounds[j + 2]);
+        return area(dx, dy, dz);
+    }
+
+    private static float area(float dx, float dy, float dz) {
+        return 2.0f * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private void union(int dest, int a, int b) {
+        int d = dest * 6, i = a * 6, j = b * 6;
+        bounds[d] = Math.min(bounds[i], bounds[j]);
+        bounds[d + 1] = Math.min(bounds[i + 1], bounds[j + 1]);
+        bounds[d + 2] = Math.min(bounds[i + 2], bounds[j + 2]);
+        bounds[d + 3] = Math.max(bounds[i + 3], bounds[j + 3]);
+        bounds[d + 4] = Math.max(bounds[i + 4], bounds[j + 4]);
+        bounds[d + 5] = Math.max(bounds[i + 5], bounds[j + 5]);
+    }
+
+    private void insertLeaf(int leaf) {
+        if (root == -1) {
+            root = leaf;
+            parent[leaf] = -1;
+            return;
+        }
+
+        // walk down towards the sibling that costs the least surface area
+        int index = root;
+        while (!isLeaf(index)) {
+            int c1 = child1[index], c2 = child2[index];
+            float area = area(index);
+            float combined = unionArea(index, leaf);
+            float cost = 2.0f * combined;
+            float inheritance = 2.0f * (combined - area);
+
+            float cost1 = unionArea(leaf, c1) + inheritance - (isLeaf(c1) ? 0 : area(c1));
+            float cost2 = unionArea(leaf, c2) + inheritance - (isLeaf(c2) ? 0 : area(c2));
+
+            if (cost < cost1 && cost < cost2) break;
+            index = cost1 < cost2 ? c1 : c2;
+        }
+
+        int sibling = index;
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        union(newParent, leaf, sibling);
+        height[newParent] = height[sibling] + 1;
+
+        if (oldParent != -1) {
+            if (child1[oldParent] == sibling) child1[oldParent] = newParent;
+            else child2[oldParent] = newParent;
+        } else {
+            root = newParent;
+        }
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+
+        refit(parent[leaf]);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = -1;
+            return;
+        }
+
+        int p = parent[leaf];
+        int grandParent = parent[p];
+        int sibling = child1[p] == leaf ? child2[p] : child1[p];
+
+        if (grandParent != -1) {
+            if (child1[grandParent] == p) child1[grandParent] = sibling;
+            else child2[grandParent] = sibling;
+            parent[sibling] = grandParent;
+            freeNode(p);
+            refit(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = -1;
+            freeNode(p);
+        }
+    }
+
+    private void refit(int index) {
+        while (index != -1) {
+            index = balance(index);
+            int c1 = child1[index], c2 = child2[index];
+            height[index] = 1 + Math.max(height[c1], height[c2]);
+            union(index, c1, c2);
+            index = parent[index];
+        }
+    }
+
+    // rotates the taller grandchild up if the subtree at a is out of balance, returns the subtree's new root
+    private int balance(int a) {
+        if (isLeaf(a) || height[a] < 2) return a;
+
+        int b = child1[a], c = child2[a];
+        int balance = height[c] - height[b];
+
+        if (balance > 1) {
+            int f = child1[c], g = child2[c];
+            child1[c] = a;
+            parent[c] = parent[a];
+            parent[a] = c;
+            replaceChild(parent[c], a, c);
+
+            if (height[f] > height[g]) {
+                child2[c] = f;
+                child2[a] = g;
+                parent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+                height[a] = 1 + Math.max(height[b], height[g]);
+                height[c] = 1 + Math.max(height[a], height[f]);
+            } else {
+                child2[c] = g;
+                child2[a] = f;
+                parent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+                height[a] = 1 + Math.max(height[b], height[f]);
+                height[c] = 1 + Math.max(height[a], height[g]);
+            }
+            return c;
+        }
+
+        if (balance < -1) {
+            int d = child1[b], e = child2[b];
+            child1[b] = a;
+            parent[b] = parent[a];
+            parent[a] = b;
+            replaceChild(parent[b], a, b);
+
+            if (height[d] > height[e]) {
+                child2[b] = d;
+                child1[a] = e;
+                parent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+                height[a] = 1 + Math.max(height[c], height[e]);
+                height[b] = 1 + Math.max(height[a], height[d]);
+            } else {
+                child2[b] = e;
+                child1[a] = d;
+                parent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+                height[a] = 1 + Math.max(height[c], height[d]);
+                height[b] = 1 + Math.max(height[a], height[e]);
+            }
+            return b;
+        }
+
+        return a;
+    }
+
+    private void replaceChild(int node, int oldChild, int newChild) {
+        if (node == -1) {
+            root = newChild;
+            return;
+        }
+        if (child1[node] == oldChild) child1[node] = newChild;
+        else child2[node] = newChild;
+    }
+
+    private int push(int top, int node) {
+        if (top == stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[top] = node;
+        return top + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void queryAABB(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, Consumer<? super T> visitor) {
+        if (root == -1) return;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int i = node * 6;
+            if (bounds[i] > maxX || bounds[i + 1] > maxY || bounds[i + 2] > maxZ
+                    || bounds[i + 3] < minX || bounds[i + 4] < minY || bounds[i + 5] < minZ) continue;
+            if (isLeaf(node)) {
+                visitor.accept((T) values[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void querySphere(float x, float y, float z, float radius, Consumer<? super T> visitor) {
+        if (root == -1) return;
+        float radiusSquared = radius * radius;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int i = node * 6;
+            // squared distance from the center to the closest point of the box
+            float dx = Math.max(Math.max(bounds[i] - x, 0), x - bounds[i + 3]);
+            float dy = Math.max(Math.max(bounds[i + 1] - y, 0), y - bounds[i + 4]);
+            float dz = Math.max(Math.max(bounds[i + 2] - z, 0), z - bounds[i + 5]);
+            if (dx * dx + dy * dy + dz * dz > radiusSquared) continue;
+            if (isLeaf(node)) {
+                visitor.accept((T) values[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Visits every value whose box isn't completely behind one of the planes. Subtrees entirely inside the frustum
+     * are visited without testing anything under them.
+     */
+    @SuppressWarnings("unchecked")
+    public void queryFrustum(FrustumPlane[] planes, Consumer<? super T> visitor) {
+        if (root == -1) return;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int i = node * 6;
+            boolean inside = true;
+            boolean outside = false;
+            for (FrustumPlane plane : planes) {
+                Vector3f n = plane.normal();
+                // the corner furthest along the normal, and the one furthest against it
+                float far = n.x * (n.x > 0 ? bounds[i + 3] : bounds[i]) + n.y * (n.y > 0 ? bounds[i + 4] : bounds[i + 1]) + n.z * (n.z > 0 ? bounds[i + 5] : bounds[i + 2]) + plane.distance();
+                if (far < 0) {
+                    outside = true;
+                    break;
+                }
+                float near = n.x * (n.x > 0 ? bounds[i] : bounds[i + 3]) + n.y * (n.y > 0 ? bounds[i + 1] : bounds[i + 4]) + n.z * (n.z > 0 ? bounds[i + 2] : bounds[i + 5]) + plane.distance();
+                if (near < 0) inside = false;
+            }
+            if (outside) continue;
+            if (inside) {
+                top = visitAll(top, node, visitor);
+            } else if (isLeaf(node)) {
+                visitor.accept((T) values[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Visits every value whose box isn't completely behind a plane of every view, once however many views see it.
+     * Planes are packed as {@code (nx, ny, nz, d)} quads, {@code planesPerView} of them per view with view v's at
+     * {@code v * 4 * planesPerView}. Subtrees entirely inside any one view are visited without testing anything under them.
+     */
+    @SuppressWarnings("unchecked")
+    public void queryFrusta(float[] planes, int planesPerView, int views, Consumer<? super T> visitor) {
+        if (root == -1) return;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int i = node * 6;
+            boolean inside = false;
+            boolean outside = true;
+            for (int v = 0; v < views && !inside; v++) {
+                boolean insideView = true;
+                boolean outsideView = false;
+                for (int p = v * 4 * planesPerView, end = p + 4 * planesPerView; p < end; p += 4) {
+                    float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2], d = planes[p + 3];
+                    float far = nx * (nx > 0 ? bounds[i + 3] : bounds[i]) + ny * (ny > 0 ? bounds[i + 4] : bounds[i + 1]) + nz * (nz > 0 ? bounds[i + 5] : bounds[i + 2]) + d;
+                    if (far < 0) {
+                        outsideView = true;
+                        break;
+                    }
+                    float near = nx * (nx > 0 ? bounds[i] : bounds[i + 3]) + ny * (ny > 0 ? bounds[i + 1] : bounds[i + 4]) + nz * (nz > 0 ? bounds[i + 2] : bounds[i + 5]) + d;
+                    if (near < 0) insideView = false;
+                }
+                if (outsideView) continue;
+                outside = false;
+                inside = insideView;
+            }
+            if (outside) continue;
+            if (inside) {
+                top = visitAll(top, node, visitor);
+            } else if (isLeaf(node)) {
+                visitor.accept((T) values[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int visitAll(int base, int start, Consumer<? super T> visitor) {
+        int top = push(base, start);
+        while (top > base) {
+            int node = stack[--top];
+            if (isLeaf(node)) {
+                visitor.accept((T) values[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+        return base;
+    }
+
+    /**
+     * Visits every value whose box the ray passes through, in no particular order.
+     * The direction doesn't need to be normalized, distances are in multiples of it.
+     */
+    @SuppressWarnings("unchecked")
+    public void raycast(float originX, float originY, float originZ, float directionX, float directionY, float directionZ, float maxDistance, RayVisitor<? super T> visitor) {
+        if (root == -1) return;
+        float invX = 1.0f / directionX, invY = 1.0f / directionY, invZ = 1.0f / directionZ;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int i = node * 6;
+            // slab test, infinities from zero direction components fall out of the min/max correctly
+            float tx1 = (bounds[i] - originX) * invX, tx2 = (bounds[i + 3] - originX) * invX;
+            float ty1 = (bounds[i + 1] - originY) * invY, ty2 = (bounds[i + 4] - originY) * invY;
+            float tz1 = (bounds[i + 2] - originZ) * invZ, tz2 = (bounds[i + 5] - originZ) * invZ;
+            float tMin = Math.max(Math.max(Math.min(tx1, tx2), Math.min(ty1, ty2)), Math.max(Math.min(tz1, tz2), 0));
+            float tMax = Math.min(Math.min(Math.max(tx1, tx2), Math.max(ty1, ty2)), Math.min(Math.max(tz1, tz2), maxDistance));
+            if (tMin > tMax) continue;
+            if (isLeaf(node)) {
+                float result = visitor.visit((T) values[node], maxDistance);
+                if (result <= 0) return;
+                maxDistance = result;
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+}
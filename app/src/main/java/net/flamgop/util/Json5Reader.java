@@ -0,0 +1,526 @@
+package net.flamgop.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A pull parser for JSON5 that reads straight out of a (usually mapped) UTF-8 buffer.
+ * <br/>
+ * Nothing is built up as it goes, only whatever the caller asks for gets allocated, so memory stays bounded no matter how big the document is.
+ * Handles comments, trailing commas, unquoted keys, single quoted strings, hex numbers (up to 64 bits), {@code Infinity} and {@code NaN}.
+ * <br/>
+ * Usage is the usual {@code beginObject(); while (hasNext()) { nextName(); ... } endObject();}
+ */
+public class Json5Reader {
+
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT,
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    // exact powers of ten, anything up to 10^22 converts without rounding
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final ByteBuffer source;
+    private final int limit;
+    private int position;
+
+    private int[] stack = new int[32];
+    private int depth = 0;
+
+    private Token peeked = null;
+    private String peekedName = null;
+
+    private byte[] scratch = new byte[64];
+
+    public Json5Reader(ByteBuffer source) {
+        this.source = source;
+        this.position = source.position();
+        this.limit = source.limit();
+        // utf-8 byte order mark
+        if (limit - position >= 3 && (source.get(position) & 0xFF) == 0xEF && (source.get(position + 1) & 0xFF) == 0xBB && (source.get(position + 2) & 0xFF) == 0xBF) position += 3;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() {
+        if (peeked == null) peeked = doPeek();
+        return peeked;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    // whether the current array or object has another element
+    public boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() {
+        expect(Token.NAME);
+        String name = peekedName;
+        peekedName = null;
+        return name;
+    }
+
+    public String nextString() {
+        expect(Token.STRING);
+        return readString(source.get(position++));
+    }
+
+    public boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        if (matches("true")) {
+            position += 4;
+            return true;
+        }
+        if (matches("false")) {
+            position += 5;
+            return false;
+        }
+        throw syntaxError("Expected a boolean");
+    }
+
+    public void nextNull() {
+        expect(Token.NULL);
+        if (!matches("null")) throw syntaxError("Expected null");
+        position += 4;
+    }
+
+    public float nextFloat() {
+        return (float) nextDouble();
+    }
+
+    public int nextInt() {
+        double value = nextDouble();
+        int result = (int) value;
+        if (result != value) throw syntaxError("Expected an int but was " + value);
+        return result;
+    }
+
+    public double nextDouble() {
+        expect(Token.NUMBER);
+        return readNumber();
+    }
+
+    // skips the next value, nested objects and arrays included
+    public void skipValue() {
+        int level = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    level++;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    level++;
+                }
+                case END_OBJECT -> {
+                    endObject();
+                    level--;
+                }
+                case END_ARRAY -> {
+                    endArray();
+                    level--;
+                }
+                case NAME -> nextName();
+                case STRING -> nextString();
+                case NUMBER -> nextDouble();
+                case BOOLEAN -> nextBoolean();
+                case NULL -> nextNull();
+                case END_DOCUMENT -> throw syntaxError("Unexpected end of document");
+            }
+        } while (level > 0);
+    }
+
+    private void expect(Token token) {
+        Token actual = peek();
+        if (actual != token) throw syntaxError("Expected " + token + " but was " + actual);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    private Token doPeek() {
+        int scope = stack[depth - 1];
+        switch (scope) {
+            case EMPTY_ARRAY, NONEMPTY_ARRAY -> {
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    position++;
+                    return Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') throw syntaxError("Expected ',' or ']'");
+                    position++;
+                    // trailing comma
+                    if (nextNonWhitespace() == ']') {
+                        position++;
+                        return Token.END_ARRAY;
+                    }
+                }
+                return peekValue();
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                stack[depth - 1] = DANGLING_NAME;
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    position++;
+                    return Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    position++;
+                    c = nextNonWhitespace();
+                    if (c == '}') {
+                        position++;
+                        return Token.END_OBJECT;
+                    }
+                }
+                peekedName = readName(c);
+                return Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                position++;
+                return peekValue();
+            }
+            case EMPTY_DOCUMENT -> {
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return peekValue();
+            }
+            default -> {
+                if (nextNonWhitespace() != -1) throw syntaxError("Expected the end of the document");
+                return Token.END_DOCUMENT;
+            }
+        }
+    }
+
+    // leaves the position on the first character of the value, the next* methods consume it
+    private Token peekValue() {
+        int c = nextNonWhitespace();
+        return switch (c) {
+            case -1 -> throw syntaxError("Unexpected end of document");
+            case '{' -> {
+                position++;
+                yield Token.BEGIN_OBJECT;
+            }
+            case '[' -> {
+                position++;
+                yield Token.BEGIN_ARRAY;
+            }
+            case '"', '\'' -> Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            case '-', '+', '.', 'I', 'N', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> Token.NUMBER;
+            default -> throw syntaxError("Unexpected character '" + (char) c + "'");
+        };
+    }
+
+    // skips whitespace and comments, returns the next character without consuming it or -1 at the end
+    private int nextNonWhitespace() {
+        while (position < limit) {
+            int c = source.get(position) & 0xFF;
+            switch (c) {
+                case ' ', '\t', '\n', '\r', 0x0B, 0x0C -> position++;
+                case 0xC2 -> {
+                    // no-break space
+                    if (position + 1 < limit && (source.get(position + 1) & 0xFF) == 0xA0) position += 2;
+                    else return c;
+                }
+                case 0xE2 -> {
+                    if (lineSeparator(position)) position += 3;
+                    else return c;
+                }
+                case '/' -> {
+                    if (position + 1 >= limit) return c;
+                    int next = source.get(position + 1);
+                    if (next == '/') {
+                        position += 2;
+                        while (position < limit && source.get(position) != '\n' && source.get(position) != '\r' && !lineSeparator(position)) position++;
+                    } else if (next == '*') {
+                        position += 2;
+                        while (true) {
+                            if (position + 1 >= limit) throw syntaxError("Unterminated comment");
+                            if (source.get(position) == '*' && source.get(position + 1) == '/') break;
+                            position++;
+                        }
+                        position += 2;
+                    } else {
+                        return c;
+                    }
+                }
+                default -> {
+                    return c;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private String readName(int c) {
+        if (c == '"' || c == '\'') {
+            position++;
+            return readString(c);
+        }
+        int start = position;
+        while (position < limit) {
+            int b = source.get(position) & 0xFF;
+            if (!(b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_' || b == '$' || b >= 0x80)) break;
+            position++;
+        }
+        if (position == start) throw syntaxError("Expected a name");
+        return decode(start, position - start);
+    }
+
+    // position is just past the opening quote
+    private String readString(int quote) {
+        int start = position;
+        // fast path, no escapes
+        while (position < limit) {
+            int b = source.get(position);
+            if (b == quote) {
+                String result = decode(start, position - start);
+                position++;
+                return result;
+            }
+            if (b == '\\') break;
+            if (b == '\n' || b == '\r') throw syntaxError("Unterminated string");
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(decode(start, position - start));
+        while (true) {
+            if (position >= limit) throw syntaxError("Unterminated string");
+            int b = source.get(position);
+            if (b == quote) {
+                position++;
+                return builder.toString();
+            }
+            if (b == '\n' || b == '\r') throw syntaxError("Unterminated string");
+            if (b != '\\') {
+                int run = position;
+                while (position < limit && source.get(position) != quote && source.get(position) != '\\' && source.get(position) != '\n') position++;
+                builder.append(decode(run, position - run));
+                continue;
+            }
+            position++;
+            if (position >= limit) throw syntaxError("Unterminated string");
+            int escaped = source.get(position++);
+            switch (escaped) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'v' -> builder.append('\u000B');
+                case '0' -> builder.append('\0');
+                case 'x' -> builder.append((char) hex(2));
+                case 'u' -> builder.append((char) hex(4));
+                // line continuation
+                case '\r' -> {
+                    if (position < limit && source.get(position) == '\n') position++;
+                }
+                case '\n' -> {}
+                default -> {
+                    if (escaped >= 0) {
+                        builder.append((char) escaped);
+                    } else if (lineSeparator(position - 1)) {
+                        // U+2028 and U+2029 continue the line like \n does
+                        position += 2;
+                    } else {
+                        // any other character escapes to itself, all of its bytes
+                        int length = utf8Length(escaped & 0xFF);
+                        if (length < 0 || position - 1 + length > limit) throw syntaxError("Bad UTF-8 in escape");
+                        builder.append(decode(position - 1, length));
+                        position += length - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    // U+2028 LINE SEPARATOR or U+2029 PARAGRAPH SEPARATOR, which JSON5 treats as whitespace and line terminators
+    private boolean lineSeparator(int at) {
+        if (at + 2 >= limit || (source.get(at) & 0xFF) != 0xE2 || (source.get(at + 1) & 0xFF) != 0x80) return false;
+        int last = source.get(at + 2) & 0xFF;
+        return last == 0xA8 || last == 0xA9;
+    }
+
+    // bytes in the sequence a UTF-8 lead byte starts, -1 if it isn't one
+    private static int utf8Length(int lead) {
+        if (lead < 0x80) return 1;
+        if (lead >= 0xC2 && lead <= 0xDF) return 2;
+        if (lead >= 0xE0 && lead <= 0xEF) return 3;
+        if (lead >= 0xF0 && lead <= 0xF4) return 4;
+        return -1;
+    }
+
+    private int hex(int digits) {
+        if (position + digits > limit) throw syntaxError("Bad escape");
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = Character.digit(source.get(position++), 16);
+            if (digit < 0) throw syntaxError("Bad escape");
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private double readNumber() {
+        boolean negative = false;
+        int c = source.get(position);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+        }
+
+        if (matches("Infinity")) {
+            position += 8;
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if (matches("NaN")) {
+            position += 3;
+            return Double.NaN;
+        }
+        if (matches("0x") || matches("0X")) {
+            position += 2;
+            int start = position;
+            long value = 0;
+            while (position < limit) {
+                int digit = Character.digit(source.get(position), 16);
+                if (digit < 0) break;
+                if ((value >>> 60) != 0) throw syntaxError("Hex number doesn't fit in 64 bits");
+                value = (value << 4) | digit;
+                position++;
+            }
+            if (position == start) throw syntaxError("Expected hex digits");
+            // unsigned, 0xFFFFFFFFFFFFFFFF is 2^64 - 1 and not -1
+            double result = value >= 0 ? value : (double) (value >>> 1) * 2 + (value & 1);
+            return negative ? -result : result;
+        }
+
+        // accumulate the digits ourselves, if they fit in a double's mantissa and the exponent is small the result is exact without going through a String
+        int start = position;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean exact = true;
+        while (position < limit && isDigit(source.get(position))) {
+            if (digits < 18) mantissa = mantissa * 10 + (source.get(position) - '0');
+            else exact = false;
+            if (mantissa != 0) digits++;
+            position++;
+        }
+        if (position < limit && source.get(position) == '.') {
+            position++;
+            while (position < limit && isDigit(source.get(position))) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (source.get(position) - '0');
+                    exponent--;
+                    if (mantissa != 0) digits++;
+                } else {
+                    exact = false;
+                }
+                position++;
+            }
+        }
+        if (position == start) throw syntaxError("Expected a number");
+        if (position < limit && (source.get(position) == 'e' || source.get(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < limit && (source.get(position) == '-' || source.get(position) == '+')) negativeExponent = source.get(position++) == '-';
+            int value = 0;
+            int exponentStart = position;
+            while (position < limit && isDigit(source.get(position))) {
+                value = Math.min(value * 10 + (source.get(position++) - '0'), 100_000);
+            }
+            if (position == exponentStart) throw syntaxError("Expected an exponent");
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double result;
+        if (exact && mantissa < (1L << 53) && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            result = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            result = Double.parseDouble(decode(start, position - start));
+        }
+        return negative ? -result : result;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private boolean matches(String literal) {
+        if (position + literal.length() > limit) return false;
+        for (int i = 0; i < literal.length(); i++) {
+            if (source.get(position + i) != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String decode(int start, int length) {
+        if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        source.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        int line = 1;
+        int column = 1;
+        for (int i = source.position(); i < Math.min(position, limit); i++) {
+            if (source.get(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        return new IllegalStateException(message + " at line " + line + " column " + column);
+    }
+}
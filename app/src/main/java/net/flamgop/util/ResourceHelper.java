@@ -1,61 +1,87 @@
 package net.flamgop.util;
 
-import org.lwjgl.system.MemoryUtil;
+import net.flamgop.asset.vfs.ArchiveMount;
+import net.flamgop.asset.vfs.ClasspathMount;
+import net.flamgop.asset.vfs.DirectoryMount;
+import net.flamgop.asset.vfs.VirtualFileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
+// buffers from here can be mapped, give them back with free() rather than MemoryUtil.memFree
 public class ResourceHelper {
-    public static String loadFileContentsFromResource(String resource) {
-        try (InputStream is = ResourceHelper.class.getClassLoader().getResourceAsStream(resource)) {
-            if (is == null) throw new FileNotFoundException(resource);
-            return new String(is.readAllBytes());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceHelper.class);
+
+    private static final Path ARCHIVE = Path.of("./assets.pak");
+
+    private static final DirectoryMount ASSETS = new DirectoryMount(Path.of("./assets"));
+    private static final ClasspathMount RESOURCES = new ClasspathMount(ResourceHelper.class.getClassLoader());
+
+    // loose assets take priority over the packed archive, which takes priority over resources
+    private static final VirtualFileSystem FILE_SYSTEM = new VirtualFileSystem();
+    static {
+        FILE_SYSTEM.mount(ASSETS);
+        if (Files.isRegularFile(ARCHIVE)) {
+            try {
+                FILE_SYSTEM.mount(new ArchiveMount(ARCHIVE));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to mount {}", ARCHIVE, e);
+            }
         }
+        FILE_SYSTEM.mount(RESOURCES);
+    }
+
+    public static VirtualFileSystem fileSystem() {
+        return FILE_SYSTEM;
+    }
+
+    public static void free(ByteBuffer buffer) {
+        VirtualFileSystem.free(buffer);
+    }
+
+    // call after files were added or removed on disk
+    public static void invalidate() {
+        FILE_SYSTEM.invalidate();
+    }
+
+    private static ByteBuffer require(ByteBuffer buffer, String path) {
+        if (buffer == null) throw new RuntimeException(new FileNotFoundException(path));
+        return buffer;
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        String contents = StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+        free(buffer);
+        return contents;
+    }
+
+    public static String loadFileContentsFromResource(String resource) {
+        return decode(loadFileFromResource(resource));
     }
 
     public static ByteBuffer loadFileFromResource(String resource) {
-        try (InputStream is = ResourceHelper.class.getClassLoader().getResourceAsStream(resource)) {
-            if (is == null) throw new FileNotFoundException(resource);
-            byte[] bytes = is.readAllBytes();
-            ByteBuffer buf = MemoryUtil.memAlloc(bytes.length);
-            buf.put(0, bytes);
-            return buf;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return require(RESOURCES.read(resource), resource);
     }
 
     public static ByteBuffer loadFileFromAssets(String path) {
-        try (FileInputStream fis = new FileInputStream("./assets/" + path)) {
-            byte[] bytes = fis.readAllBytes();
-            ByteBuffer buf = MemoryUtil.memAlloc(bytes.length);
-            buf.put(0, bytes);
-            return buf;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return require(ASSETS.read(path), "./assets/" + path);
     }
 
     public static String loadFileContentsFromAssets(String path) {
-        try (FileInputStream fis = new FileInputStream("./assets/" + path)) {
-            return new String(fis.readAllBytes());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return decode(loadFileFromAssets(path));
     }
 
     // loads from resources, unless it exists in assets
     public static ByteBuffer loadFileFromAssetsOrResources(String path) {
-        File file = new File("./assets/" + path);
-        if (file.exists()) return loadFileFromAssets(path);
-        else return loadFileFromResource(path);
+        return require(FILE_SYSTEM.read(path), path);
     }
 
     public static String loadFileContentsFromAssetsOrResources(String path) {
-        File file = new File("./assets/" + path);
-        if (file.exists()) return loadFileContentsFromAssets(path);
-        else return loadFileContentsFromResource(path);
+        return decode(loadFileFromAssetsOrResources(path));
     }
 }
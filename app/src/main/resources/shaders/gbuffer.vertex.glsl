@@ -12,10 +12,15 @@ layout(std140, binding = 0) uniform CameraData {
     float _pad0;
 } cam_in;
 
-layout(std140, binding = 1) uniform ObjectData {
+struct ObjectData {
     mat4 model;
     mat4 normal;
-} obj_in;
+};
+
+// one entry per instance of the whole pass, a batch's instances start at gl_BaseInstance
+layout(std430, binding = 4) readonly buffer InstanceBuffer {
+    ObjectData instances[];
+};
 
 out FragmentInput {
     vec3 world_pos;
@@ -24,6 +29,7 @@ out FragmentInput {
 } vs_out;
 
 void main() {
+    ObjectData obj_in = instances[gl_BaseInstance + gl_InstanceID];
     vec4 world_pos = obj_in.model * vec4(position, 1.0);
     vs_out.world_pos = world_pos.xyz;
     vs_out.texcoord = texcoord;
@@ -2,13 +2,18 @@
 
 layout(location = 0) in vec3 position;
 
-layout(std140, binding = 1) uniform ObjectData {
+struct ObjectData {
     mat4 model;
     mat4 normal;
-} obj_in;
+};
+
+// one entry per instance of the whole pass, a batch's instances start at gl_BaseInstance
+layout(std430, binding = 4) readonly buffer InstanceBuffer {
+    ObjectData instances[];
+};
 
 void main() {
-    vec4 world_pos = obj_in.model * vec4(position, 1.0);
+    vec4 world_pos = instances[gl_BaseInstance + gl_InstanceID].model * vec4(position, 1.0);
 
     gl_Position = world_pos;
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package net.flamgop.entity;
+
+import com.sun.management.ThreadMXBean;
+import net.flamgop.gpu.culling.PackedBounds;
+import net.flamgop.gpu.data.ModelUniformData;
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The transform accessors and what reads them every frame must not allocate once warmed up. Measured with the current
+ * thread's allocation counter, so anything the JIT or GC threads do meanwhile doesn't count.
+ */
+class TransformAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int MEASURED = 10_000;
+
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private TransformStore store;
+    private Transform root, child;
+
+    private final Vector3f position = new Vector3f();
+    private final Quaternionf rotation = new Quaternionf();
+    private final Matrix4f matrix = new Matrix4f();
+    private final Vector3f delta = new Vector3f(0.01f, 0, 0);
+    private final Quaternionf spin = new Quaternionf().rotateY(0.01f);
+    private final ModelUniformData uniforms = new ModelUniformData();
+    private final PackedBounds bounds = new PackedBounds(16);
+    private final Vector3f min = new Vector3f(-1), max = new Vector3f(1);
+    private float sink;
+
+    @BeforeEach
+    void setUp() {
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "allocation counter unsupported on this JVM");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        store = new TransformStore(16);
+        Entity entity = new Entity();
+        root = new Transform(entity, store);
+        child = new Transform(entity, store);
+        child.parent(root);
+        child.position(0, 1, 0);
+        store.update();
+    }
+
+    @Test
+    void accessorsDoNotAllocate() {
+        assertEquals(0, allocatedBy(this::accessors));
+    }
+
+    @Test
+    void perFrameCallersDoNotAllocate() {
+        assertEquals(0, allocatedBy(this::frame));
+    }
+
+    private long allocatedBy(Runnable work) {
+        for (int i = 0; i < WARMUP; i++) work.run();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED; i++) work.run();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        // keep the reads from being optimized out
+        assertTrue(Float.isFinite(sink));
+        return allocated;
+    }
+
+    private void accessors() {
+        sink += root.position(position).x + root.rotation(rotation).w;
+        sink += child.positionView().y() + child.rotationView().w();
+        sink += child.getLocalMatrix(matrix).m31();
+        sink += child.getWorldMatrix(matrix).m31();
+        sink += child.getInverseWorldMatrix(matrix).m31();
+        sink += child.worldMatrixView().m31();
+        sink += child.version();
+    }
+
+    // what a frame does with transforms: move things, propagate, then read the world matrices back for drawing and culling
+    private void frame() {
+        root.translate(delta);
+        root.rotate(spin);
+        child.position(0, 1, 0);
+        child.rotation(0, 0, 0, 1);
+        store.update();
+
+        bounds.clear();
+        draw(root);
+        draw(child);
+        sink += bounds.distance(0, root.positionView());
+    }
+
+    // ModelRenderer.prepare and the culler's per item work
+    private void draw(Transform transform) {
+        transform.getWorldMatrix(uniforms.model);
+        uniforms.computeNormal();
+        bounds.add(transform.worldMatrixView(), min, max);
+    }
+}
@@ -0,0 +1,142 @@
+package net.flamgop.gpu;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// key layout and the radix sort, neither touches GL
+class RenderQueueTest {
+
+    @Test
+    void keyFieldsLandInTheirBits() {
+        long key = RenderQueue.key(0xA, 0xBCD, 0x1234, 0x5678, 0.5f, 1f);
+        assertEquals(0xAL, key >>> 60);
+        assertEquals(0xBCDL, key >>> 48 & 0xFFF);
+        assertEquals(0x1234L, key >>> 32 & 0xFFFF);
+        assertEquals(0x5678L, key >>> 16 & 0xFFFF);
+        assertEquals(0x7FFFL, key & 0xFFFF);
+    }
+
+    @Test
+    void keyMasksFieldsThatDontFit() {
+        // nothing may spill into the field above
+        long key = RenderQueue.key(0x1F, 0x1FFF, 0x1FFFF, 0x1FFFF, 0, 1f);
+        assertEquals(RenderQueue.key(0xF, 0xFFF, 0xFFFF, 0xFFFF, 0, 1f), key);
+    }
+
+    @Test
+    void keyDepthIsClampedAndFrontToBack() {
+        float far = 100f;
+        long near = RenderQueue.key(1, 1, 1, 1, 1f, far);
+        long further = RenderQueue.key(1, 1, 1, 1, 50f, far);
+        assertTrue(Long.compareUnsigned(near, further) < 0);
+        assertEquals(0xFFFFL, RenderQueue.key(1, 1, 1, 1, 1000f, far) & 0xFFFF);
+        assertEquals(0L, RenderQueue.key(1, 1, 1, 1, -5f, far) & 0xFFFF);
+        // past the far plane doesn't bleed into the vao
+        assertEquals(1L, RenderQueue.key(1, 1, 1, 1, 1000f, far) >>> 16 & 0xFFFF);
+    }
+
+    @Test
+    void passWithTheHighBitSetSortsLast() {
+        // pass 8 and up make the key negative as a signed long, it still has to come after the lower passes
+        long[] keys = {
+                RenderQueue.key(0xF, 1, 1, 1, 0, 1f),
+                RenderQueue.key(0x8, 1, 1, 1, 0, 1f),
+                RenderQueue.key(RenderQueue.PASS_GBUFFER, 1, 1, 1, 0, 1f),
+                RenderQueue.key(RenderQueue.PASS_SHADOW, 1, 1, 1, 0, 1f),
+        };
+        int[] values = {0, 1, 2, 3};
+        sort(keys, values, keys.length);
+        assertArrayEquals(new int[] {3, 2, 1, 0}, values);
+        assertEquals(0xFL, keys[3] >>> 60);
+    }
+
+    @Test
+    void sharedBytesAreSkippedWithoutLosingOrder() {
+        // pass and shader identical everywhere and only the low bytes random, so every byte above them is skipped. Whether an odd
+        // or even number of passes remains, the result has to end up in the caller's arrays
+        for (int differing = 1; differing <= 5; differing++) {
+            SplittableRandom random = new SplittableRandom(differing);
+            long prefix = RenderQueue.key(RenderQueue.PASS_GBUFFER, 7, 0, 0, 0, 1f);
+            long mask = (1L << (8 * differing)) - 1;
+            long[] keys = new long[200];
+            for (int i = 0; i < keys.length; i++) keys[i] = prefix | random.nextLong() & mask;
+            assertSortedLikeReference(keys);
+        }
+    }
+
+    @Test
+    void equalKeysKeepTheirOrder() {
+        long[] keys = new long[100];
+        Arrays.fill(keys, RenderQueue.key(1, 2, 3, 4, 0.25f, 1f));
+        for (int i = 0; i < keys.length; i += 2) keys[i] += 1;
+        int[] values = IntStream.range(0, keys.length).toArray();
+        sort(keys, values, keys.length);
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i] == keys[i - 1]) assertTrue(values[i] > values[i - 1], "stable at " + i);
+        }
+    }
+
+    @Test
+    void valuesMoveWithTheirKeys() {
+        SplittableRandom random = new SplittableRandom(7);
+        long[] keys = new long[500];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+        long[] original = keys.clone();
+        int[] values = IntStream.range(0, keys.length).toArray();
+        sort(keys, values, keys.length);
+        for (int i = 0; i < keys.length; i++) assertEquals(original[values[i]], keys[i]);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 255, 256, 257, 10_000})
+    void sortsAnyCount(int count) {
+        SplittableRandom random = new SplittableRandom(count);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) keys[i] = random.nextLong();
+        assertSortedLikeReference(keys);
+    }
+
+    @Test
+    void onlyTheFirstCountElementsAreTouched() {
+        long[] keys = {5, 3, 9, 1, 0};
+        int[] values = {0, 1, 2, 3, 4};
+        sort(keys, values, 3);
+        assertArrayEquals(new long[] {3, 5, 9, 1, 0}, keys);
+        assertArrayEquals(new int[] {1, 0, 2, 3, 4}, values);
+
+        long[] single = {-1L};
+        int[] singleValue = {42};
+        sort(single, singleValue, 1);
+        assertEquals(-1L, single[0]);
+        assertEquals(42, singleValue[0]);
+
+        sort(new long[0], new int[0], 0);
+    }
+
+    private static void sort(long[] keys, int[] values, int count) {
+        RenderQueue.sort(keys, values, count, new long[count], new int[count]);
+    }
+
+    // against a comparison sort by unsigned key, stable so equal keys keep their order in both
+    private static void assertSortedLikeReference(long[] keys) {
+        Integer[] reference = IntStream.range(0, keys.length).boxed().toArray(Integer[]::new);
+        Arrays.sort(reference, Comparator.<Integer, Long>comparing(i -> keys[i], Long::compareUnsigned));
+
+        long[] sorted = keys.clone();
+        int[] values = IntStream.range(0, keys.length).toArray();
+        sort(sorted, values, keys.length);
+
+        assertArrayEquals(Arrays.stream(reference).mapToInt(Integer::intValue).toArray(), values);
+        for (int i = 0; i < keys.length; i++) assertEquals(keys[reference[i]], sorted[i]);
+    }
+}
@@ -0,0 +1,140 @@
+package net.flamgop.gpu.culling;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The vector path has to agree bit for bit with the single box test, including for counts that leave a tail shorter than a
+ * register and for boxes that straddle a plane. The tests run with the incubator module (see the build), so both paths are used.
+ */
+class BatchCullerTest {
+    private static final int PLANES = 6;
+    private static final int VIEWS = 3;
+
+    @Test
+    void vectorPathIsAvailableToTests() {
+        assertTrue(BatchCuller.VECTOR, "tests are meant to run with --add-modules jdk.incubator.vector");
+    }
+
+    // every count around the register widths (up to 16 lanes) and the 64 bit word boundaries
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65, 127, 128, 129, 1000, 1023, 1024, 1025})
+    void batchMatchesSingleBoxTest(int count) {
+        SplittableRandom random = new SplittableRandom(count);
+        PackedBounds bounds = bounds(random, count);
+        float[] planes = planes(random);
+
+        long[][] visible = new long[VIEWS][BatchCuller.words(count)];
+        BatchCuller.cull(bounds, planes, PLANES, visible);
+
+        assertArrayEquals(expected(bounds, planes, count), visible);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 3, 8, 13, 16, 17, 64, 100, 1025})
+    void vectorCullerCoversWholeRegistersOnly(int count) {
+        assumeTrue(BatchCuller.VECTOR);
+        SplittableRandom random = new SplittableRandom(31L * count);
+        PackedBounds bounds = bounds(random, count);
+        float[] planes = planes(random);
+
+        long[][] visible = new long[VIEWS][BatchCuller.words(count)];
+        int from = VectorCuller.cull(bounds, planes, PLANES, visible);
+        assertTrue(from <= count);
+
+        long[][] expected = expected(bounds, planes, from);
+        for (int v = 0; v < VIEWS; v++) {
+            // the tail is left for the scalar loop, nothing past the last full register may be touched
+            for (int i = from; i < count; i++) assertFalse(BatchCuller.visible(visible[v], i), "view " + v + " box " + i);
+            for (int w = 0; w < BatchCuller.words(from); w++) assertEquals(expected[v][w], visible[v][w], "view " + v + " word " + w);
+        }
+    }
+
+    @Test
+    void boxTouchingAPlaneIsKept() {
+        PackedBounds bounds = new PackedBounds(16);
+        // plane x >= 0, a box reaching exactly to it and one just short of it
+        bounds.add(-1, 0, 0, 1, 1, 1);
+        bounds.add(-1.001f, 0, 0, 1, 1, 1);
+        float[] planes = new float[4 * PLANES];
+        planes[0] = 1;
+        for (int p = 1; p < PLANES; p++) planes[4 * p + 3] = 1; // zero normal, always in front
+
+        long[] visible = new long[1];
+        BatchCuller.cull(bounds, planes, PLANES, visible);
+        assertTrue(BatchCuller.visible(visible, 0));
+        assertFalse(BatchCuller.visible(visible, 1));
+    }
+
+    // a box the math can't place (a NaN from a degenerate matrix, say) has to come out the same on both paths, and kept
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 16, 17, 64, 100})
+    void nanBoxesAreKeptOnBothPaths(int count) {
+        SplittableRandom random = new SplittableRandom(97L * count);
+        PackedBounds bounds = new PackedBounds(count);
+        for (int i = 0; i < count; i++) {
+            float center = i % 3 == 0 ? Float.NaN : (float) random.nextDouble(-30, 30);
+            float extent = i % 5 == 0 ? Float.NaN : (float) random.nextDouble(0.1, 4);
+            bounds.add(center, (float) random.nextDouble(-30, 30), (float) random.nextDouble(-30, 30), extent, 1, 1);
+        }
+        float[] planes = planes(random);
+
+        long[][] visible = new long[VIEWS][BatchCuller.words(count)];
+        BatchCuller.cull(bounds, planes, PLANES, visible);
+
+        assertArrayEquals(expected(bounds, planes, count), visible);
+        for (int v = 0; v < VIEWS; v++) {
+            for (int i = 0; i < count; i++) {
+                if (i % 3 == 0 || i % 5 == 0) assertTrue(BatchCuller.visible(visible[v], i), "view " + v + " box " + i);
+            }
+        }
+    }
+
+    private static long[][] expected(PackedBounds bounds, float[] planes, int count) {
+        long[][] expected = new long[VIEWS][BatchCuller.words(bounds.size())];
+        for (int v = 0; v < VIEWS; v++) {
+            for (int i = 0; i < count; i++) {
+                if (BatchCuller.visible(bounds.centerX[i], bounds.centerY[i], bounds.centerZ[i],
+                        bounds.extentX[i], bounds.extentY[i], bounds.extentZ[i], planes, v * 4 * PLANES, PLANES)) {
+                    expected[v][i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return expected;
+    }
+
+    // spread over a volume a few times the size of the views, so some boxes are in, some out and some straddle
+    private static PackedBounds bounds(SplittableRandom random, int count) {
+        PackedBounds bounds = new PackedBounds(count);
+        for (int i = 0; i < count; i++) {
+            bounds.add(
+                    (float) random.nextDouble(-30, 30), (float) random.nextDouble(-30, 30), (float) random.nextDouble(-30, 30),
+                    (float) random.nextDouble(0.1, 4), (float) random.nextDouble(0.1, 4), (float) random.nextDouble(0.1, 4)
+            );
+        }
+        return bounds;
+    }
+
+    // random unit normals at random distances, not real frusta but the test doesn't care about the shape
+    private static float[] planes(SplittableRandom random) {
+        float[] planes = new float[4 * PLANES * VIEWS];
+        for (int p = 0; p < PLANES * VIEWS; p++) {
+            float x = (float) random.nextDouble(-1, 1), y = (float) random.nextDouble(-1, 1), z = (float) random.nextDouble(-1, 1);
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            planes[4 * p] = x / length;
+            planes[4 * p + 1] = y / length;
+            planes[4 * p + 2] = z / length;
+            planes[4 * p + 3] = (float) random.nextDouble(5, 25);
+        }
+        return planes;
+    }
+}
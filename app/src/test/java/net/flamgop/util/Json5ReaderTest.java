@@ -0,0 +1,46 @@
+package net.flamgop.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Json5ReaderTest {
+
+    private static Json5Reader reader(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        return new Json5Reader(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+    }
+
+    @Test
+    void escapedNonAsciiCharacterIsTheWholeCodePoint() {
+        assertEquals("aé€😀b", reader("'a\\é\\€\\😀b'").nextString());
+    }
+
+    @Test
+    void escapedLineSeparatorsContinueTheLine() {
+        assertEquals("ab", reader("'a\\\u2028b'").nextString());
+        assertEquals("ab", reader("'a\\\u2029b'").nextString());
+    }
+
+    @Test
+    void lineSeparatorsAreWhitespaceAndEndLineComments() {
+        Json5Reader reader = reader("\u2028{\u2029a: // comment\u20281,\u2029}");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        assertEquals(1, reader.nextInt());
+        reader.endObject();
+    }
+
+    @Test
+    void hexUpToSixtyFourBits() {
+        assertEquals(255, reader("0xff").nextDouble());
+        assertEquals(0x7FFFFFFFFFFFFFFFL, (long) reader("0x7FFFFFFFFFFFFFFF").nextDouble());
+        assertEquals(18446744073709551615.0, reader("0xFFFFFFFFFFFFFFFF").nextDouble());
+        assertEquals(1, reader("0x00000000000000000001").nextDouble());
+        assertThrows(IllegalStateException.class, () -> reader("0x10000000000000000").nextDouble());
+    }
+}